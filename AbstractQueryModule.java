@@ -1,7 +1,7 @@
 import java.util.BitSet;
 
 /**
-*   Interface defining the custom compiled QueryModule object
+*   Interface defining the custom QueryModule object (see CustomQuery)
 *   @author Jamie K. Teer
 */
 public interface AbstractQueryModule {
@@ -10,4 +10,14 @@ public interface AbstractQueryModule {
     *   Execute the QueryModule
     */
     public abstract BitSet executeCustomQuery();
+
+    /**
+    *   Execute the QueryModule on a range of rows.  Ranges may be run at the same time, on different
+    *    threads, and their results merged.
+    *
+    *   @param start First row
+    *   @param end Row after the last row
+    *   @return BitSet of the rows passing, where bit 0 is row start
+    */
+    public abstract BitSet executeCustomQuery(int start, int end);
 }
@@ -0,0 +1,318 @@
+import java.io.*;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+/**
+*   Reads a BGZF (blocked gzip, as written by bgzip) file.  BGZF blocks are independent, so several
+*   blocks are decompressed at once on the threads of VSThreadPool, and returned in order.
+*   Use open() to read a file that may be plain text, gzip, or BGZF.
+*   A BGZF file can also be read from a virtual offset (as stored in a tabix index), and the virtual offset
+*   of the next unread byte is available from getVirtualOffset().
+*/
+public class BGZFInputStream extends InputStream {
+
+    private final static int MAX_BLOCK_SIZE = 65536;
+    private final static int BUFFER_SIZE = 65536;
+
+    private DataInputStream raw;
+    private LinkedList<Future<byte[]>> pending = new LinkedList<Future<byte[]>>();
+    private LinkedList<Long> pendingOffsets = new LinkedList<Long>();  //File offset of each pending block
+    private long rawOffset = 0;         //File offset of the next block to be read
+    private long currentOffset = 0;     //File offset of the block in current
+    private int maxPending;
+    private boolean rawEOF = false;
+    private byte[] current = new byte[0];
+    private int pos = 0;
+
+    /**
+    *   Open a file for reading, decompressing it if it is gzip or BGZF (detected from the file contents,
+    *   not the name).
+    *
+    *   @param path Path to the file
+    *   @return An InputStream of the (uncompressed) file contents
+    */
+    public static InputStream open(String path) throws IOException {
+        return open(path, false);
+    }
+
+
+    /**
+    *   Open a file for reading, decompressing it if needed (see open(String))
+    *
+    *   @param path Path to the file
+    *   @param trackProgress True to count the bytes read for the load in progress (see LoadProgress)
+    *   @return An InputStream of the (uncompressed) file contents
+    */
+    public static InputStream open(String path, boolean trackProgress) throws IOException {
+        byte[] head = new byte[16];
+        int n = 0;
+        FileInputStream fis = new FileInputStream(path);
+        try {
+            int r;
+            while (n < head.length && (r = fis.read(head, n, head.length - n)) > 0) {
+                n += r;
+            }
+        }
+        finally {
+            fis.close();
+        }
+
+        InputStream fileIn = new FileInputStream(path);
+        if (trackProgress) {
+            fileIn = LoadProgress.track(fileIn);
+        }
+        if (isBGZF(head, n)) {
+            return new BGZFInputStream(fileIn);
+        }
+        else if (n >= 2 && (head[0] & 0xff) == 31 && (head[1] & 0xff) == 139) {
+            return new GZIPInputStream(fileIn, BUFFER_SIZE);
+        }
+        else {
+            return new BufferedInputStream(fileIn, BUFFER_SIZE);
+        }
+    }
+
+
+    /**
+    *   True if the bytes start a BGZF block: a gzip header with the "BC" extra subfield
+    *
+    *   @param head First bytes of a file
+    *   @param n Number of bytes in head
+    */
+    public static boolean isBGZF(byte[] head, int n) {
+        return n >= 16
+            && (head[0] & 0xff) == 31 && (head[1] & 0xff) == 139   // gzip magic
+            && (head[2] & 0xff) == 8                                // deflate
+            && (head[3] & 4) != 0                                   // FEXTRA
+            && head[12] == 'B' && head[13] == 'C';
+    }
+
+
+    /**
+    *   Constructor
+    *
+    *   @param in Stream of BGZF blocks (ie a FileInputStream), closed by close()
+    */
+    public BGZFInputStream(InputStream in) {
+        raw = new DataInputStream(new BufferedInputStream(in, BUFFER_SIZE));
+        maxPending = VSThreadPool.getThreadCount() * 4;
+    }
+
+
+    /**
+    *   Constructor, starting at a virtual offset
+    *
+    *   @param path Path to a BGZF file
+    *   @param virtualOffset Offset of the block in the file (upper 48 bits) and of the first byte to read
+    *    within the uncompressed block (lower 16 bits)
+    *   @param inMaxPending Number of blocks to decompress ahead of the reader.  Keep this small when only a
+    *    short stretch of the file will be read.
+    */
+    public BGZFInputStream(String path, long virtualOffset, int inMaxPending) throws IOException {
+        FileInputStream fis = new FileInputStream(path);
+        rawOffset = virtualOffset >>> 16;
+        fis.getChannel().position(rawOffset);
+        raw = new DataInputStream(new BufferedInputStream(fis, BUFFER_SIZE));
+        maxPending = Math.max(1, inMaxPending);
+
+        int skip = (int)(virtualOffset & 0xffff);
+        if (skip > 0) {
+            if (!fillCurrent() || skip > current.length) {
+                throw new IOException("Virtual offset is past the end of its BGZF block");
+            }
+            pos = skip;
+        }
+    }
+
+
+    /**
+    *   Return the virtual offset of the next unread byte
+    *
+    *   @return Block file offset << 16 | offset within the uncompressed block
+    */
+    public long getVirtualOffset() {
+        if (pos < current.length) {
+            return (currentOffset << 16) | pos;
+        }
+        else if (!pendingOffsets.isEmpty()) {
+            return pendingOffsets.getFirst().longValue() << 16;
+        }
+        else {
+            return rawOffset << 16;
+        }
+    }
+
+
+    public int read() throws IOException {
+        if (!fillCurrent()) {
+            return -1;
+        }
+        return current[pos++] & 0xff;
+    }
+
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fillCurrent()) {
+            return -1;
+        }
+        int n = Math.min(len, current.length - pos);
+        System.arraycopy(current, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+
+    public int available() {
+        return current.length - pos;
+    }
+
+
+    public void close() throws IOException {
+        for (Future<byte[]> f : pending) {
+            f.cancel(false);
+        }
+        pending.clear();
+        pendingOffsets.clear();
+        raw.close();
+    }
+
+
+    /**
+    *   Make sure current has unread bytes, waiting for the next decompressed block if needed
+    *
+    *   @return False at end of file
+    */
+    private boolean fillCurrent() throws IOException {
+        while (pos == current.length) {
+            while (!rawEOF && pending.size() < maxPending) {
+                long blockOffset = rawOffset;
+                byte[] block = readRawBlock();
+                if (block == null) {
+                    rawEOF = true;
+                }
+                else {
+                    pending.add(VSThreadPool.getPool().submit(new BlockInflater(block)));
+                    pendingOffsets.add(blockOffset);
+                }
+            }
+            if (pending.isEmpty()) {
+                return false;
+            }
+            try {
+                currentOffset = pendingOffsets.removeFirst().longValue();
+                current = pending.removeFirst().get();
+                pos = 0;
+            }
+            catch (InterruptedException ie) {
+                throw new InterruptedIOException("BGZF read interrupted");
+            }
+            catch (ExecutionException ee) {
+                IOException ioe = new IOException("BGZF block could not be decompressed: " + ee.getCause());
+                ioe.initCause(ee.getCause());
+                throw ioe;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+    *   Read one compressed block (header, deflate data and trailer)
+    *
+    *   @return The block, or null at end of file
+    */
+    private byte[] readRawBlock() throws IOException {
+        byte[] header = new byte[12];
+        int n = 0;
+        int r;
+        while (n < header.length && (r = raw.read(header, n, header.length - n)) > 0) {
+            n += r;
+        }
+        if (n == 0) {
+            return null;
+        }
+        if (n < header.length || (header[0] & 0xff) != 31 || (header[1] & 0xff) != 139 || (header[3] & 4) == 0) {
+            throw new IOException("Not a valid BGZF file: bad block header");
+        }
+
+        //Extra field: find the BC subfield holding the block size
+        int xlen = (header[10] & 0xff) | ((header[11] & 0xff) << 8);
+        byte[] extra = new byte[xlen];
+        raw.readFully(extra);
+        int blockSize = -1;
+        for (int i=0; i + 4 <= xlen; ) {
+            int slen = (extra[i + 2] & 0xff) | ((extra[i + 3] & 0xff) << 8);
+            if (extra[i] == 'B' && extra[i + 1] == 'C' && slen == 2 && i + 6 <= xlen) {
+                blockSize = ((extra[i + 4] & 0xff) | ((extra[i + 5] & 0xff) << 8)) + 1;
+            }
+            i += 4 + slen;
+        }
+        if (blockSize < 0) {
+            throw new IOException("Not a valid BGZF file: block size missing");
+        }
+
+        //Keep only deflate data + CRC32 + ISIZE
+        byte[] block = new byte[blockSize - 12 - xlen];
+        raw.readFully(block);
+        rawOffset += blockSize;
+        return block;
+    }
+
+
+    /**
+    *   Decompresses one block, checking its length and CRC32
+    */
+    private static class BlockInflater implements Callable<byte[]> {
+        private byte[] block;
+
+        BlockInflater(byte[] inBlock) {
+            block = inBlock;
+        }
+
+        public byte[] call() throws IOException, DataFormatException {
+            int dataLength = block.length - 8;
+            int iSize = readInt(block, dataLength + 4);
+            if (iSize < 0 || iSize > MAX_BLOCK_SIZE) {
+                throw new IOException("Not a valid BGZF file: bad block length " + iSize);
+            }
+            byte[] out = new byte[iSize];
+            Inflater inf = new Inflater(true);
+            try {
+                inf.setInput(block, 0, dataLength);
+                int n = 0;
+                while (n < iSize) {
+                    int r = inf.inflate(out, n, iSize - n);
+                    if (r == 0 && (inf.finished() || inf.needsInput())) {
+                        break;
+                    }
+                    n += r;
+                }
+                if (n != iSize) {
+                    throw new IOException("BGZF block is shorter than its stated length");
+                }
+            }
+            finally {
+                inf.end();
+            }
+            CRC32 crc = new CRC32();
+            crc.update(out, 0, iSize);
+            if ((int)crc.getValue() != readInt(block, dataLength)) {
+                throw new IOException("BGZF block failed CRC check");
+            }
+            return out;
+        }
+
+        private static int readInt(byte[] b, int off) {
+            return (b[off] & 0xff) | ((b[off + 1] & 0xff) << 8) | ((b[off + 2] & 0xff) << 16) | ((b[off + 3] & 0xff) << 24);
+        }
+    }
+}
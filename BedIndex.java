@@ -0,0 +1,152 @@
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+*   The regions of a BED file, for testing positions against.  The regions of each chromosome are sorted
+*   and overlapping or adjacent ones are merged, so a position is tested with one binary search.
+*   The index of the last BED file used is kept, and reused while the file is unchanged.
+*/
+public class BedIndex {
+
+    private static BedIndex lastIndex = null;
+
+    private String path;
+    private long modified;
+    private long length;
+    private Map<String, int[][]> regions = new HashMap<String, int[][]>();  //chrom -> {starts, ends}
+
+    /**
+    *   Return the index of a BED file, reading the file only if it is not the last one used, or has
+    *    changed since
+    *
+    *   @param inFile The BED file
+    *   @return The index
+    */
+    public static synchronized BedIndex get(String inFile) {
+        File f = new File(inFile);
+        BedIndex bi = lastIndex;
+        if (bi == null || !bi.path.equals(f.getAbsolutePath()) || bi.modified != f.lastModified()
+            || bi.length != f.length()) {
+
+            bi = new BedIndex(inFile);
+            lastIndex = bi;
+        }
+        return bi;
+    }
+
+
+    /**
+    *   Constructor
+    *
+    *   @param inFile The BED file to read.  Only lines starting with "chr" are used.
+    */
+    public BedIndex(String inFile) {
+        File f = new File(inFile);
+        path = f.getAbsolutePath();
+        modified = f.lastModified();
+        length = f.length();
+
+        Map<String, List<int[]>> byChrom = new HashMap<String, List<int[]>>();
+        try {
+            String line = "";
+            Pattern chr = Pattern.compile("^chr");
+            BufferedReader br = new BufferedReader(new FileReader(inFile));
+            while ((line = br.readLine()) != null) {
+                if ( (chr.matcher(line)).find() ) {
+                    String[] lineArray = line.split("\\s+");
+                    List<int[]> l = byChrom.get(lineArray[0]);
+                    if (l == null) {
+                        l = new ArrayList<int[]>();
+                        byChrom.put(lineArray[0], l);
+                    }
+                    //BED starts are 0-based; keep 1-based, inclusive coordinates
+                    l.add(new int[] { Integer.parseInt(lineArray[1]) + 1, Integer.parseInt(lineArray[2]) });
+                }
+            }
+            br.close();
+        }
+        catch (IOException ioe) {
+            System.out.println(ioe);
+            System.exit(1);
+        }
+
+        for (Map.Entry<String, List<int[]>> e : byChrom.entrySet()) {
+            regions.put(e.getKey(), merge(e.getValue()));
+        }
+    }
+
+
+    /**
+    *   Return true if a position is in a region
+    *
+    *   @param chrom The chromosome
+    *   @param pos The position (1-based)
+    *   @return True if a region of chrom holds pos
+    */
+    public boolean contains(String chrom, int pos) {
+        int[][] r = regions.get(chrom);
+        if (r == null) {
+            return false;
+        }
+        int i = Arrays.binarySearch(r[0], pos);
+        if (i < 0) {
+            i = -i - 2;     //Last region starting before pos
+        }
+        return (i >= 0 && pos <= r[1][i]);
+    }
+
+
+    /**
+    *   Return the number of regions after merging
+    *
+    *   @return Number of regions
+    */
+    public int getRegionCount() {
+        int count = 0;
+        for (int[][] r : regions.values()) {
+            count += r[0].length;
+        }
+        return count;
+    }
+
+
+    /**
+    *   Sort regions, and merge those that overlap or touch
+    *
+    *   @param in Regions as {start, end}
+    *   @return Sorted starts and ends of the merged regions
+    */
+    private static int[][] merge(List<int[]> in) {
+        long[] sorted = new long[in.size()];
+        for (int i=0; i < sorted.length; i++) {
+            int[] r = in.get(i);
+            sorted[i] = ((long)r[0] << 32) | (r[1] & 0xffffffffL);
+        }
+        Arrays.sort(sorted);
+
+        int[] starts = new int[sorted.length];
+        int[] ends = new int[sorted.length];
+        int n = 0;
+        for (long l : sorted) {
+            int start = (int)(l >> 32);
+            int end = (int)l;
+            if (end < start) {
+                continue;       //Empty region
+            }
+            if (n > 0 && start <= ends[n - 1] + 1) {
+                ends[n - 1] = Math.max(ends[n - 1], end);
+            }
+            else {
+                starts[n] = start;
+                ends[n] = end;
+                n++;
+            }
+        }
+        return new int[][] { Arrays.copyOf(starts, n), Arrays.copyOf(ends, n) };
+    }
+}
@@ -0,0 +1,97 @@
+import java.util.BitSet;
+
+/**
+*   Inverted index of a dictionary-coded annotation column: the rows holding each code.  Filters that test
+*   a column for a set of codes can then OR together the rows of those codes, instead of testing every row.
+*   The rows of each code are kept as a sorted list, all in one array; codes found in many rows are also
+*   kept as a BitSet, which is faster to OR in.
+*/
+public class ColumnIndex {
+
+    private final static int DENSE_FRACTION = 32;   //Codes in more than 1 of this many rows get a BitSet
+
+    private int rowCount;
+    private int[] rows;         //Rows of code c are rows[start[c]] to rows[start[c + 1] - 1]
+    private int[] start;
+    private BitSet[] dense;     //Rows of frequent codes, null for others
+
+    /**
+    *   Build the index of a column
+    *
+    *   @param data Annotation values [row][column]
+    *   @param col The column
+    *   @param codeCount Number of codes of the column (see VarData.getCodeCount())
+    */
+    public ColumnIndex(int[][] data, int col, int codeCount) {
+        rowCount = data.length;
+        start = new int[codeCount + 1];
+        for (int i=0; i < rowCount; i++) {
+            start[data[i][col] + 1]++;
+        }
+        for (int c=0; c < codeCount; c++) {
+            start[c + 1] += start[c];
+        }
+        rows = new int[rowCount];
+        int[] next = new int[codeCount];
+        System.arraycopy(start, 0, next, 0, codeCount);
+        for (int i=0; i < rowCount; i++) {
+            rows[next[data[i][col]]++] = i;
+        }
+
+        dense = new BitSet[codeCount];
+        for (int c=0; c < codeCount; c++) {
+            if ((start[c + 1] - start[c]) > rowCount / DENSE_FRACTION) {
+                dense[c] = new BitSet(rowCount);
+                for (int i=start[c]; i < start[c + 1]; i++) {
+                    dense[c].set(rows[i]);
+                }
+            }
+        }
+    }
+
+
+    /**
+    *   Return the rows holding any of some codes
+    *
+    *   @param codes The codes
+    *   @return BitSet of rows
+    */
+    public BitSet rowsWithAny(BitSet codes) {
+        BitSet out = new BitSet(rowCount);
+        for (int c = codes.nextSetBit(0); c >= 0 && c < dense.length; c = codes.nextSetBit(c + 1)) {
+            if (dense[c] != null) {
+                out.or(dense[c]);
+            }
+            else {
+                for (int i=start[c]; i < start[c + 1]; i++) {
+                    out.set(rows[i]);
+                }
+            }
+        }
+        return out;
+    }
+
+
+    /**
+    *   Return the rows holding none of some codes
+    *
+    *   @param codes The codes
+    *   @return BitSet of rows
+    */
+    public BitSet rowsWithNone(BitSet codes) {
+        BitSet out = rowsWithAny(codes);
+        out.flip(0, rowCount);
+        return out;
+    }
+
+
+    /**
+    *   Return the number of rows holding a code
+    *
+    *   @param code The code
+    *   @return Number of rows
+    */
+    public int getCount(int code) {
+        return (code >= 0 && code < dense.length) ? start[code + 1] - start[code] : 0;
+    }
+}
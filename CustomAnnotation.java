@@ -75,6 +75,22 @@ public class CustomAnnotation {
 
     }
 
+    /**
+    *   Copy constructor.  The copy shares the parsing rules of the original, but has its own
+    *   per-line state, so each loading thread can use its own copy.
+    *   @param other The CustomAnnotation to copy
+    */
+    public CustomAnnotation(CustomAnnotation other) {
+        delims = other.delims;
+        levels = other.levels;
+        allowedTypes = other.allowedTypes;
+        geneNameIndex = other.geneNameIndex;
+        typeIndex = other.typeIndex;
+        isMultiAllelic = other.isMultiAllelic;
+        format = other.format;
+        columnKey = other.columnKey;
+    }
+
     private void nextObject(JSONObject inJO) {
         if (inJO.containsKey("data")) {
             nextObject( (JSONObject)inJO.get("data") );
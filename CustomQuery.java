@@ -0,0 +1,1070 @@
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+*   A custom query (the if-statement built by CustomQueryView), parsed into a tree of tests that is
+*   evaluated in memory, so no Java compiler is needed.  The query language is the subset of Java used
+*   by CustomQueryView:
+*   <ul>
+*   <li>sampData.get(i, sample, field) (or sampData[i][sample][field], as older versions wrote it),
+*    allData[i][column], annotMapper[column].getFloat(value)</li>
+*   <li>bitSets[n].get(value), isHet(genotype), isHom(genotype)</li>
+*   <li>homRefGen, homNonRefGen, hemiRefGen, hemiVarGen, NA_Allele, muttype, indel</li>
+*   <li>number literals, true and false</li>
+*   <li>== != &lt; &gt; &lt;= &gt;= ! &amp;&amp; || ^, unary - and +, and parentheses, with Java precedence</li>
+*   </ul>
+*   Sample, field, column and BitSet numbers must be literals.
+*   The last few queries parsed are kept (see get()), so a query used again is not parsed again.  Clauses
+*   of the query's top-level "and" that test a dictionary-coded column for some codes are answered from the
+*   column's index (see VarData.returnColumnIndex()) rather than row by row.
+*/
+public class CustomQuery {
+
+    private final static Pattern hetPat =
+        Pattern.compile("^([acgtACGT])(?!\\1)[acgtACGT]$|^([acgtnACGTN'*]+):(?!\\2$)[acgtnACGTN'*]+$");
+    private final static Pattern homPat =
+        Pattern.compile("^([acgtnACGTN])\\1$|^([acgtnACGTN'*]+):\\2$");
+
+    //Value types of nodes
+    private final static int BOOLEAN = 0;
+    private final static int INT = 1;
+    private final static int FLOAT = 2;
+    private final static int DOUBLE = 3;
+
+    //Values found for each row
+    private final static int MUTTYPE = 0;
+    private final static int HOM_REF = 1;
+    private final static int HOM_NON_REF = 2;
+    private final static int HEMI_REF = 3;
+    private final static int HEMI_VAR = 4;
+    private final static String[] ROW_VALUES = { "muttype", "homRefGen", "homNonRefGen", "hemiRefGen", "hemiVarGen" };
+
+    //Bit-mask tests of MULTISTRING columns, written by versions before MULTISTRING cells held set codes
+    private final static Pattern legacyMultiPat = Pattern.compile("Math\\.pow|~|(?<!&)&(?!&)");
+
+    private final static int CACHE_SIZE = 16;
+    private final static BitSet[] NO_BITSETS = new BitSet[0];
+    private final static Map<String, CustomQuery> cache = new LinkedHashMap<String, CustomQuery>(CACHE_SIZE, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<String, CustomQuery> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private String query;
+    private BitSet[] bitSets;
+    private Node root;
+    private List<int[]> sampleRefs = new ArrayList<int[]>();    //{sample, field} read by the query
+    private List<Integer> columnRefs = new ArrayList<Integer>(); //Annotation columns read by the query
+    private boolean usesAlleles = false;    //True if the genotypes of each row's alleles are needed
+
+    //Parser state
+    private List<String> tokens;
+    private int pos = 0;
+
+    /**
+    *   Return a parsed query, parsing it only if it was not among the last few used with the same BitSets.
+    *    Queries differing only in spacing are the same.
+    *
+    *   @param inQuery The query
+    *   @param inBitSets The BitSets the query refers to as bitSets[n]
+    *   @return The parsed query
+    *   @throws IllegalArgumentException If the query is not understood
+    */
+    public static CustomQuery get(String inQuery, BitSet[] inBitSets) {
+        String key = normalize(inQuery);
+        BitSet[] bs = (inBitSets == null) ? NO_BITSETS : inBitSets;
+        synchronized (cache) {
+            CustomQuery q = cache.get(key);
+            if (q != null && q.bitSets == bs) {
+                return q;
+            }
+        }
+        CustomQuery q = new CustomQuery(inQuery, bs);
+        synchronized (cache) {
+            cache.put(key, q);
+        }
+        return q;
+    }
+
+
+    /**
+    *   Return true if a query (or part of one) tests a MULTISTRING column as a bit mask
+    *    ("(allData[i][c] &amp; (int)Math.pow(2,n)) &gt; 0", or with "~"), as versions before set codes wrote
+    *    it.  The mask values no longer match the cells, so such a test must be made again.
+    *
+    *   @param inQuery The query or clause
+    *   @return True if it holds a bit-mask test
+    */
+    public static boolean isLegacyMultiString(String inQuery) {
+        return legacyMultiPat.matcher(inQuery).find();
+    }
+
+
+    /**
+    *   Return a query with its tokens separated by single spaces
+    *
+    *   @param inQuery The query
+    *   @return The normalized query
+    *   @throws IllegalArgumentException If the query has a character that is not allowed
+    */
+    public static String normalize(String inQuery) {
+        StringBuilder sb = new StringBuilder(inQuery.length());
+        for (String t : tokenize(inQuery)) {
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append(t);
+        }
+        return sb.toString();
+    }
+
+
+    /**
+    *   Parse a query
+    *
+    *   @param inQuery The query: a boolean expression, usually enclosed in parentheses
+    *   @param inBitSets The BitSets the query refers to as bitSets[n] (see VarData.getCustomBitSet())
+    *   @throws IllegalArgumentException If the query is not understood
+    */
+    public CustomQuery(String inQuery, BitSet[] inBitSets) {
+        query = inQuery;
+        bitSets = (inBitSets == null) ? NO_BITSETS : inBitSets;
+        if (isLegacyMultiString(query)) {
+            throw new IllegalArgumentException("Custom query tests a MULTISTRING column as a bit mask, as "
+                + "earlier versions saved it; that part of the query must be remade: " + query);
+        }
+        tokens = tokenize(query);
+        if (tokens.isEmpty()) {
+            throw new IllegalArgumentException("Empty custom query");
+        }
+        root = parseOr();
+        if (pos < tokens.size()) {
+            throw error("Unexpected \"" + tokens.get(pos) + "\"");
+        }
+        if (root.type != BOOLEAN) {
+            throw new IllegalArgumentException("Custom query is not a true/false test: " + query);
+        }
+    }
+
+
+    /**
+    *   Return the query text
+    *
+    *   @return The query
+    */
+    public String getQuery() {
+        return query;
+    }
+
+
+    /**
+    *   Return the BitSets the query refers to
+    *
+    *   @return The BitSets given to the constructor
+    */
+    public BitSet[] getBitSets() {
+        return bitSets;
+    }
+
+
+    /**
+    *   Return a module running this query on some data
+    *
+    *   @param vdat The data
+    *   @return A module whose executeCustomQuery() returns the rows of vdat.returnData() passing the query
+    *   @throws IllegalArgumentException If the query refers to a sample or column vdat does not have
+    */
+    public AbstractQueryModule getModule(VarData vdat) {
+        return new QueryModule(vdat);
+    }
+
+
+    /**
+    *   The query, bound to one VarData
+    */
+    private class QueryModule implements AbstractQueryModule {
+        private int[][] allData;
+        private SampleMatrix sampData;
+        private AbstractMapper[] annotMapper;
+        private AbstractMapper[] sampleMapper;
+        private int mutTypeIndex;
+        private int refIndex;
+        private int nonRefIndex;
+        private int indel;
+        private int NA_Allele;
+        private BitSet hetBS;
+        private BitSet homBS;
+        private BitSet colonBS;     //Genotypes written as alleles separated by ":" (indel genotypes)
+        private BitSet candidates = null;   //Rows passing the clauses answered by column indexes, or null
+        private Node rest;                  //The clauses left to test on each candidate row, or null
+
+        QueryModule(VarData vdat) {
+            allData = vdat.returnData();
+            sampData = vdat.returnSamples();
+            annotMapper = vdat.returnAnnotMap();
+            sampleMapper = vdat.returnSampleMap();
+            mutTypeIndex = vdat.returnDataTypeAt().get("muttype");
+            refIndex = vdat.returnDataTypeAt().get("ref_allele");
+            nonRefIndex = vdat.returnDataTypeAt().get("var_allele");
+            indel = annotMapper[mutTypeIndex].getIndexOf("INDEL");
+            NA_Allele = sampleMapper[0].getIndexOf("NA");
+            hetBS = sampleMapper[0].filterWithPattern(hetPat);
+            homBS = sampleMapper[0].filterWithPattern(homPat);
+            colonBS = sampleMapper[0].filterWithPattern(Pattern.compile(":"));
+
+            for (int[] ref : sampleRefs) {
+                if (ref[0] >= sampData.getSampleCount() || ref[1] >= sampData.getFieldCount()) {
+                    throw new IllegalArgumentException("Custom query refers to sample " + ref[0] + ", field "
+                        + ref[1] + ", which this file does not have");
+                }
+            }
+            for (int col : columnRefs) {
+                if (col >= annotMapper.length) {
+                    throw new IllegalArgumentException("Custom query refers to annotation column " + col
+                        + ", which this file does not have");
+                }
+            }
+
+            //Top-level "and" clauses testing a coded column for some codes are answered from the column
+            // index; only the rows passing them are tested against the other clauses
+            List<Node> clauses = new ArrayList<Node>();
+            addAndClauses(root, clauses);
+            rest = null;
+            for (Node n : clauses) {
+                BitSet rows = indexedRows(n, vdat);
+                if (rows == null) {
+                    rest = (rest == null) ? n : new Logic(Logic.AND, rest, n);
+                }
+                else if (candidates == null) {
+                    candidates = rows;
+                }
+                else {
+                    candidates.and(rows);
+                }
+            }
+        }
+
+
+        public BitSet executeCustomQuery() {
+            return executeCustomQuery(0, allData.length);
+        }
+
+
+        public BitSet executeCustomQuery(int start, int end) {
+            BitSet bs = new BitSet(end - start);
+            Row r = new Row(this);
+            if (candidates == null) {
+                for (int i = start; i < end; i++) {
+                    r.setRow(i);
+                    if (root.test(r)) {
+                        bs.set(i - start);
+                    }
+                }
+                return bs;
+            }
+            for (int i = candidates.nextSetBit(start); i >= 0 && i < end; i = candidates.nextSetBit(i + 1)) {
+                if (rest != null) {
+                    r.setRow(i);
+                    if (!rest.test(r)) {
+                        continue;
+                    }
+                }
+                bs.set(i - start);
+            }
+            return bs;
+        }
+
+
+        boolean isHet(int genoIndex, int muttype) {
+            return genoIndex >= 0 && hetBS.get(genoIndex) && (muttype != indel || colonBS.get(genoIndex));
+        }
+
+
+        boolean isHom(int genoIndex, int muttype) {
+            return genoIndex >= 0 && homBS.get(genoIndex) && (muttype != indel || colonBS.get(genoIndex));
+        }
+    }
+
+
+    /**
+    *   Collect the clauses of a chain of "and"s
+    */
+    private static void addAndClauses(Node n, List<Node> clauses) {
+        if (n instanceof Logic && ((Logic)n).op == Logic.AND) {
+            addAndClauses(((Logic)n).left, clauses);
+            addAndClauses(((Logic)n).right, clauses);
+        }
+        else {
+            clauses.add(n);
+        }
+    }
+
+
+    /**
+    *   Answer a clause from a column index, if it is bitSets[n].get(allData[i][c]) or allData[i][c] == k
+    *    (or != k, or negated) and column c is dictionary-coded
+    *
+    *   @return The rows passing the clause, or null if it must be tested row by row
+    */
+    private static BitSet indexedRows(Node n, VarData vdat) {
+        boolean none = false;
+        while (n instanceof Not) {
+            none = !none;
+            n = ((Not)n).n;
+        }
+
+        Node value;
+        BitSet codes;
+        if (n instanceof BitSetGet) {
+            value = ((BitSetGet)n).n;
+            codes = ((BitSetGet)n).bs;
+        }
+        else if (n instanceof Compare && (((Compare)n).op == Compare.EQ || ((Compare)n).op == Compare.NE)) {
+            Compare c = (Compare)n;
+            Node literal;
+            if (c.right instanceof IntLiteral) {
+                value = c.left;
+                literal = c.right;
+            }
+            else {
+                value = c.right;
+                literal = c.left;
+            }
+            if (!(literal instanceof IntLiteral)) {
+                return null;
+            }
+            codes = new BitSet();
+            if (((IntLiteral)literal).value >= 0) {
+                codes.set(((IntLiteral)literal).value);
+            }
+            if (c.op == Compare.NE) {
+                none = !none;
+            }
+        }
+        else {
+            return null;
+        }
+
+        if (!(value instanceof AnnotValue)) {
+            return null;
+        }
+        ColumnIndex index = vdat.returnColumnIndex(((AnnotValue)value).col);
+        if (index == null) {
+            return null;
+        }
+        return none ? index.rowsWithNone(codes) : index.rowsWithAny(codes);
+    }
+
+
+    /**
+    *   The row being tested, and the values found for it.  Each thread running the query has its own.
+    */
+    private class Row {
+        QueryModule m;
+        int i;
+        int[] values = new int[ROW_VALUES.length];
+        private Map<Long, int[]> alleleGenotypes = new HashMap<Long, int[]>();  //See findGenotypes()
+        private long lastAlleles = -1;
+        private int[] lastGenotypes = null;
+
+        Row(QueryModule inM) {
+            m = inM;
+        }
+
+
+        void setRow(int row) {
+            i = row;
+            values[MUTTYPE] = m.allData[i][m.mutTypeIndex];
+            if (usesAlleles) {
+                //The genotypes only depend on the alleles, so they are found once per pair of alleles
+                long alleles = ((long)m.allData[i][m.refIndex] << 32) | (m.allData[i][m.nonRefIndex] & 0xffffffffL);
+                if (alleles != lastAlleles) {
+                    lastGenotypes = alleleGenotypes.get(alleles);
+                    if (lastGenotypes == null) {
+                        lastGenotypes = findGenotypes(m.allData[i][m.refIndex], m.allData[i][m.nonRefIndex]);
+                        alleleGenotypes.put(alleles, lastGenotypes);
+                    }
+                    lastAlleles = alleles;
+                }
+                int hom = (values[MUTTYPE] == m.indel) ? 4 : 2;
+                values[HEMI_REF] = lastGenotypes[0];
+                values[HEMI_VAR] = lastGenotypes[1];
+                values[HOM_REF] = lastGenotypes[hom];
+                values[HOM_NON_REF] = lastGenotypes[hom + 1];
+            }
+        }
+
+
+        /**
+        *   Find the genotype indices of the hemizygous and homozygous genotypes of a pair of alleles
+        *
+        *   @return {hemizygous ref, hemizygous var, homozygous ref, homozygous var (for other than indels),
+        *    homozygous ref, homozygous var (for indels)}
+        */
+        private int[] findGenotypes(int ref, int nonRef) {
+            AbstractMapper genotypes = m.sampleMapper[0];
+            String homRefAllele = m.annotMapper[m.refIndex].getString(ref);
+            String homNonRefAllele = m.annotMapper[m.nonRefIndex].getString(nonRef);
+            int[] out = new int[6];
+            out[0] = genotypes.getIndexOf(homRefAllele);
+            out[1] = genotypes.getIndexOf(homNonRefAllele);
+            out[4] = genotypes.getIndexOf(homRefAllele + ":" + homRefAllele);
+            out[5] = genotypes.getIndexOf(homNonRefAllele + ":" + homNonRefAllele);
+            if (homRefAllele.length() > 1) {
+                out[2] = out[4];
+                out[3] = out[5];
+            }
+            else {
+                out[2] = genotypes.getIndexOf(homRefAllele + homRefAllele);
+                out[3] = genotypes.getIndexOf(homNonRefAllele + homNonRefAllele);
+            }
+            return out;
+        }
+    }
+
+
+    /* ********
+    *   Parser
+    *  ********
+    */
+
+    /**
+    *   Split a query into tokens: names, numbers and operators
+    */
+    private static List<String> tokenize(String query) {
+        List<String> tokens = new ArrayList<String>();
+        int n = query.length();
+        int i = 0;
+        while (i < n) {
+            char c = query.charAt(i);
+            int start = i;
+            if (Character.isWhitespace(c)) {
+                i++;
+                continue;
+            }
+            else if (Character.isJavaIdentifierStart(c)) {
+                while (i < n && Character.isJavaIdentifierPart(query.charAt(i))) {
+                    i++;
+                }
+            }
+            else if (Character.isDigit(c) || (c == '.' && i + 1 < n && Character.isDigit(query.charAt(i + 1)))) {
+                while (i < n && (Character.isLetterOrDigit(query.charAt(i)) || query.charAt(i) == '.'
+                    || ((query.charAt(i) == '-' || query.charAt(i) == '+')
+                        && (query.charAt(i - 1) == 'e' || query.charAt(i - 1) == 'E')))) {
+                    i++;
+                }
+            }
+            else if (query.startsWith("&&", i) || query.startsWith("||", i) || query.startsWith("==", i)
+                || query.startsWith("!=", i) || query.startsWith("<=", i) || query.startsWith(">=", i)) {
+                i += 2;
+            }
+            else if ("()[],.!<>^-+".indexOf(c) >= 0) {
+                i++;
+            }
+            else {
+                throw new IllegalArgumentException("Unexpected character '" + c + "' at position " + i
+                    + " of custom query: " + query);
+            }
+            tokens.add(query.substring(start, i));
+        }
+        return tokens;
+    }
+
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " in custom query (token " + (pos + 1) + "): " + query);
+    }
+
+
+    private String peek() {
+        return (pos < tokens.size()) ? tokens.get(pos) : "";
+    }
+
+
+    private void expect(String token) {
+        if (!peek().equals(token)) {
+            throw error("Expected \"" + token + "\" but found \"" + peek() + "\"");
+        }
+        pos++;
+    }
+
+
+    private Node requireType(Node n, boolean numeric) {
+        if ((n.type == BOOLEAN) == numeric) {
+            throw error(numeric ? "Expected a number" : "Expected a true/false test");
+        }
+        return n;
+    }
+
+
+    private Node parseOr() {
+        Node left = parseAnd();
+        while (peek().equals("||")) {
+            pos++;
+            left = new Logic(Logic.OR, requireType(left, false), requireType(parseAnd(), false));
+        }
+        return left;
+    }
+
+
+    private Node parseAnd() {
+        Node left = parseXor();
+        while (peek().equals("&&")) {
+            pos++;
+            left = new Logic(Logic.AND, requireType(left, false), requireType(parseXor(), false));
+        }
+        return left;
+    }
+
+
+    private Node parseXor() {
+        Node left = parseEquality();
+        while (peek().equals("^")) {
+            pos++;
+            left = new Logic(Logic.XOR, requireType(left, false), requireType(parseEquality(), false));
+        }
+        return left;
+    }
+
+
+    private Node parseEquality() {
+        Node left = parseRelational();
+        while (peek().equals("==") || peek().equals("!=")) {
+            String op = tokens.get(pos++);
+            Node right = parseRelational();
+            if ((left.type == BOOLEAN) != (right.type == BOOLEAN)) {
+                throw error("Cannot compare a true/false test with a number");
+            }
+            left = new Compare(op, left, right);
+        }
+        return left;
+    }
+
+
+    private Node parseRelational() {
+        Node left = parseUnary();
+        while (peek().equals("<") || peek().equals(">") || peek().equals("<=") || peek().equals(">=")) {
+            String op = tokens.get(pos++);
+            left = new Compare(op, requireType(left, true), requireType(parseUnary(), true));
+        }
+        return left;
+    }
+
+
+    private Node parseUnary() {
+        if (peek().equals("!")) {
+            pos++;
+            return new Not(requireType(parseUnary(), false));
+        }
+        else if (peek().equals("-")) {
+            pos++;
+            return new Negate(requireType(parseUnary(), true));
+        }
+        else if (peek().equals("+")) {
+            pos++;
+            return requireType(parseUnary(), true);
+        }
+        return parsePrimary();
+    }
+
+
+    private Node parsePrimary() {
+        String t = peek();
+        if (t.length() == 0) {
+            throw error("Unexpected end");
+        }
+        pos++;
+        if (t.equals("(")) {
+            Node n = parseOr();
+            expect(")");
+            return n;
+        }
+        else if (Character.isDigit(t.charAt(0)) || t.charAt(0) == '.') {
+            return parseNumber(t);
+        }
+        else if (t.equals("true") || t.equals("false")) {
+            return new BooleanLiteral(t.equals("true"));
+        }
+        else if (t.equals("sampData")) {
+            int sample;
+            int field;
+            if (peek().equals("[")) {
+                //sampData[i][sample][field], written by earlier versions (and kept in saved query graphs)
+                expect("[");
+                expectRow();
+                expect("]");
+                expect("[");
+                sample = parseIndex();
+                expect("]");
+                expect("[");
+                field = parseIndex();
+                expect("]");
+            }
+            else {
+                expect(".");
+                expect("get");
+                expect("(");
+                expectRow();
+                expect(",");
+                sample = parseIndex();
+                expect(",");
+                field = parseIndex();
+                expect(")");
+            }
+            sampleRefs.add(new int[] {sample, field});
+            return new SampleValue(sample, field);
+        }
+        else if (t.equals("allData")) {
+            expect("[");
+            expectRow();
+            expect("]");
+            expect("[");
+            int col = parseIndex();
+            expect("]");
+            columnRefs.add(col);
+            return new AnnotValue(col);
+        }
+        else if (t.equals("annotMapper")) {
+            expect("[");
+            int col = parseIndex();
+            expect("]");
+            expect(".");
+            expect("getFloat");
+            Node arg = parseArgument();
+            columnRefs.add(col);
+            return new AnnotFloat(col, arg);
+        }
+        else if (t.equals("bitSets")) {
+            expect("[");
+            int index = parseIndex();
+            expect("]");
+            expect(".");
+            expect("get");
+            if (index >= bitSets.length || bitSets[index] == null) {
+                throw error("No BitSet " + index);
+            }
+            return new BitSetGet(bitSets[index], parseArgument());
+        }
+        else if (t.equals("isHet") || t.equals("isHom")) {
+            return new Zygosity(t.equals("isHet"), parseArgument());
+        }
+        else if (t.equals("NA_Allele")) {
+            return new ModuleValue(false);
+        }
+        else if (t.equals("indel")) {
+            return new ModuleValue(true);
+        }
+        for (int v=0; v < ROW_VALUES.length; v++) {
+            if (ROW_VALUES[v].equals(t)) {
+                if (v != MUTTYPE) {
+                    usesAlleles = true;
+                }
+                return new RowValue(v);
+            }
+        }
+        pos--;
+        throw error((Character.isJavaIdentifierStart(t.charAt(0)) ? "Unknown name \"" : "Unexpected \"") + t + "\"");
+    }
+
+
+    /**
+    *   Parse "(value)", where value is a number
+    */
+    private Node parseArgument() {
+        expect("(");
+        Node n = requireType(parseOr(), true);
+        expect(")");
+        return n;
+    }
+
+
+    /**
+    *   Parse the row index, which is always i
+    */
+    private void expectRow() {
+        if (!peek().equals("i")) {
+            throw error("Expected the row (i) but found \"" + peek() + "\"");
+        }
+        pos++;
+    }
+
+
+    /**
+    *   Parse a sample, field, column or BitSet number
+    */
+    private int parseIndex() {
+        String t = peek();
+        try {
+            int index = Integer.parseInt(t);
+            if (index < 0) {
+                throw new NumberFormatException();
+            }
+            pos++;
+            return index;
+        }
+        catch (NumberFormatException nfe) {
+            throw error("Expected a number but found \"" + t + "\"");
+        }
+    }
+
+
+    private Node parseNumber(String t) {
+        String digits = t;
+        char last = Character.toLowerCase(t.charAt(t.length() - 1));
+        if (last == 'f' || last == 'd') {
+            digits = t.substring(0, t.length() - 1);
+        }
+        try {
+            if (last == 'f') {
+                return new FloatLiteral(Float.parseFloat(digits));
+            }
+            else if (last == 'd' || digits.indexOf('.') >= 0 || digits.indexOf('e') >= 0 || digits.indexOf('E') >= 0) {
+                return new DoubleLiteral(Double.parseDouble(digits));
+            }
+            return new IntLiteral(Integer.parseInt(digits));
+        }
+        catch (NumberFormatException nfe) {
+            pos--;
+            throw error("Bad number \"" + t + "\"");
+        }
+    }
+
+
+    /* ********
+    *   Nodes of the query tree
+    *  ********
+    */
+
+    private abstract static class Node {
+        int type;
+
+        boolean test(Row r) {
+            throw new UnsupportedOperationException();
+        }
+
+        int intValue(Row r) {
+            throw new UnsupportedOperationException();
+        }
+
+        float floatValue(Row r) {
+            return intValue(r);
+        }
+
+        double doubleValue(Row r) {
+            return (type == FLOAT) ? floatValue(r) : intValue(r);
+        }
+    }
+
+
+    private static class Logic extends Node {
+        final static int AND = 0;
+        final static int OR = 1;
+        final static int XOR = 2;
+        int op;
+        Node left;
+        Node right;
+
+        Logic(int inOp, Node inLeft, Node inRight) {
+            type = BOOLEAN;
+            op = inOp;
+            left = inLeft;
+            right = inRight;
+        }
+
+        boolean test(Row r) {
+            switch (op) {
+                case AND:
+                    return left.test(r) && right.test(r);
+                case OR:
+                    return left.test(r) || right.test(r);
+                default:
+                    return left.test(r) ^ right.test(r);
+            }
+        }
+    }
+
+
+    private static class Not extends Node {
+        Node n;
+
+        Not(Node inN) {
+            type = BOOLEAN;
+            n = inN;
+        }
+
+        boolean test(Row r) {
+            return !n.test(r);
+        }
+    }
+
+
+    /**
+    *   A comparison, done in the wider type of its two sides (as Java would)
+    */
+    private static class Compare extends Node {
+        final static int EQ = 0;
+        final static int NE = 1;
+        final static int LT = 2;
+        final static int GT = 3;
+        final static int LE = 4;
+        final static int GE = 5;
+        int op;
+        int compareType;
+        Node left;
+        Node right;
+
+        Compare(String inOp, Node inLeft, Node inRight) {
+            type = BOOLEAN;
+            op = java.util.Arrays.asList("==", "!=", "<", ">", "<=", ">=").indexOf(inOp);
+            left = inLeft;
+            right = inRight;
+            compareType = Math.max(left.type, right.type);
+        }
+
+        boolean test(Row r) {
+            switch (compareType) {
+                case BOOLEAN:
+                    return (op == EQ) == (left.test(r) == right.test(r));
+                case INT:
+                    return compare(left.intValue(r), right.intValue(r));
+                case FLOAT:
+                    float lf = left.floatValue(r);
+                    float rf = right.floatValue(r);
+                    //Compare as Java does, so NaN is unequal to everything
+                    return (lf < rf) ? compare(-1, 0) : (lf > rf) ? compare(1, 0) : (lf == rf) ? compare(0, 0) : op == NE;
+                default:
+                    double ld = left.doubleValue(r);
+                    double rd = right.doubleValue(r);
+                    return (ld < rd) ? compare(-1, 0) : (ld > rd) ? compare(1, 0) : (ld == rd) ? compare(0, 0) : op == NE;
+            }
+        }
+
+        private boolean compare(int a, int b) {
+            switch (op) {
+                case EQ:
+                    return a == b;
+                case NE:
+                    return a != b;
+                case LT:
+                    return a < b;
+                case GT:
+                    return a > b;
+                case LE:
+                    return a <= b;
+                default:
+                    return a >= b;
+            }
+        }
+    }
+
+
+    private static class Negate extends Node {
+        Node n;
+
+        Negate(Node inN) {
+            type = inN.type;
+            n = inN;
+        }
+
+        int intValue(Row r) {
+            return -n.intValue(r);
+        }
+
+        float floatValue(Row r) {
+            return -n.floatValue(r);
+        }
+
+        double doubleValue(Row r) {
+            return -n.doubleValue(r);
+        }
+    }
+
+
+    private static class BooleanLiteral extends Node {
+        boolean value;
+
+        BooleanLiteral(boolean inValue) {
+            type = BOOLEAN;
+            value = inValue;
+        }
+
+        boolean test(Row r) {
+            return value;
+        }
+    }
+
+
+    private static class IntLiteral extends Node {
+        int value;
+
+        IntLiteral(int inValue) {
+            type = INT;
+            value = inValue;
+        }
+
+        int intValue(Row r) {
+            return value;
+        }
+    }
+
+
+    private static class FloatLiteral extends Node {
+        float value;
+
+        FloatLiteral(float inValue) {
+            type = FLOAT;
+            value = inValue;
+        }
+
+        float floatValue(Row r) {
+            return value;
+        }
+    }
+
+
+    private static class DoubleLiteral extends Node {
+        double value;
+
+        DoubleLiteral(double inValue) {
+            type = DOUBLE;
+            value = inValue;
+        }
+
+        double doubleValue(Row r) {
+            return value;
+        }
+    }
+
+
+    /**
+    *   sampData.get(i, sample, field)
+    */
+    private static class SampleValue extends Node {
+        int sample;
+        int field;
+
+        SampleValue(int inSample, int inField) {
+            type = INT;
+            sample = inSample;
+            field = inField;
+        }
+
+        int intValue(Row r) {
+            return r.m.sampData.get(r.i, sample, field);
+        }
+    }
+
+
+    /**
+    *   allData[i][col]
+    */
+    private static class AnnotValue extends Node {
+        int col;
+
+        AnnotValue(int inCol) {
+            type = INT;
+            col = inCol;
+        }
+
+        int intValue(Row r) {
+            return r.m.allData[r.i][col];
+        }
+    }
+
+
+    /**
+    *   annotMapper[col].getFloat(value)
+    */
+    private static class AnnotFloat extends Node {
+        int col;
+        Node n;
+
+        AnnotFloat(int inCol, Node inN) {
+            type = FLOAT;
+            col = inCol;
+            n = inN;
+        }
+
+        float floatValue(Row r) {
+            return r.m.annotMapper[col].getFloat(n.intValue(r));
+        }
+    }
+
+
+    /**
+    *   bitSets[index].get(value)
+    */
+    private static class BitSetGet extends Node {
+        BitSet bs;
+        Node n;
+
+        BitSetGet(BitSet inBS, Node inN) {
+            type = BOOLEAN;
+            bs = inBS;
+            n = inN;
+        }
+
+        boolean test(Row r) {
+            return bs.get(n.intValue(r));
+        }
+    }
+
+
+    /**
+    *   isHet(genotype) or isHom(genotype)
+    */
+    private static class Zygosity extends Node {
+        boolean het;
+        Node n;
+
+        Zygosity(boolean inHet, Node inN) {
+            type = BOOLEAN;
+            het = inHet;
+            n = inN;
+        }
+
+        boolean test(Row r) {
+            int muttype = r.values[MUTTYPE];
+            return het ? r.m.isHet(n.intValue(r), muttype) : r.m.isHom(n.intValue(r), muttype);
+        }
+    }
+
+
+    /**
+    *   A value found for each row (see ROW_VALUES)
+    */
+    private static class RowValue extends Node {
+        int value;
+
+        RowValue(int inValue) {
+            type = INT;
+            value = inValue;
+        }
+
+        int intValue(Row r) {
+            return r.values[value];
+        }
+    }
+
+
+    /**
+    *   NA_Allele or indel, which are the same for every row
+    */
+    private static class ModuleValue extends Node {
+        boolean isIndel;
+
+        ModuleValue(boolean inIsIndel) {
+            type = INT;
+            isIndel = inIsIndel;
+        }
+
+        int intValue(Row r) {
+            return isIndel ? r.m.indel : r.m.NA_Allele;
+        }
+    }
+}
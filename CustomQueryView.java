@@ -583,7 +583,8 @@ public class CustomQueryView extends JPanel implements ActionListener, ListSelec
                 }
                 int selIndex = sampleList.getSelectedIndex();
                 String labelTemp = sampleNames[selIndex];
-                String queryTemp = ("sampData[i][" + sampleIndexOf.get(labelTemp) + "][0]");
+                //Graphs saved by versions before SampleMatrix hold sampData[i][N][0]; CustomQuery reads both forms
+                String queryTemp = ("sampData.get(i, " + sampleIndexOf.get(labelTemp) + ", 0)");
                 labelTemp = labelTemp.replaceFirst("\\.NA$", "");
                 buildQueryVertex(labelTemp, queryTemp);
                 sampleList.clearSelection();
@@ -629,7 +630,16 @@ public class CustomQueryView extends JPanel implements ActionListener, ListSelec
             }
             else if (es == stringAnnotList && stringAnnotList.getSelectedIndex() >= 0) {
                 String selValue = (String)stringAnnotList.getSelectedValue();
-                buildQueryVertex(selValue, Integer.toString(currentMap.getIndexOf(selValue)));
+                if (currentMap.getDataType() == VarData.MULTISTRING) {
+                    //Match every set of entries holding this one
+                    BitSet entry = new BitSet();
+                    entry.set(currentMap.getIndexOf(selValue));
+                    buildQueryFromCodes(((MultiStringMapper)currentMap).codesContainingAny(entry));
+                    buildQueryVertex(selValue, "");
+                }
+                else {
+                    buildQueryVertex(selValue, Integer.toString(currentMap.getIndexOf(selValue)));
+                }
             }
         }
     }
@@ -727,15 +737,6 @@ public class CustomQueryView extends JPanel implements ActionListener, ListSelec
                     enableButtons(new int[] {ANNOT_ACTION, ANNOT_COMP}, false);
                     switch (currentMap.getDataType()) {
                         case VarData.MULTISTRING:
-                            if (queryString.equals("==")) {
-                                queryString = " & ";
-                            }
-                            else if (queryString.equals("!=")) {
-                                queryString = " & ";
-                                query.insert(0,"~");
-                            }
-                            queryString += "(int)Math.pow(2,";
-                            query.insert(0, "(");
                         case VarData.STRING:
                             applyStringPattern.setEnabled(true);
                             enableButtons(new int[] {ANNOT_VAL}, true);
@@ -765,17 +766,6 @@ public class CustomQueryView extends JPanel implements ActionListener, ListSelec
                 if (isAnnotQuery) {
                     switch (currentMap.getDataType()) {
                         case VarData.MULTISTRING:
-                            if (!query.toString().contains("~")) {
-                                query.append(")) > 0");
-                            }
-                            else {
-                                int aI = query.lastIndexOf("&");
-                                String maskNum = query.substring(aI+2);
-                                query.append("))==" + maskNum);
-                                if (query.toString().contains("Math.pow")) {
-                                    query.append(")");
-                                }
-                            }
                         case VarData.STRING:
                             stringAnnotList.setListData(new String[]{""});
                             break;
@@ -822,9 +812,7 @@ public class CustomQueryView extends JPanel implements ActionListener, ListSelec
     *   @return True on success.
     */
     private boolean buildQueryFromRegex(String regex) {
-        int index = bitSetList.size();
         Pattern pat;
-        StringBuilder tempQuery = new StringBuilder();
         try {
             pat = Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
         }
@@ -836,43 +824,42 @@ public class CustomQueryView extends JPanel implements ActionListener, ListSelec
 
         switch (currentMap.getDataType()) {
             case VarData.MULTISTRING:
-                int lastIndex = -1;
-                int msBSMask = 0;
-                int thisIndex;
-                BitSet msBS = currentMap.filterWithPattern(pat);
-                while ( (thisIndex = msBS.nextSetBit(lastIndex+1)) >= 0 ) {
-                    msBSMask += (int)Math.pow(2,thisIndex);
-                    lastIndex = thisIndex;
-                }
-                tempQuery.append("(");
-                tempQuery.append(query.toString());
-                tempQuery.delete(tempQuery.length() - 16, tempQuery.length());  //remove "(int)Math.pow(2,"
-                tempQuery.append(msBSMask);
+                //Match every set of entries holding a matching entry
+                buildQueryFromCodes(((MultiStringMapper)currentMap).codesContainingAny(currentMap.filterWithPattern(pat)));
                 break;
             case VarData.STRING:
-                bitSetList.add(currentMap.filterWithPattern(pat));
-                if (query.substring( query.length()-2 ).equals("!=")) {
-                    tempQuery.append("!");
-                }
-                tempQuery.append("bitSets[" + index + "].get(");
-                tempQuery.append(query.toString());
-                tempQuery.delete(tempQuery.length()-2, tempQuery.length());
-                tempQuery.append(")");
+                buildQueryFromCodes(currentMap.filterWithPattern(pat));
                 break;
         }
+        return true;
+    }
+
+
+    /**
+    *   Add a BitSet of matching mapper indices to the list, and recreate the query to interrogate it.
+    *    Only works for Step 3 (vertexLabelCount == 3)!!
+    *   @param codes The matching indices (for MULTISTRING, set codes)
+    */
+    private void buildQueryFromCodes(BitSet codes) {
+        int index = bitSetList.size();
+        StringBuilder tempQuery = new StringBuilder();
+        bitSetList.add(codes);
+        if (query.substring( query.length()-2 ).equals("!=")) {
+            tempQuery.append("!");
+        }
+        tempQuery.append("bitSets[" + index + "].get(");
+        tempQuery.append(query.toString());
+        tempQuery.delete(tempQuery.length()-2, tempQuery.length());
+        tempQuery.append(")");
         //System.out.println(tempQuery.toString()); //TESTING
-        //System.out.println(bitSetList.get(index).cardinality()); //TESTING
         query = tempQuery;
-
-        index++;
-        return true;
     }
 
 
     /**
-    *   Construct the query statement against a bitset compiled into the QueryModule class
-    *    built by the CompileCustomQuery class.  Only works for Step 3 (vertexLabelCount == 3)!!
-    *   @param bs The name of the BitSet in QueryModule to interrogate. Compile error if this variable not present.
+    *   Construct the query statement against a genotype test of the query (see CustomQuery).
+    *    Only works for Step 3 (vertexLabelCount == 3)!!
+    *   @param bs The name of the test (isHet or isHom). The query will not parse if it is not known.
     */
     private void buildQueryFromBitSet(String bs) {
         StringBuilder tempQuery = new StringBuilder();
@@ -1055,6 +1042,23 @@ public class CustomQueryView extends JPanel implements ActionListener, ListSelec
                             "It is highly recommended to remake the query to avoid errors!!</html>");
                     }
 
+                    //Bit-mask MULTISTRING tests from earlier versions don't match the set codes cells now hold
+                    List<String> legacyClauses = new ArrayList<String>();
+                    for (CustomVertex v : graph.getVertices()) {
+                        if (CustomQuery.isLegacyMultiString(v.getQuery())) {
+                            legacyClauses.add(v.toString());
+                        }
+                    }
+                    if (legacyClauses.size() > 0) {
+                        StringBuilder sb = new StringBuilder("<html>This query was saved by an earlier version of "
+                            + "VarSifter, and tests a column with multiple entries per cell the old way.<p>"
+                            + "These parts of the query will not work, and must be remade:<p>");
+                        for (String c : legacyClauses) {
+                            sb.append("&nbsp;&nbsp;" + c.replaceAll("&", "&amp;").replaceAll("<", "&lt;") + "<p>");
+                        }
+                        VarSifter.showError(sb.append("</html>").toString());
+                    }
+
                     redrawGraph();
                 } 
                 else {
@@ -1,6 +1,5 @@
+import java.util.Arrays;
 import java.util.BitSet;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.regex.*;
 
 /**
@@ -8,8 +7,9 @@ import java.util.regex.*;
 *   @author Jamie K. Teer
 */
 public class FloatMapper implements AbstractMapper {
-    private Map<Float, Integer> dataMap;
-    private Map<Integer, Float> indexMap;
+    private final static int INITIAL_SIZE = 64;
+    private float[] values;     //The float of each index
+    private int[] slots;        //Open-addressing hash table of index + 1 (0 is an empty slot)
     private final static int dataType = VarData.FLOAT;
     private int lastIndex = 0;
 
@@ -18,16 +18,16 @@ public class FloatMapper implements AbstractMapper {
     *
     */
     public FloatMapper() {
-        dataMap = new HashMap<Float, Integer>(5000, 0.75f);
-        indexMap = new HashMap<Integer, Float>(5000, 0.75f);
+        values = new float[INITIAL_SIZE];
+        slots = new int[INITIAL_SIZE * 2];
     }
 
 
     public BitSet filterWithPattern(Pattern pat) {
-        BitSet bs = new BitSet(dataMap.size());
-        for (Float f: dataMap.keySet()) {
-            if (pat.matcher(f.toString()).find()) {
-                bs.set(dataMap.get(f));
+        BitSet bs = new BitSet(lastIndex);
+        for (int i=0; i < lastIndex; i++) {
+            if (pat.matcher(Float.toString(values[i])).find()) {
+                bs.set(i);
             }
         }
         return bs;
@@ -40,12 +40,11 @@ public class FloatMapper implements AbstractMapper {
 
 
     public int getIndexOf( Object obj ) {
-        if (dataMap.get(obj) == null) {
+        if (!(obj instanceof Float)) {
             return -1;
         }
-        else {
-            return dataMap.get(obj).intValue();
-        }
+        int slot = findSlot(((Float)obj).floatValue());
+        return slots[slot] - 1;
     }
 
 
@@ -56,17 +55,20 @@ public class FloatMapper implements AbstractMapper {
     *   @return Index of newly added Float
     */
     public int addData(Object obj) {
-        Float inF = (Float)obj;
-        int index = getIndexOf(inF);
-        if (index == -1) {
-            dataMap.put(inF, Integer.valueOf(lastIndex));
-            indexMap.put(Integer.valueOf(lastIndex), inF);
-            lastIndex++;
-            return lastIndex - 1; //remove 1 to get index;
+        float inF = ((Float)obj).floatValue();
+        int slot = findSlot(inF);
+        if (slots[slot] != 0) {
+            return slots[slot] - 1;
         }
-        else {
-            return index;
+        if (lastIndex == values.length) {
+            values = Arrays.copyOf(values, lastIndex * 2);
+            rehash(values.length * 2);
+            slot = findSlot(inF);
         }
+        values[lastIndex] = inF;
+        slots[slot] = lastIndex + 1;
+        lastIndex++;
+        return lastIndex - 1; //remove 1 to get index;
     }
 
 
@@ -77,7 +79,7 @@ public class FloatMapper implements AbstractMapper {
     *   @return String form of requested Float
     */
     public String getString(int index) {
-        return indexMap.get(Integer.valueOf(index)).toString();
+        return Float.toString(getFloat(index));
     }
 
 
@@ -88,7 +90,10 @@ public class FloatMapper implements AbstractMapper {
     *   @return primitive form of requested Float
     */
     public float getFloat(int index) {
-        return ((Float)indexMap.get(Integer.valueOf(index))).floatValue();
+        if (index < 0 || index >= lastIndex) {
+            throw new IndexOutOfBoundsException("No float at index " + index);
+        }
+        return values[index];
     }
 
     public int getLength() {
@@ -102,4 +107,31 @@ public class FloatMapper implements AbstractMapper {
         return null;
     }
 
+
+    /**
+    *   Return the slot holding a float, or the empty slot where it would go.  Floats are compared by their
+    *    bits, as Float.equals() does.
+    */
+    private int findSlot(float f) {
+        int bits = Float.floatToIntBits(f);
+        int mask = slots.length - 1;
+        int h = bits * 0x9E3779B9;
+        int slot = (h ^ (h >>> 16)) & mask;
+        while (slots[slot] != 0 && Float.floatToIntBits(values[slots[slot] - 1]) != bits) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+
+    /**
+    *   Rebuild the hash table with a new number of slots (a power of 2)
+    */
+    private void rehash(int size) {
+        slots = new int[size];
+        for (int i=0; i < lastIndex; i++) {
+            slots[findSlot(values[i])] = i + 1;
+        }
+    }
+
 }
@@ -0,0 +1,234 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+*   Genotypes of biallelic rows packed into 2 bits per sample (NO_CALL, HOM_REF, HET, HOM_ALT), so sample
+*   filters can compare small codes instead of genotype strings.  The codes are kept alongside the genotype
+*   strings in the sample mapper.
+*   A row is packed only if every genotype in it is "NA" or made of its ref and var alleles, and each code
+*   stands for a single genotype string.  Other rows (multi-allelic, hemizygous, odd genotypes) are not
+*   packed; for them, the genotype indices carrying the var allele are kept instead (see isCarrier()).
+*   When the sample values are kept in mapped files (see SampleMatrix), or the codes would not fit in one
+*   array, no row is packed, so the filters use the genotype indices for every row instead of copying all
+*   genotypes onto the heap.
+*/
+public class GenotypeCodes {
+
+    public final static int NO_CALL = 0;
+    public final static int HOM_REF = 1;
+    public final static int HET = 2;
+    public final static int HOM_ALT = 3;
+
+    private final static int CODES_PER_WORD = 32;
+    private final static int MAX_WORDS = Integer.MAX_VALUE - 8;     //Largest array the JVM allows
+
+    private long[] words;           //Row r starts at word r * wordsPerRow; null if no row is packed
+    private int wordsPerRow;
+    private BitSet packed;
+    private int sampleCount;
+    private int rowCount;
+    private int[][] carriers;       //Unpacked rows: genotype indices carrying the var allele (shared arrays)
+    private int[] rowMap = null;    //For a row view: the row shown as each view row
+
+
+    /**
+    *   Pack the genotypes of all rows
+    *
+    *   @param data Annotation values [row][column]
+    *   @param refIndex Column of the ref allele
+    *   @param varIndex Column of the var allele
+    *   @param annotMapper Annotation mappers
+    *   @param samples Sample values; field 0 is the genotype
+    *   @param genoMapper Mapper of the genotype field
+    */
+    public GenotypeCodes(int[][] data, int refIndex, int varIndex, AbstractMapper[] annotMapper,
+                         SampleMatrix samples, AbstractMapper genoMapper) {
+        rowCount = data.length;
+        sampleCount = samples.getSampleCount();
+        wordsPerRow = (sampleCount + CODES_PER_WORD - 1) / CODES_PER_WORD;
+        boolean mayPack = !samples.isMapped() && (long)rowCount * wordsPerRow <= MAX_WORDS;
+        words = mayPack ? new long[rowCount * wordsPerRow] : null;
+        packed = new BitSet(rowCount);
+        carriers = new int[rowCount][];
+
+        //Genotype strings without the indel separator, as compared by the filters
+        String[] genoKey = new String[genoMapper.getLength()];
+        for (int i=0; i < genoKey.length; i++) {
+            genoKey[i] = genoMapper.getString(i).replaceAll(":", "");
+        }
+        int naIndex = genoMapper.getIndexOf("NA");
+
+        //Genotype indices of each genotype String (several Strings may be the same without the ':')
+        Map<String, List<Integer>> indicesOfKey = new HashMap<String, List<Integer>>();
+        for (int i=0; i < genoKey.length; i++) {
+            List<Integer> l = indicesOfKey.get(genoKey[i]);
+            if (l == null) {
+                l = new ArrayList<Integer>();
+                indicesOfKey.put(genoKey[i], l);
+            }
+            l.add(i);
+        }
+        Map<String, int[]> carrierSets = new HashMap<String, int[]>();
+
+        String[] keys = new String[4];
+        int[] indexOfCode = new int[4];
+        for (int r=0; r < rowCount; r++) {
+            String ref = annotMapper[refIndex].getString(data[r][refIndex]);
+            String var = annotMapper[varIndex].getString(data[r][varIndex]);
+            keys[HOM_REF] = ref + ref;
+            keys[HET] = (ref.compareTo(var) <= 0) ? ref + var : var + ref;
+            keys[HOM_ALT] = var + var;
+            if (!mayPack || keys[HOM_REF].equals(keys[HET]) || keys[HET].equals(keys[HOM_ALT])) {
+                carriers[r] = carrierSet(keys[HET], keys[HOM_ALT], indicesOfKey, carrierSets);
+                continue;
+            }
+            Arrays.fill(indexOfCode, -1);
+            indexOfCode[NO_CALL] = naIndex;
+
+            boolean isPacked = true;
+            int base = r * wordsPerRow;
+            for (int s=0; s < sampleCount && isPacked; s++) {
+                int index = samples.get(r, s, 0);
+                int code = -1;
+                for (int c=0; c < 4; c++) {
+                    if (index == indexOfCode[c]) {
+                        code = c;
+                        break;
+                    }
+                }
+                if (code < 0) {
+                    for (int c=HOM_REF; c <= HOM_ALT; c++) {
+                        if (genoKey[index].equals(keys[c])) {
+                            code = c;
+                            break;
+                        }
+                    }
+                    if (code < 0 || indexOfCode[code] >= 0) {
+                        //Not ref/var, or a second string for the same genotype
+                        isPacked = false;
+                        break;
+                    }
+                    indexOfCode[code] = index;
+                }
+                words[base + s / CODES_PER_WORD] |= (long)code << ((s % CODES_PER_WORD) * 2);
+            }
+            if (isPacked) {
+                packed.set(r);
+            }
+            else {
+                Arrays.fill(words, base, base + wordsPerRow, 0L);
+                carriers[r] = carrierSet(keys[HET], keys[HOM_ALT], indicesOfKey, carrierSets);
+            }
+        }
+    }
+
+
+    /**
+    *   Constructor for a row view
+    */
+    private GenotypeCodes(GenotypeCodes parent, int[] inRowMap) {
+        words = parent.words;
+        wordsPerRow = parent.wordsPerRow;
+        packed = parent.packed;
+        carriers = parent.carriers;
+        sampleCount = parent.sampleCount;
+        rowMap = inRowMap;
+        rowCount = inRowMap.length;
+    }
+
+
+    /**
+    *   Return true if a row's genotypes are packed.  If not, get() returns NO_CALL for the row, and the
+    *    genotype strings must be used.
+    *
+    *   @param row The row
+    *   @return True if packed
+    */
+    public boolean isPacked(int row) {
+        return packed.get((rowMap == null) ? row : rowMap[row]);
+    }
+
+
+    /**
+    *   Return the genotype code of one sample
+    *
+    *   @param row The row (must be packed)
+    *   @param sample The sample
+    *   @return NO_CALL, HOM_REF, HET or HOM_ALT
+    */
+    public int get(int row, int sample) {
+        if (rowMap != null) {
+            row = rowMap[row];
+        }
+        return (int)(words[row * wordsPerRow + (sample >>> 5)] >>> ((sample & 31) << 1)) & 3;
+    }
+
+
+    /**
+    *   Return true if a genotype carries the var allele of an unpacked row (het or hom var, compared
+    *    without the ':').  Packed rows must use get() instead.
+    *
+    *   @param row The row (must not be packed)
+    *   @param genoIndex Genotype index from the sample mapper
+    *   @return True if the genotype carries the var allele
+    */
+    public boolean isCarrier(int row, int genoIndex) {
+        int[] c = carriers[(rowMap == null) ? row : rowMap[row]];
+        for (int i=0; i < c.length; i++) {
+            if (c[i] == genoIndex) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+
+    /**
+    *   Return the genotype indices matching a het or hom var genotype String, sharing arrays between rows
+    *    with the same alleles
+    */
+    private static int[] carrierSet(String het, String homVar, Map<String, List<Integer>> indicesOfKey,
+                                    Map<String, int[]> carrierSets) {
+        String key = het + "\t" + homVar;
+        int[] out = carrierSets.get(key);
+        if (out == null) {
+            List<Integer> l = new ArrayList<Integer>();
+            if (indicesOfKey.containsKey(het)) {
+                l.addAll(indicesOfKey.get(het));
+            }
+            if (!homVar.equals(het) && indicesOfKey.containsKey(homVar)) {
+                l.addAll(indicesOfKey.get(homVar));
+            }
+            out = new int[l.size()];
+            for (int i=0; i < out.length; i++) {
+                out[i] = l.get(i);
+            }
+            carrierSets.put(key, out);
+        }
+        return out;
+    }
+
+
+    /**
+    *   Return a view of some rows.  The view shares these codes.
+    *
+    *   @param rows The rows to show, in view order
+    *   @return A row view
+    */
+    public GenotypeCodes rowView(int[] rows) {
+        int[] map = new int[rows.length];
+        for (int i=0; i < rows.length; i++) {
+            map[i] = (rowMap == null) ? rows[i] : rowMap[rows[i]];
+        }
+        return new GenotypeCodes(this, map);
+    }
+}
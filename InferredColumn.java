@@ -0,0 +1,204 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+*   Holds the storage state of one column (or one sample field) while a file is loaded in a single pass.
+*   Values are encoded with the mapper for the current class; when type inference later finds a value the
+*   current class can't hold, promote() re-encodes the values already stored, so the result is the same
+*   as if the final class had been known from the start.
+*/
+class InferredColumn {
+
+    /**
+    *   Access to the values already stored for this column, in load order
+    */
+    interface Slots {
+        /**
+        *   @return The number of values stored so far
+        */
+        public long count();
+
+        /**
+        *   @param slot The load-order index of the value
+        *   @return The stored value
+        */
+        public int get(long slot);
+
+        /**
+        *   @param slot The load-order index of the value
+        *   @param value The new stored value
+        */
+        public void set(long slot, int value);
+    }
+
+    private int dataClass;
+    private AbstractMapper mapper;
+    private String multiSep;
+    private List<String> firstText = null;  // FLOAT only: first text seen for each mapper index
+    private Map<Long, String> rawText = new HashMap<Long, String>(); // text that can't be rebuilt from the value
+
+    /**
+    *   Constructor
+    *
+    *   @param inClass Initial class of the column (VarData.INTEGER, FLOAT, STRING or MULTISTRING)
+    *   @param inMultiSep Separator used if the column is MULTISTRING
+    */
+    InferredColumn(int inClass, String inMultiSep) {
+        multiSep = inMultiSep;
+        setClass(inClass);
+    }
+
+
+    /**
+    *   Return the current class of the column
+    *   @return VarData.INTEGER, FLOAT, STRING or MULTISTRING
+    */
+    int getDataClass() {
+        return dataClass;
+    }
+
+
+    /**
+    *   Return the mapper used to encode the column
+    *   @return The AbstractMapper for the current class
+    */
+    AbstractMapper getMapper() {
+        return mapper;
+    }
+
+
+    /**
+    *   Encode a value with the current class
+    *
+    *   @param s The text of the value
+    *   @param slot The load-order index of the value
+    *   @return The value to store
+    */
+    int encode(String s, long slot) {
+        switch (dataClass) {
+            case VarData.INTEGER:
+                int i = Integer.parseInt(s);
+                if (!isCanonicalInt(s.toCharArray(), 0, s.length())) {
+                    rawText.put(slot, s);
+                }
+                return i;
+            case VarData.FLOAT:
+                int index = mapper.addData(Float.parseFloat(s));
+                if (index == firstText.size()) {
+                    firstText.add(s);
+                }
+                else if (!s.equals(firstText.get(index))) {
+                    rawText.put(slot, s);
+                }
+                return index;
+            default:
+                return mapper.addData(s);
+        }
+    }
+
+
+    /**
+    *   Encode a field of a tokenized line with the current class, without creating a String
+    *   unless the value must be stored as text
+    *
+    *   @param tok The tokenized line
+    *   @param field The field index
+    *   @param strings Table used to reuse Strings for repeated values
+    *   @param slot The load-order index of the value
+    *   @return The value to store
+    */
+    int encode(LineTokenizer tok, int field, LineTokenizer.StringTable strings, long slot) {
+        switch (dataClass) {
+            case VarData.INTEGER:
+                int i = tok.parseInt(field);
+                if (!isCanonicalInt(tok.getBuffer(), tok.start(field), tok.end(field))) {
+                    rawText.put(slot, tok.getString(field));
+                }
+                return i;
+            case VarData.FLOAT:
+                int index = mapper.addData(tok.parseFloat(field));
+                if (index == firstText.size()) {
+                    firstText.add(tok.getString(field, strings));
+                }
+                else if (!tok.equals(field, firstText.get(index))) {
+                    rawText.put(slot, tok.getString(field));
+                }
+                return index;
+            default:
+                return mapper.addData(tok.getString(field, strings));
+        }
+    }
+
+
+    /**
+    *   Change the class of the column, re-encoding all values stored so far (in load order, so
+    *   mapper indices are assigned in the same order as a load with the final class).
+    *
+    *   @param newClass The new class
+    *   @param slots The values stored so far
+    */
+    void promote(int newClass, Slots slots) {
+        int oldClass = dataClass;
+        AbstractMapper oldMapper = mapper;
+        List<String> oldFirstText = firstText;
+        Map<Long, String> oldRawText = rawText;
+
+        rawText = new HashMap<Long, String>();
+        setClass(newClass);
+
+        long n = slots.count();
+        for (long slot = 0; slot < n; slot++) {
+            int value = slots.get(slot);
+            String s = oldRawText.get(slot);
+            if (s == null) {
+                switch (oldClass) {
+                    case VarData.INTEGER:
+                        s = Integer.toString(value);
+                        break;
+                    case VarData.FLOAT:
+                        s = oldFirstText.get(value);
+                        break;
+                    default:
+                        s = oldMapper.getString(value);
+                        break;
+                }
+            }
+            slots.set(slot, encode(s, slot));
+        }
+    }
+
+
+    private void setClass(int newClass) {
+        dataClass = newClass;
+        firstText = null;
+        switch (dataClass) {
+            case VarData.INTEGER:
+                mapper = new IntMapper();
+                break;
+            case VarData.FLOAT:
+                mapper = new FloatMapper();
+                firstText = new ArrayList<String>();
+                break;
+            case VarData.STRING:
+                mapper = new StringMapper();
+                break;
+            case VarData.MULTISTRING:
+                mapper = new MultiStringMapper(multiSep);
+                break;
+        }
+    }
+
+
+    /**
+    *   True if Integer.toString() of the parsed value gives back the same text (no leading zeros, no "-0")
+    */
+    private static boolean isCanonicalInt(char[] b, int from, int to) {
+        int start = (b[from] == '-') ? from + 1 : from;
+        if (b[start] == '0') {
+            return to - from == 1;
+        }
+        return true;
+    }
+}
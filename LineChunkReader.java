@@ -0,0 +1,133 @@
+import java.io.*;
+import java.util.Arrays;
+
+/**
+*   Reads a text file in large blocks of complete lines, so the blocks can be parsed by separate threads.
+*   Single lines (ie header lines) can also be read one at a time before the block reads begin.
+*/
+public class LineChunkReader implements Closeable {
+
+    /** Default target size of each block, in bytes */
+    public final static int CHUNK_SIZE = 4 * 1024 * 1024;
+
+    private InputStream in;
+    private byte[] buf;
+    private int pos = 0;
+    private int limit = 0;
+    private boolean eof = false;
+    private int chunkSize;
+
+    /**
+    *   Constructor
+    *
+    *   @param inStream The stream to read.  It is closed by close().
+    *   @param inChunkSize Target size of each block of lines, in bytes
+    */
+    public LineChunkReader(InputStream inStream, int inChunkSize) {
+        in = inStream;
+        chunkSize = inChunkSize;
+        buf = new byte[Math.max(chunkSize, 64 * 1024)];
+    }
+
+
+    /**
+    *   Read one line, without the line terminator (\n or \r\n)
+    *
+    *   @return The next line, or null at end of file
+    */
+    public String readLine() throws IOException {
+        int end;
+        while ((end = indexOfNewline(pos)) < 0 && !eof) {
+            fill();
+        }
+        if (end < 0) {
+            if (pos == limit) {
+                return null;
+            }
+            end = limit;
+        }
+        int next = (end < limit) ? end + 1 : end;
+        if (end > pos && buf[end - 1] == '\r') {
+            end--;
+        }
+        String line = new String(buf, pos, end - pos);
+        pos = next;
+        return line;
+    }
+
+
+    /**
+    *   Read a block of complete lines.  The block is about CHUNK_SIZE bytes (longer if a single line is
+    *   longer), and always ends at the end of a line or at the end of the file.
+    *
+    *   @return The bytes of the block, or null at end of file
+    */
+    public byte[] readChunk() throws IOException {
+        while (limit - pos < chunkSize && !eof) {
+            fill();
+        }
+        int end = limit;
+        if (!eof) {
+            while ((end = lastIndexOfNewline()) < 0 && !eof) {
+                fill();
+            }
+            end = (end < 0) ? limit : end + 1;
+        }
+        if (end == pos) {
+            return null;
+        }
+        byte[] out = Arrays.copyOfRange(buf, pos, end);
+        pos = end;
+        return out;
+    }
+
+
+    /**
+    *   Close the underlying stream
+    */
+    public void close() throws IOException {
+        in.close();
+    }
+
+
+    /**
+    *   Move unread bytes to the front of the buffer (growing it if full), then read more
+    */
+    private void fill() throws IOException {
+        if (pos > 0) {
+            System.arraycopy(buf, pos, buf, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+        }
+        if (limit == buf.length) {
+            buf = Arrays.copyOf(buf, buf.length * 2);
+        }
+        int n = in.read(buf, limit, buf.length - limit);
+        if (n < 0) {
+            eof = true;
+        }
+        else {
+            limit += n;
+        }
+    }
+
+
+    private int indexOfNewline(int from) {
+        for (int i = from; i < limit; i++) {
+            if (buf[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+
+    private int lastIndexOfNewline() {
+        for (int i = limit - 1; i >= pos; i--) {
+            if (buf[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
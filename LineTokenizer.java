@@ -0,0 +1,587 @@
+/**
+*   Splits a line of text into fields without creating a String for each field.  The line is held
+*   in a reusable char buffer, and each field is a range of offsets into that buffer.  Integers and
+*   floats can be parsed, and fields compared, directly from the buffer.
+*
+*   Splitting follows String.split() with a single-character separator and limit 0: trailing empty
+*   fields are dropped, and a line with no separator is one field (even if empty).
+*/
+public class LineTokenizer {
+
+    private final static float[] POW10 = { 1f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f };
+    private final static long MAX_EXACT_FLOAT = 1L << 24;
+
+    private char[] lineBuf = new char[1024];   //copy of the line, for split(String, char)
+    private char[] buf = lineBuf;              //buffer the current fields point into
+    private int[] starts = new int[64];
+    private int[] ends = new int[64];
+    private int count = 0;
+
+    /**
+    *   Copy a line into the buffer of this tokenizer, and split it
+    *
+    *   @param line The line to split
+    *   @param sep The separator character
+    *   @return The number of fields
+    */
+    public int split(String line, char sep) {
+        int len = line.length();
+        if (len > lineBuf.length) {
+            lineBuf = new char[Math.max(len, lineBuf.length * 2)];
+        }
+        line.getChars(0, len, lineBuf, 0);
+        return split(lineBuf, 0, len, sep);
+    }
+
+
+    /**
+    *   Split a range of a char buffer.  The buffer is not copied, so it must not change while
+    *   the fields are in use.  Used to split a field of another tokenizer (ie sub-fields separated by ':').
+    *
+    *   @param inBuf The buffer
+    *   @param from Start of the range (inclusive)
+    *   @param to End of the range (exclusive)
+    *   @param sep The separator character
+    *   @return The number of fields
+    */
+    public int split(char[] inBuf, int from, int to, char sep) {
+        buf = inBuf;
+        count = 0;
+        int start = from;
+        for (int i = from; i < to; i++) {
+            if (buf[i] == sep) {
+                addField(start, i);
+                start = i + 1;
+            }
+        }
+        if (count == 0) {
+            addField(from, to);   //no separator: the whole range is one field
+            return count;
+        }
+        addField(start, to);
+
+        //Drop trailing empty fields
+        while (count > 0 && starts[count - 1] == ends[count - 1]) {
+            count--;
+        }
+        return count;
+    }
+
+
+    /**
+    *   @return The buffer holding the current line
+    */
+    public char[] getBuffer() {
+        return buf;
+    }
+
+
+    /**
+    *   @return The number of fields in the current line
+    */
+    public int count() {
+        return count;
+    }
+
+
+    /**
+    *   @param field Field index
+    *   @return Offset of the first char of the field in the buffer
+    */
+    public int start(int field) {
+        checkField(field);
+        return starts[field];
+    }
+
+
+    /**
+    *   @param field Field index
+    *   @return Offset just past the last char of the field in the buffer
+    */
+    public int end(int field) {
+        checkField(field);
+        return ends[field];
+    }
+
+
+    /**
+    *   @param field Field index
+    *   @return Number of chars in the field
+    */
+    public int length(int field) {
+        checkField(field);
+        return ends[field] - starts[field];
+    }
+
+
+    /**
+    *   Create a String from a field
+    *
+    *   @param field Field index
+    *   @return The field as a new String
+    */
+    public String getString(int field) {
+        checkField(field);
+        return new String(buf, starts[field], ends[field] - starts[field]);
+    }
+
+
+    /**
+    *   Return a field as a String, reusing an equal String from a table when possible
+    *
+    *   @param field Field index
+    *   @param table Table of Strings already created
+    *   @return The field as a String
+    */
+    public String getString(int field, StringTable table) {
+        checkField(field);
+        return table.intern(buf, starts[field], ends[field]);
+    }
+
+
+    /**
+    *   Compare a field to a String
+    *
+    *   @param field Field index
+    *   @param s The String to compare
+    *   @return True if the field has the same chars as s
+    */
+    public boolean equals(int field, String s) {
+        checkField(field);
+        return rangeEquals(buf, starts[field], ends[field], s);
+    }
+
+
+    /**
+    *   True if the field contains a char
+    *
+    *   @param field Field index
+    *   @param c The char to look for
+    *   @return True if present
+    */
+    public boolean contains(int field, char c) {
+        checkField(field);
+        for (int i = starts[field]; i < ends[field]; i++) {
+            if (buf[i] == c) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+    *   Parse a field as an int, with the same result as Integer.parseInt()
+    *
+    *   @param field Field index
+    *   @return The int value
+    */
+    public int parseInt(int field) {
+        checkField(field);
+        return parseInt(buf, starts[field], ends[field]);
+    }
+
+
+    /**
+    *   Parse a field as a float, with the same result as Float.parseFloat()
+    *
+    *   @param field Field index
+    *   @return The float value
+    */
+    public float parseFloat(int field) {
+        checkField(field);
+        return parseFloat(buf, starts[field], ends[field]);
+    }
+
+
+    /**
+    *   True if the field is an integer (same test as VarTableModel.digits)
+    *
+    *   @param field Field index
+    *   @return True if the field is an optional '-' followed by digits
+    */
+    public boolean isInteger(int field) {
+        checkField(field);
+        return isInteger(buf, starts[field], ends[field]);
+    }
+
+
+    /**
+    *   True if the field is a decimal number (same test as VarSifter.fDigits)
+    *
+    *   @param field Field index
+    *   @return True if the field is NaN, or digits '.' digits with an optional exponent ('E' [-] digits)
+    */
+    public boolean isFloat(int field) {
+        checkField(field);
+        return isFloat(buf, starts[field], ends[field]);
+    }
+
+
+    /**
+    *   Compare a range of chars to a String
+    */
+    public static boolean rangeEquals(char[] b, int from, int to, String s) {
+        if (to - from != s.length()) {
+            return false;
+        }
+        for (int i = from; i < to; i++) {
+            if (b[i] != s.charAt(i - from)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+    *   Parse a range of chars as an int, with the same result (and exceptions) as Integer.parseInt()
+    */
+    public static int parseInt(char[] b, int from, int to) {
+        int i = from;
+        boolean neg = false;
+        if (i < to && b[i] == '-') {
+            neg = true;
+            i++;
+        }
+        if (i == to || to - i > 10) {
+            return Integer.parseInt(new String(b, from, to - from));
+        }
+        long value = 0;
+        for (; i < to; i++) {
+            int d = b[i] - '0';
+            if (d < 0 || d > 9) {
+                return Integer.parseInt(new String(b, from, to - from));
+            }
+            value = value * 10 + d;
+        }
+        if (neg) {
+            value = -value;
+        }
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            return Integer.parseInt(new String(b, from, to - from));
+        }
+        return (int)value;
+    }
+
+
+    /**
+    *   Parse a range of chars as a float, with the same result (and exceptions) as Float.parseFloat().
+    *   Plain decimals with up to 7 significant digits and small exponents are converted directly:
+    *   the digits and the power of ten are both exact floats, so one float multiply or divide gives
+    *   the correctly rounded result.  Anything else is handed to Float.parseFloat().
+    */
+    public static float parseFloat(char[] b, int from, int to) {
+        int i = from;
+        boolean neg = false;
+        if (i < to && b[i] == '-') {
+            neg = true;
+            i++;
+        }
+        long mant = 0;
+        int digitCount = 0;
+        int fracDigits = 0;
+        boolean seenDot = false;
+        for (; i < to; i++) {
+            char c = b[i];
+            if (c >= '0' && c <= '9') {
+                if (digitCount < 18) {
+                    mant = mant * 10 + (c - '0');
+                    if (mant > 0) {
+                        digitCount++;
+                    }
+                }
+                else {
+                    return Float.parseFloat(new String(b, from, to - from));
+                }
+                if (seenDot) {
+                    fracDigits++;
+                }
+            }
+            else if (c == '.' && !seenDot) {
+                seenDot = true;
+            }
+            else {
+                break;
+            }
+        }
+        int numEnd = i;
+        int exp = 0;
+        if (i < to && (b[i] == 'E' || b[i] == 'e')) {
+            i++;
+            boolean expNeg = false;
+            if (i < to && b[i] == '-') {
+                expNeg = true;
+                i++;
+            }
+            int expStart = i;
+            for (; i < to && i - expStart < 4; i++) {
+                int d = b[i] - '0';
+                if (d < 0 || d > 9) {
+                    break;
+                }
+                exp = exp * 10 + d;
+            }
+            if (i == expStart) {
+                return Float.parseFloat(new String(b, from, to - from));
+            }
+            if (expNeg) {
+                exp = -exp;
+            }
+        }
+        int digitsStart = neg ? from + 1 : from;
+        if (i != to || numEnd == digitsStart || (seenDot && numEnd - digitsStart == 1)) {
+            return Float.parseFloat(new String(b, from, to - from));
+        }
+
+        exp -= fracDigits;
+        if (mant > MAX_EXACT_FLOAT || exp < -10 || exp > 10) {
+            return Float.parseFloat(new String(b, from, to - from));
+        }
+        float f = (float)mant;
+        f = (exp < 0) ? f / POW10[-exp] : f * POW10[exp];
+        return neg ? -f : f;
+    }
+
+
+    /**
+    *   True if a range of chars is an optional '-' followed by digits
+    */
+    public static boolean isInteger(char[] b, int from, int to) {
+        int i = from;
+        if (i < to && b[i] == '-') {
+            i++;
+        }
+        if (i == to) {
+            return false;
+        }
+        for (; i < to; i++) {
+            if (b[i] < '0' || b[i] > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+    *   True if a range of chars is "NaN", or [-]digits.digits, with an optional E[-]digits exponent
+    */
+    public static boolean isFloat(char[] b, int from, int to) {
+        if (rangeEquals(b, from, to, "NaN")) {
+            return true;
+        }
+        int i = from;
+        if (i < to && b[i] == '-') {
+            i++;
+        }
+        int n = skipDigits(b, i, to);
+        if (n == i || n == to || b[n] != '.') {
+            return false;
+        }
+        i = n + 1;
+        n = skipDigits(b, i, to);
+        if (n == i) {
+            return false;
+        }
+        if (n == to) {
+            return true;
+        }
+        if (b[n] != 'E') {
+            return false;
+        }
+        i = n + 1;
+        if (i < to && b[i] == '-') {
+            i++;
+        }
+        n = skipDigits(b, i, to);
+        return (n > i && n == to);
+    }
+
+
+    private static int skipDigits(char[] b, int i, int to) {
+        while (i < to && b[i] >= '0' && b[i] <= '9') {
+            i++;
+        }
+        return i;
+    }
+
+
+    private void addField(int start, int end) {
+        if (count == starts.length) {
+            starts = java.util.Arrays.copyOf(starts, count * 2);
+            ends = java.util.Arrays.copyOf(ends, count * 2);
+        }
+        starts[count] = start;
+        ends[count] = end;
+        count++;
+    }
+
+
+    private void checkField(int field) {
+        if (field < 0 || field >= count) {
+            throw new ArrayIndexOutOfBoundsException(field);
+        }
+    }
+
+
+    /**
+    *   A hash table of Strings that can be searched with a range of chars, so a field can be matched
+    *   to a known key, or turned into a String that was already created, without a new String.
+    *   Strings are numbered in the order they are added.
+    */
+    public static class StringTable {
+        private String[] values;
+        private int[] hashes;
+        private int[] slots;     // open addressing: index + 1 of the String in values, or 0 if empty
+        private int size = 0;
+        private int maxSize;
+
+        /**
+        *   @param inMaxSize Largest number of Strings to hold.  Once full, intern() returns new Strings.
+        */
+        public StringTable(int inMaxSize) {
+            maxSize = inMaxSize;
+            int cap = 16;
+            while (cap < Math.min(inMaxSize, 1024) * 2) {
+                cap <<= 1;
+            }
+            values = new String[cap / 2];
+            hashes = new int[cap / 2];
+            slots = new int[cap];
+        }
+
+
+        /**
+        *   Create a table holding a fixed set of keys, numbered in array order.  Duplicates keep the first number.
+        *
+        *   @param keys The keys
+        */
+        public StringTable(String[] keys) {
+            this(Math.max(keys.length, 1));
+            for (String k : keys) {
+                if (indexOf(k) < 0) {
+                    add(k);
+                }
+            }
+        }
+
+
+        /**
+        *   @return The number of Strings in the table
+        */
+        public int size() {
+            return size;
+        }
+
+
+        /**
+        *   @param index The number of a String
+        *   @return The String
+        */
+        public String get(int index) {
+            return values[index];
+        }
+
+
+        /**
+        *   @param s The String to find
+        *   @return The number of the String, or -1 if not present
+        */
+        public int indexOf(String s) {
+            int h = s.hashCode();
+            int m = slots.length - 1;
+            for (int p = h & m; slots[p] != 0; p = (p + 1) & m) {
+                int v = slots[p] - 1;
+                if (hashes[v] == h && values[v].equals(s)) {
+                    return v;
+                }
+            }
+            return -1;
+        }
+
+
+        /**
+        *   @param b The buffer
+        *   @param from Start of the range (inclusive)
+        *   @param to End of the range (exclusive)
+        *   @return The number of the String with the same chars as the range, or -1 if not present
+        */
+        public int indexOf(char[] b, int from, int to) {
+            int h = hash(b, from, to);
+            int m = slots.length - 1;
+            for (int p = h & m; slots[p] != 0; p = (p + 1) & m) {
+                int v = slots[p] - 1;
+                if (hashes[v] == h && rangeEquals(b, from, to, values[v])) {
+                    return v;
+                }
+            }
+            return -1;
+        }
+
+
+        /**
+        *   Return the String in the table with the same chars as the range, adding it if needed
+        *
+        *   @param b The buffer
+        *   @param from Start of the range (inclusive)
+        *   @param to End of the range (exclusive)
+        *   @return The String
+        */
+        public String intern(char[] b, int from, int to) {
+            int v = indexOf(b, from, to);
+            if (v >= 0) {
+                return values[v];
+            }
+            String s = new String(b, from, to - from);
+            if (size < maxSize) {
+                add(s);
+            }
+            return s;
+        }
+
+
+        private int add(String s) {
+            if ((size + 1) * 2 > slots.length) {
+                rehash();
+            }
+            values[size] = s;
+            hashes[size] = s.hashCode();
+            int m = slots.length - 1;
+            int p = hashes[size] & m;
+            while (slots[p] != 0) {
+                p = (p + 1) & m;
+            }
+            slots[p] = size + 1;
+            return size++;
+        }
+
+
+        private void rehash() {
+            int cap = slots.length * 2;
+            values = java.util.Arrays.copyOf(values, cap / 2);
+            hashes = java.util.Arrays.copyOf(hashes, cap / 2);
+            slots = new int[cap];
+            int m = cap - 1;
+            for (int v = 0; v < size; v++) {
+                int p = hashes[v] & m;
+                while (slots[p] != 0) {
+                    p = (p + 1) & m;
+                }
+                slots[p] = v + 1;
+            }
+        }
+
+
+        /**
+        *   Same value as String.hashCode() of the range
+        */
+        private static int hash(char[] b, int from, int to) {
+            int h = 0;
+            for (int i = from; i < to; i++) {
+                h = 31 * h + b[i];
+            }
+            return h;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+/**
+*   Thrown out of a loader when a file cannot be loaded.  The message is meant for the user (it may be
+*   HTML, as for VarSifter.showError()); whoever started the load shows it.
+*/
+public class LoadException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public LoadException(String message) {
+        super(message);
+    }
+
+
+    public LoadException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
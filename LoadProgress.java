@@ -0,0 +1,214 @@
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+*   Progress of the file load in progress (there is at most one at a time): bytes of the file read so far,
+*   rows parsed, and whether the user asked to cancel.  Loaders report through the static methods, which do
+*   nothing when no load has been started with begin(), so loading without a progress dialog works as before.
+*   When the load is cancelled, the next read or report throws a CancelledException.
+*/
+public class LoadProgress {
+
+    /**
+    *   Thrown out of a loader when the load is cancelled.  Loaders must let it pass instead of reporting it
+    *    as an error.
+    */
+    public static class CancelledException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public CancelledException() {
+            super("Loading cancelled");
+        }
+    }
+
+    private static volatile LoadProgress current = null;
+
+    private final long totalBytes;
+    private final long startTime = System.currentTimeMillis();
+    private volatile long pausedMillis = 0;
+    private volatile long pauseStart = -1;
+    private volatile long bytesRead = 0;
+    private volatile int rows = 0;
+    private volatile boolean cancelled = false;
+
+
+    /**
+    *   Constructor
+    *
+    *   @param inTotalBytes Size of the file being read, or -1 if not known (ie only parts of it are read)
+    */
+    public LoadProgress(long inTotalBytes) {
+        totalBytes = inTotalBytes;
+    }
+
+
+    /**
+    *   Make this the load in progress, for the loader to report to
+    *
+    *   @param progress The new load
+    */
+    public static void begin(LoadProgress progress) {
+        current = progress;
+    }
+
+
+    /**
+    *   End the load in progress
+    */
+    public static void end() {
+        current = null;
+    }
+
+
+    /**
+    *   Wrap a stream of the file being loaded, so bytes read are counted
+    *
+    *   @param in Raw (compressed) stream of the file
+    *   @return A counting stream, or in itself if no load is in progress
+    */
+    public static InputStream track(InputStream in) {
+        LoadProgress p = current;
+        return (p == null) ? in : p.new CountingInputStream(in);
+    }
+
+
+    /**
+    *   Stop the clock of the load in progress while it waits for the user (a prompt), so the time spent
+    *    answering does not count against the estimate
+    */
+    public static void pause() {
+        LoadProgress p = current;
+        if (p != null && p.pauseStart < 0) {
+            p.pauseStart = System.currentTimeMillis();
+        }
+    }
+
+
+    /**
+    *   Restart the clock stopped by pause()
+    */
+    public static void resume() {
+        LoadProgress p = current;
+        if (p != null && p.pauseStart >= 0) {
+            p.pausedMillis += System.currentTimeMillis() - p.pauseStart;
+            p.pauseStart = -1;
+        }
+    }
+
+
+    /**
+    *   Report the number of rows parsed so far
+    *
+    *   @param rowCount Rows parsed
+    *   @throws CancelledException If the load was cancelled
+    */
+    public static void setRows(int rowCount) {
+        LoadProgress p = current;
+        if (p != null) {
+            p.rows = rowCount;
+            p.checkCancelled();
+        }
+    }
+
+
+    /**
+    *   Ask the loader to stop
+    */
+    public void cancel() {
+        cancelled = true;
+    }
+
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+
+    public int getRows() {
+        return rows;
+    }
+
+
+    /**
+    *   Return the fraction of the file read
+    *
+    *   @return 0 to 1, or -1 if the file size is not known
+    */
+    public double getFraction() {
+        if (totalBytes <= 0) {
+            return -1;
+        }
+        return Math.min(1.0, (double)bytesRead / totalBytes);
+    }
+
+
+    /**
+    *   Estimate the time left from the rate of reading so far
+    *
+    *   @return Milliseconds left, or -1 if it cannot be estimated yet
+    */
+    public long getMillisLeft() {
+        double f = getFraction();
+        if (pauseStart >= 0) {
+            return -1;
+        }
+        long elapsed = System.currentTimeMillis() - startTime - pausedMillis;
+        if (f <= 0.01 || elapsed < 1000) {
+            return -1;
+        }
+        return (long)(elapsed * (1 - f) / f);
+    }
+
+
+    private void checkCancelled() {
+        if (cancelled) {
+            throw new CancelledException();
+        }
+    }
+
+
+    /**
+    *   Counts the bytes read from a file
+    */
+    private class CountingInputStream extends FilterInputStream {
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        public int read() throws IOException {
+            checkCancelled();
+            int b = in.read();
+            if (b >= 0) {
+                bytesRead++;
+            }
+            return b;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            checkCancelled();
+            int n = in.read(b, off, len);
+            if (n > 0) {
+                bytesRead += n;
+            }
+            return n;
+        }
+
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            bytesRead += skipped;
+            return skipped;
+        }
+    }
+}
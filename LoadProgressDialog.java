@@ -0,0 +1,113 @@
+import java.awt.*;
+import java.awt.event.*;
+import javax.swing.*;
+
+/**
+*   Modal dialog showing the progress of a file load (see LoadProgress), with a Cancel button.  The dialog
+*   updates itself a few times a second; the loader must dispose it when done.
+*/
+public class LoadProgressDialog extends JDialog implements ActionListener {
+
+    private static final long serialVersionUID = 1L;
+
+    private final static int UPDATE_MS = 250;
+    private final static int BAR_MAX = 1000;
+
+    private LoadProgress progress;
+    private JProgressBar bar = new JProgressBar(0, BAR_MAX);
+    private JLabel status = new JLabel(" ");
+    private JButton cancel = new JButton("Cancel");
+    private Timer timer;
+
+    /**
+    *   Constructor
+    *
+    *   @param owner The main window (may not be showing yet)
+    *   @param fileName Name of the file being loaded
+    *   @param inProgress Progress of the load
+    */
+    public LoadProgressDialog(Frame owner, String fileName, LoadProgress inProgress) {
+        super(owner, "Loading", true);
+        progress = inProgress;
+        setDefaultCloseOperation(WindowConstants.DO_NOTHING_ON_CLOSE);
+        addWindowListener(new WindowAdapter() {
+            public void windowClosing(WindowEvent e) {
+                cancelLoad();
+            }
+        });
+
+        JPanel pane = new JPanel();
+        pane.setLayout(new BoxLayout(pane, BoxLayout.Y_AXIS));
+        pane.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        JLabel fileLabel = new JLabel("Loading " + new java.io.File(fileName).getName());
+        fileLabel.setAlignmentX(Component.LEFT_ALIGNMENT);
+        bar.setAlignmentX(Component.LEFT_ALIGNMENT);
+        bar.setIndeterminate(progress.getTotalBytes() <= 0);
+        bar.setPreferredSize(new Dimension(400, bar.getPreferredSize().height));
+        status.setAlignmentX(Component.LEFT_ALIGNMENT);
+        cancel.setAlignmentX(Component.LEFT_ALIGNMENT);
+        cancel.addActionListener(this);
+        pane.add(fileLabel);
+        pane.add(Box.createRigidArea(new Dimension(0, 5)));
+        pane.add(bar);
+        pane.add(Box.createRigidArea(new Dimension(0, 5)));
+        pane.add(status);
+        pane.add(Box.createRigidArea(new Dimension(0, 10)));
+        pane.add(cancel);
+        add(pane);
+        pack();
+        setLocationRelativeTo(owner);
+
+        timer = new Timer(UPDATE_MS, this);
+        timer.start();
+    }
+
+
+    /**
+    *   Handle the Cancel button and the update timer
+    */
+    public void actionPerformed(ActionEvent e) {
+        if (e.getSource() == cancel) {
+            cancelLoad();
+        }
+        else if (!progress.isCancelled()) {
+            update();
+        }
+    }
+
+
+    public void dispose() {
+        timer.stop();
+        super.dispose();
+    }
+
+
+    private void cancelLoad() {
+        progress.cancel();
+        cancel.setEnabled(false);
+        status.setText("Cancelling...");
+    }
+
+
+    /**
+    *   Show bytes read, rows parsed and the estimated time left
+    */
+    private void update() {
+        StringBuilder sb = new StringBuilder();
+        double f = progress.getFraction();
+        if (f >= 0) {
+            bar.setValue((int)(f * BAR_MAX));
+            sb.append(String.format("%.1f of %.1f MB", progress.getBytesRead() / 1048576.0,
+                progress.getTotalBytes() / 1048576.0));
+        }
+        sb.append((sb.length() > 0) ? ", " : "").append(progress.getRows()).append(" rows");
+        long left = progress.getMillisLeft();
+        if (left >= 0) {
+            long sec = left / 1000;
+            sb.append(", about ");
+            sb.append((sec >= 60) ? (sec / 60) + " min " + (sec % 60) + " s" : sec + " s");
+            sb.append(" left");
+        }
+        status.setText(sb.toString());
+    }
+}
@@ -1,23 +1,23 @@
-import java.util.HashMap;
-import java.util.Map;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 import java.util.BitSet;
-import java.util.Collections;
 import java.util.regex.*;
 
 /**
-*   Subclass of AbstractMapper to handle Multiple Strings using bitmasking
+*   Subclass of AbstractMapper to handle Multiple Strings.  Each distinct entry gets an entry index, and each
+*   distinct set of entries (as found in one cell) gets a set code, which is what addData() returns and
+*   getString() takes.  The entries of a set are kept as a bit set of entry indices in long words, so there is
+*   no limit on the number of entries.  Code 0 is always the empty set.
 *   @author Jamie K. Teer
 */
 public class MultiStringMapper implements AbstractMapper {
-    private Map<String, Integer> dataMap;
-    private Map<Integer, String> indexMap;
+    private final static int INITIAL_SIZE = 64;
+    private StringMapper entries = new StringMapper();     //Entry index of each distinct entry
+    private long[][] sets;          //Entry bits of each set code (no trailing zero words)
+    private String[] setStrings;    //Joined entries of each set code, made when first asked for
+    private int[] slots;            //Open-addressing hash table of set code + 1 (0 is an empty slot)
+    private int setCount = 0;
     private final static int dataType = VarData.MULTISTRING;
-    private int lastIndex = 0;
     private String stringSepChar = ";";
-    private final static int MAX = 31; //As I store flags in a signed int, can only have 31.
-                                       //Will look into using sign bit to extend to 32.
 
     /**
     *   Constructor
@@ -25,96 +25,192 @@ public class MultiStringMapper implements AbstractMapper {
     *   @param sep The String to use as a separator.  Null is allowed, and then default is used.
     */
     public MultiStringMapper(String sep) {
-        dataMap = new HashMap<String, Integer>(30000, 0.75f);
-        indexMap = new HashMap<Integer, String>(30000, 0.75f);
+        sets = new long[INITIAL_SIZE][];
+        setStrings = new String[INITIAL_SIZE];
+        slots = new int[INITIAL_SIZE * 2];
         if (sep != null) {
             stringSepChar = sep;
         }
+        internSet(new long[0]);
     }
 
+    /**
+    *   Return the entries matching a Pattern
+    *
+    *   @param pat A Pattern representing the search to apply
+    *   @return A BitSet of matching entry indices (see codesContainingAny() to get the matching set codes)
+    */
     public BitSet filterWithPattern(Pattern pat) {
-        BitSet bs = new BitSet(dataMap.size());
-        for (String s: dataMap.keySet()) {
-            if (pat.matcher(s).find()) {
-                bs.set(dataMap.get(s));
-            }
-        }
-        return bs;
+        return entries.filterWithPattern(pat);
     }
 
     public int getDataType() {
         return dataType;
     }
 
+    /**
+    *   Return the entry index of a single entry
+    *
+    *   @param obj The entry
+    *   @return Entry index, or -1 if not present
+    */
     public int getIndexOf( Object obj ) {
-        if (dataMap.get(obj) == null) {
-            return -1;
-        }
-        else {
-            return dataMap.get(obj).intValue();
-        }
+        return entries.getIndexOf(obj);
     }
 
 
     /**
-    *   Add new String and return index
+    *   Split a String into entries, add them, and return the code of the set
     *
     *   @param obj The String to add
-    *   @return Index of newly added String
+    *   @return Set code of the entries in the String
     */
     public int addData(Object obj) {
         String inS = (String)obj;
         String[] inS_Ar = inS.split(stringSepChar, 0);
-        int bitMask = 0;
+        long[] bits = new long[1];
         for (String s: inS_Ar) {
-            int ind = getIndexOf(s);
-            if (ind == -1) {
-                // Check int bit bounds                
-                if (lastIndex == MAX) {
-                    VarSifter.showError("The number of entries in this MultiStringMapper Object has exceeded " + MAX
-                        + "\nThe program cannot handle this number of entries.");
-                    for (String key : dataMap.keySet()) {
-                        System.out.println(key);
-                    }
-                    System.out.println("Failed to add: " + s);
-                    System.exit(1);
-                }
-                dataMap.put(s, Integer.valueOf(lastIndex));
-                indexMap.put(Integer.valueOf(lastIndex), s);
-                bitMask |= (int)Math.pow(2, lastIndex); 
-                lastIndex++;
+            int ind = entries.addData(s);
+            if ((ind >>> 6) >= bits.length) {
+                bits = Arrays.copyOf(bits, (ind >>> 6) + 1);
             }
-            else {
-                bitMask |= (int)Math.pow(2,ind);
+            bits[ind >>> 6] |= 1L << ind;
+        }
+        return internSet(bits);
+    }
+
+
+    /**
+    *   Add a single entry
+    *
+    *   @param entry The entry (not split)
+    *   @return Entry index
+    */
+    public int addEntry(String entry) {
+        return entries.addData(entry);
+    }
+
+
+    /**
+    *   Return the code of a set of entries, adding the set if needed
+    *
+    *   @param entryIndices Entry indices of the set
+    *   @return Set code
+    */
+    public int addSet(int[] entryIndices) {
+        long[] bits = new long[1];
+        for (int ind : entryIndices) {
+            if ((ind >>> 6) >= bits.length) {
+                bits = Arrays.copyOf(bits, (ind >>> 6) + 1);
             }
+            bits[ind >>> 6] |= 1L << ind;
         }
-        return bitMask;
+        return internSet(bits);
     }
 
 
     /**
-    *   Return requested String
+    *   Return the entries of a set, joined by ";"
     *
-    *   @param index The index of String to return
-    *   @return The desired String
+    *   @param index The set code
+    *   @return The entries, or "-" for the empty set
     */
     public String getString(int index) {
-        String out = "";
-        for (int i = 0; i<lastIndex; i++) {
-            if ( (index & (int)Math.pow(2,i)) > 0) {
-                out += (indexMap.get(Integer.valueOf(i)) + ";");
+        String out = setStrings[index];
+        if (out == null) {
+            StringBuilder sb = new StringBuilder();
+            long[] bits = sets[index];
+            for (int w=0; w < bits.length; w++) {
+                for (long word = bits[w]; word != 0; word &= word - 1) {
+                    sb.append(entries.getString(w * 64 + Long.numberOfTrailingZeros(word))).append(';');
+                }
+            }
+            if (sb.length() == 0) {
+                out = "-";
+            }
+            else {
+                out = sb.substring(0, sb.length() - 1);
             }
+            setStrings[index] = out;
         }
-        if (out.length() == 0) {
-            out = "-";
+        return out;
+    }
+
+
+    /**
+    *   Return one entry
+    *
+    *   @param entry The entry index
+    *   @return The entry
+    */
+    public String getEntry(int entry) {
+        return entries.getString(entry);
+    }
+
+
+    /**
+    *   Return the entry indices of a set, in increasing order
+    *
+    *   @param index The set code
+    *   @return Entry indices
+    */
+    public int[] getSetEntries(int index) {
+        long[] bits = sets[index];
+        int count = 0;
+        for (long word : bits) {
+            count += Long.bitCount(word);
         }
-        else {
-            out = out.substring(0, out.length()-1);
+        int[] out = new int[count];
+        int n = 0;
+        for (int w=0; w < bits.length; w++) {
+            for (long word = bits[w]; word != 0; word &= word - 1) {
+                out[n++] = w * 64 + Long.numberOfTrailingZeros(word);
+            }
         }
         return out;
     }
 
 
+    /**
+    *   Return true if a set holds an entry
+    *
+    *   @param index The set code
+    *   @param entry The entry index
+    *   @return True if the entry is in the set
+    */
+    public boolean contains(int index, int entry) {
+        long[] bits = sets[index];
+        return (entry >>> 6) < bits.length && (bits[entry >>> 6] & (1L << entry)) != 0;
+    }
+
+
+    /**
+    *   Return the codes of all sets holding at least one of some entries.  Filters can then test a cell
+    *    with a single BitSet.get() of its set code.
+    *
+    *   @param entryBits Entry indices to look for
+    *   @return BitSet of set codes
+    */
+    public BitSet codesContainingAny(BitSet entryBits) {
+        long[] wanted = new long[(entryBits.length() + 63) >>> 6];
+        for (int e = entryBits.nextSetBit(0); e >= 0; e = entryBits.nextSetBit(e + 1)) {
+            wanted[e >>> 6] |= 1L << e;
+        }
+        BitSet codes = new BitSet(setCount);
+        for (int c=0; c < setCount; c++) {
+            long[] bits = sets[c];
+            int words = Math.min(bits.length, wanted.length);
+            for (int w=0; w < words; w++) {
+                if ((bits[w] & wanted[w]) != 0) {
+                    codes.set(c);
+                    break;
+                }
+            }
+        }
+        return codes;
+    }
+
+
     /**
     *   Not Used
     *
@@ -125,8 +221,33 @@ public class MultiStringMapper implements AbstractMapper {
     }
 
 
+    /**
+    *   Return the number of distinct entries
+    *
+    *   @return Number of entries
+    */
     public int getLength() {
-        return lastIndex;
+        return entries.getLength();
+    }
+
+
+    /**
+    *   Return the number of distinct sets (set codes are 0 to this - 1)
+    *
+    *   @return Number of sets
+    */
+    public int getSetCount() {
+        return setCount;
+    }
+
+
+    /**
+    *   Return the separator used to split added Strings
+    *
+    *   @return The separator
+    */
+    public String getSeparator() {
+        return stringSepChar;
     }
 
     /**
@@ -134,11 +255,52 @@ public class MultiStringMapper implements AbstractMapper {
     *   @return An array of type String with the elements stored in this object
     */
     public String[] getSortedEntries() {
-        List<String> list = new ArrayList<String>(dataMap.keySet());
-        Collections.sort(list);
-        String[] s = list.toArray(new String[list.size()]);
-        return s;
+        return entries.getSortedEntries();
+    }
+
+
+    /**
+    *   Return the code of a set of entry bits, adding the set if needed
+    */
+    private int internSet(long[] bits) {
+        int length = bits.length;
+        while (length > 0 && bits[length - 1] == 0) {
+            length--;
+        }
+        if (length != bits.length) {
+            bits = Arrays.copyOf(bits, length);
+        }
+        int slot = findSlot(bits);
+        if (slots[slot] != 0) {
+            return slots[slot] - 1;
+        }
+        if (setCount == sets.length) {
+            sets = Arrays.copyOf(sets, setCount * 2);
+            setStrings = Arrays.copyOf(setStrings, setCount * 2);
+            slots = new int[sets.length * 2];
+            for (int c=0; c < setCount; c++) {
+                slots[findSlot(sets[c])] = c + 1;
+            }
+            slot = findSlot(bits);
+        }
+        sets[setCount] = bits;
+        slots[slot] = setCount + 1;
+        setCount++;
+        return setCount - 1;
     }
 
-}
 
+    /**
+    *   Return the slot holding a set, or the empty slot where it would go
+    */
+    private int findSlot(long[] bits) {
+        int mask = slots.length - 1;
+        int h = Arrays.hashCode(bits) * 0x9E3779B9;
+        int slot = (h ^ (h >>> 16)) & mask;
+        while (slots[slot] != 0 && !Arrays.equals(sets[slots[slot] - 1], bits)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+}
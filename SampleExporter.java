@@ -32,6 +32,7 @@ public class SampleExporter {
     private AbstractMapper[] annotMapper;
     private AbstractMapper[] sampleMapper;
     private int[][] outData;
+    private GenotypeCodes genoCodes;
     private int chrIndex;
     private int lfIndex;
     private int rfIndex;
@@ -177,6 +178,10 @@ public class SampleExporter {
 
         StringBuilder outTemp = new StringBuilder();
         int[][] sampDataLine = vdat.returnSample(lastLine);
+        if (genoCodes == null) {
+            genoCodes = vdat.returnOutGenotypeCodes();     //Packed when first exported, not when the dialog opens
+        }
+        boolean isPacked = genoCodes.isPacked(lastLine);
 
         if (annotCB.isSelected()) {
             for (int ind=0; ind < annotNames.length; ind++) {
@@ -206,6 +211,18 @@ public class SampleExporter {
                 continue;
             }
 
+            //Biallelic row: compare 2-bit genotype codes (there are no "other" genotypes)
+            if (isPacked) {
+                int code = genoCodes.get(lastLine, j);
+                if ((homRefCB.isSelected() && code == GenotypeCodes.HOM_REF)
+                    || (homVarCB.isSelected() && code == GenotypeCodes.HOM_ALT)
+                    || (hetVarCB.isSelected() && code == GenotypeCodes.HET)) {
+
+                    outTemp.append( fetchSampleInfo(j, sampDataLine) + "\t");
+                }
+                continue;
+            }
+
             //homnonref
             if (homRefCB.isSelected() && sampGen == homRefGen) {
 
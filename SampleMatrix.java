@@ -0,0 +1,450 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+*   The sample values (genotype, score, coverage, ...) of every row, stored as one flat int[] per sample field,
+*   indexed by row * sampleCount + sample.  This holds a whole file in a handful of arrays, instead of one
+*   small array per row per sample.
+*   A row view (see rowView()) shares the arrays of its matrix, and shows only some of its rows.
+*   <p>
+*   A matrix too large for the Java heap is kept off the heap instead, in memory-mapped temp files (one per
+*   field, under the "Sample_Store_Dir" directory), so the operating system decides which parts stay in
+*   memory.  get() and set() read and write the mapped files directly.  The "Sample_Store" option in
+*   VarSifter.config chooses when this happens (see setStoreMode()).  The files are closed by close(), once the
+*   matrix and all its row views are closed.
+*/
+public class SampleMatrix {
+
+    /** Keep sample values on the heap while they fit, then move them to mapped files */
+    public final static int STORE_AUTO = 0;
+    /** Always keep sample values on the heap */
+    public final static int STORE_HEAP = 1;
+    /** Always keep sample values in mapped files */
+    public final static int STORE_DISK = 2;
+
+    private final static int MAX_LENGTH = Integer.MAX_VALUE - 8;     //Largest array the JVM allows
+    private final static int PAGE_SHIFT = 24;                        //Values per mapped page: 16M (64 MB)
+    private final static int PAGE_LENGTH = 1 << PAGE_SHIFT;
+    private final static int PAGE_MASK = PAGE_LENGTH - 1;
+
+    private static int storeMode = STORE_AUTO;
+    private static File storeDir = null;
+
+    private int[][] values;         //[field][row * sampleCount + sample], or null if mapped
+    private IntBuffer[][] pages;    //[field][page] when mapped, or null if on the heap
+    private RandomAccessFile[] storeFiles;
+    private boolean mayMap;
+    private int sampleCount;
+    private int fieldCount;
+    private int rowCount = 0;
+    private int[] rowMap = null;    //For a row view: the matrix row shown as each view row
+    private int[] openCount;        //Open matrices sharing storeFiles (this one and its row views)
+    private boolean closed = false;
+
+    /**
+    *   Set where sample values are kept
+    *
+    *   @param mode STORE_AUTO (on the heap while they use less than a quarter of the maximum heap size),
+    *    STORE_HEAP or STORE_DISK
+    */
+    public static synchronized void setStoreMode(int mode) {
+        storeMode = mode;
+    }
+
+
+    /**
+    *   Set the directory holding mapped sample files
+    *
+    *   @param dir Directory, or null for the system temp directory
+    */
+    public static synchronized void setStoreDirectory(String dir) {
+        storeDir = (dir == null) ? null : new File(dir);
+    }
+
+
+    /**
+    *   Constructor.  The values are kept on the heap or in mapped files, as set by setStoreMode().
+    *
+    *   @param rows Number of rows
+    *   @param inSampleCount Number of samples in each row
+    *   @param inFieldCount Number of values for each sample
+    */
+    public SampleMatrix(int rows, int inSampleCount, int inFieldCount) {
+        this(rows, inSampleCount, inFieldCount, true);
+    }
+
+
+    /**
+    *   Constructor
+    *
+    *   @param rows Number of rows
+    *   @param inSampleCount Number of samples in each row
+    *   @param inFieldCount Number of values for each sample
+    *   @param inMayMap False to always keep the values on the heap (for small, short-lived matrices)
+    */
+    public SampleMatrix(int rows, int inSampleCount, int inFieldCount, boolean inMayMap) {
+        sampleCount = inSampleCount;
+        fieldCount = inFieldCount;
+        mayMap = inMayMap;
+        openCount = new int[] {1};
+        long length = (long)rows * sampleCount;
+        if (useMappedStore(length)) {
+            pages = new IntBuffer[fieldCount][0];
+            openStore();
+            ensureMapped(length);
+        }
+        else {
+            checkHeapLength(rows);
+            values = new int[fieldCount][];
+            for (int f=0; f < fieldCount; f++) {
+                values[f] = new int[(int)length];
+            }
+        }
+        rowCount = rows;
+    }
+
+
+    /**
+    *   Constructor for a row view
+    */
+    private SampleMatrix(SampleMatrix parent, int[] inRowMap) {
+        values = parent.values;
+        pages = parent.pages;
+        storeFiles = parent.storeFiles;
+        sampleCount = parent.sampleCount;
+        fieldCount = parent.fieldCount;
+        rowMap = inRowMap;
+        rowCount = inRowMap.length;
+        openCount = parent.openCount;
+        synchronized (openCount) {
+            openCount[0]++;
+        }
+    }
+
+
+    /**
+    *   Return one sample value
+    *
+    *   @param row The row
+    *   @param sample The sample
+    *   @param field The sample field (0 is the genotype)
+    *   @return The stored value (usually a mapper index)
+    */
+    public int get(int row, int sample, int field) {
+        if (rowMap != null) {
+            row = rowMap[row];
+        }
+        if (values != null) {
+            return values[field][row * sampleCount + sample];
+        }
+        long i = (long)row * sampleCount + sample;
+        return pages[field][(int)(i >>> PAGE_SHIFT)].get((int)i & PAGE_MASK);
+    }
+
+
+    /**
+    *   Set one sample value
+    *
+    *   @param row The row
+    *   @param sample The sample
+    *   @param field The sample field (0 is the genotype)
+    *   @param value The value to store
+    */
+    public void set(int row, int sample, int field, int value) {
+        if (rowMap != null) {
+            row = rowMap[row];
+        }
+        if (values != null) {
+            values[field][row * sampleCount + sample] = value;
+        }
+        else {
+            long i = (long)row * sampleCount + sample;
+            pages[field][(int)(i >>> PAGE_SHIFT)].put((int)i & PAGE_MASK, value);
+        }
+    }
+
+
+    /**
+    *   Return the values of one row as [sample][field].  The array is a copy.
+    *
+    *   @param row The row
+    *   @return The sample values of the row
+    */
+    public int[][] getRow(int row) {
+        int[][] out = new int[sampleCount][fieldCount];
+        for (int i=0; i < sampleCount; i++) {
+            for (int f=0; f < fieldCount; f++) {
+                out[i][f] = get(row, i, f);
+            }
+        }
+        return out;
+    }
+
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+
+    public int getFieldCount() {
+        return fieldCount;
+    }
+
+
+    /**
+    *   Return true if the values are kept in mapped files rather than on the heap
+    *
+    *   @return True if off the heap
+    */
+    public boolean isMapped() {
+        return pages != null;
+    }
+
+
+    /**
+    *   Release the values: drop the arrays or mapped pages, and when no row view of the same matrix is still
+    *    open, close the mapped files, so their disk space is freed as soon as the mappings are collected.
+    *    The matrix must not be used afterwards.  Closing again does nothing.
+    */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        values = null;
+        pages = null;
+        synchronized (openCount) {
+            if (--openCount[0] > 0 || storeFiles == null) {
+                return;
+            }
+        }
+        for (RandomAccessFile raf : storeFiles) {
+            try {
+                if (raf != null) {
+                    raf.close();
+                }
+            }
+            catch (IOException ioe) {
+                System.out.println("Could not close sample store: " + ioe);
+            }
+        }
+        storeFiles = null;
+    }
+
+
+    /**
+    *   Set the number of rows, growing the arrays if needed.  While loading, the arrays grow by doubling;
+    *    call trimToSize() when done.  If the arrays would grow too large for the heap, the values are
+    *    moved to mapped files.  Not allowed for a row view.
+    *
+    *   @param rows The new number of rows
+    */
+    public void setRowCount(int rows) {
+        if (rowMap != null) {
+            throw new UnsupportedOperationException("Cannot resize a row view");
+        }
+        long needed = (long)rows * sampleCount;
+        if (values != null && fieldCount > 0 && needed > values[0].length) {
+            long newLength = Math.max(needed, Math.min((long)values[0].length * 2, MAX_LENGTH));
+            if (useMappedStore(newLength)) {
+                moveToMappedStore();
+            }
+            else {
+                checkHeapLength(rows);
+                for (int f=0; f < fieldCount; f++) {
+                    values[f] = Arrays.copyOf(values[f], (int)newLength);
+                }
+            }
+        }
+        if (pages != null) {
+            ensureMapped(needed);
+        }
+        rowCount = rows;
+    }
+
+
+    /**
+    *   Shrink the arrays to the number of rows (mapped files are left as they are)
+    */
+    public void trimToSize() {
+        int needed = rowCount * sampleCount;
+        if (rowMap == null && values != null && fieldCount > 0 && values[0].length != needed) {
+            for (int f=0; f < fieldCount; f++) {
+                values[f] = Arrays.copyOf(values[f], needed);
+            }
+        }
+    }
+
+
+    /**
+    *   Return a view of some rows of this matrix.  The view shares this matrix's values.
+    *
+    *   @param rows The rows to show, in view order
+    *   @return A row view
+    */
+    public SampleMatrix rowView(int[] rows) {
+        int[] map = new int[rows.length];
+        for (int i=0; i < rows.length; i++) {
+            map[i] = (rowMap == null) ? rows[i] : rowMap[rows[i]];
+        }
+        return new SampleMatrix(this, map);
+    }
+
+
+    /**
+    *   Copy flat values of one field (index row * sampleCount + sample) into an array, for bulk reads.
+    *    Row views are not mapped: the index is into the whole matrix.
+    *
+    *   @param field The sample field
+    *   @param from Flat index of the first value
+    *   @param dest Array to fill
+    *   @param offset First position of dest to fill
+    *   @param length Number of values
+    */
+    void getValues(int field, long from, int[] dest, int offset, int length) {
+        if (values != null) {
+            System.arraycopy(values[field], (int)from, dest, offset, length);
+            return;
+        }
+        while (length > 0) {
+            IntBuffer page = pages[field][(int)(from >>> PAGE_SHIFT)].duplicate();
+            page.position((int)from & PAGE_MASK);
+            int n = Math.min(length, page.remaining());
+            page.get(dest, offset, n);
+            from += n;
+            offset += n;
+            length -= n;
+        }
+    }
+
+
+    /**
+    *   Copy an array into flat values of one field (index row * sampleCount + sample), for bulk writes
+    *
+    *   @param field The sample field
+    *   @param from Flat index of the first value
+    *   @param src Array of values
+    *   @param offset First position of src to copy
+    *   @param length Number of values
+    */
+    void setValues(int field, long from, int[] src, int offset, int length) {
+        if (values != null) {
+            System.arraycopy(src, offset, values[field], (int)from, length);
+            return;
+        }
+        while (length > 0) {
+            IntBuffer page = pages[field][(int)(from >>> PAGE_SHIFT)].duplicate();
+            page.position((int)from & PAGE_MASK);
+            int n = Math.min(length, page.remaining());
+            page.put(src, offset, n);
+            from += n;
+            offset += n;
+            length -= n;
+        }
+    }
+
+
+    /**
+    *   Return true if a matrix of this many values per field should be kept in mapped files
+    */
+    private boolean useMappedStore(long length) {
+        int mode;
+        synchronized (SampleMatrix.class) {
+            mode = storeMode;
+        }
+        if (!mayMap || mode == STORE_HEAP) {
+            return false;
+        }
+        else if (mode == STORE_DISK || length > MAX_LENGTH) {
+            return true;
+        }
+        return length * 4 * fieldCount > Runtime.getRuntime().maxMemory() / 4;
+    }
+
+
+    /**
+    *   Throw an error if a heap matrix cannot hold this many rows
+    */
+    private void checkHeapLength(int rows) {
+        if ((long)rows * sampleCount > MAX_LENGTH) {
+            throw new IllegalArgumentException("Too many sample values: " + rows + " rows x " + sampleCount + " samples");
+        }
+    }
+
+
+    /**
+    *   Open one temp file per field.  Where the system allows it, the file is deleted at once (it stays
+    *    usable while open); otherwise it is deleted when VarSifter exits.
+    */
+    private void openStore() {
+        File dir;
+        synchronized (SampleMatrix.class) {
+            dir = storeDir;
+        }
+        storeFiles = new RandomAccessFile[fieldCount];
+        try {
+            for (int f=0; f < fieldCount; f++) {
+                File temp = File.createTempFile("VarSifter", ".samples", dir);
+                storeFiles[f] = new RandomAccessFile(temp, "rw");
+                if (!temp.delete()) {
+                    temp.deleteOnExit();
+                }
+            }
+        }
+        catch (IOException ioe) {
+            throw new IllegalStateException("Could not create sample store in "
+                + ((dir == null) ? System.getProperty("java.io.tmpdir") : dir.toString()) + ": " + ioe, ioe);
+        }
+    }
+
+
+    /**
+    *   Map enough pages of each field's file to hold this many values
+    */
+    private void ensureMapped(long length) {
+        int pageCount = (int)((length + PAGE_MASK) >>> PAGE_SHIFT);
+        if (fieldCount == 0 || pages[0].length >= pageCount) {
+            return;
+        }
+        try {
+            for (int f=0; f < fieldCount; f++) {
+                FileChannel fc = storeFiles[f].getChannel();
+                IntBuffer[] fieldPages = Arrays.copyOf(pages[f], pageCount);
+                for (int p=pages[f].length; p < pageCount; p++) {
+                    fieldPages[p] = fc.map(FileChannel.MapMode.READ_WRITE, (long)p * PAGE_LENGTH * 4, (long)PAGE_LENGTH * 4)
+                        .order(ByteOrder.nativeOrder()).asIntBuffer();
+                }
+                pages[f] = fieldPages;
+            }
+        }
+        catch (IOException ioe) {
+            throw new IllegalStateException("Could not map sample store: " + ioe, ioe);
+        }
+    }
+
+
+    /**
+    *   Move the values from the heap to mapped files
+    */
+    private void moveToMappedStore() {
+        System.out.println("Moving sample values off the heap, to mapped files");
+        int[][] heapValues = values;
+        pages = new IntBuffer[fieldCount][0];
+        openStore();
+        ensureMapped((long)rowCount * sampleCount);
+        values = null;
+        for (int f=0; f < fieldCount; f++) {
+            setValues(f, 0, heapValues[f], 0, rowCount * sampleCount);
+        }
+    }
+}
@@ -1,9 +1,5 @@
-import java.util.HashMap;
-import java.util.Map;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 import java.util.BitSet;
-import java.util.Collections;
 import java.util.regex.*;
 
 /**
@@ -11,8 +7,9 @@ import java.util.regex.*;
 *   @author Jamie K. Teer
 */
 public class StringMapper implements AbstractMapper {
-    private Map<String, Integer> dataMap;
-    private Map<Integer, String> indexMap;
+    private final static int INITIAL_SIZE = 64;
+    private String[] strings;   //The String of each index
+    private int[] slots;        //Open-addressing hash table of index + 1 (0 is an empty slot)
     private final static int dataType = VarData.STRING;
     private int lastIndex = 0;
 
@@ -21,15 +18,15 @@ public class StringMapper implements AbstractMapper {
     *
     */
     public StringMapper() {
-        dataMap = new HashMap<String, Integer>(30000, 0.75f);
-        indexMap = new HashMap<Integer, String>(30000, 0.75f);
+        strings = new String[INITIAL_SIZE];
+        slots = new int[INITIAL_SIZE * 2];
     }
 
     public BitSet filterWithPattern(Pattern pat) {
-        BitSet bs = new BitSet(dataMap.size());
-        for (String s: dataMap.keySet()) {
-            if (pat.matcher(s).find()) {
-                bs.set(dataMap.get(s));
+        BitSet bs = new BitSet(lastIndex);
+        for (int i=0; i < lastIndex; i++) {
+            if (pat.matcher(strings[i]).find()) {
+                bs.set(i);
             }
         }
         return bs;
@@ -40,12 +37,11 @@ public class StringMapper implements AbstractMapper {
     }
 
     public int getIndexOf( Object obj ) {
-        if (dataMap.get(obj) == null) {
+        if (obj != null && !(obj instanceof String)) {
             return -1;
         }
-        else {
-            return dataMap.get(obj).intValue();
-        }
+        int slot = findSlot((String)obj);
+        return slots[slot] - 1;
     }
 
 
@@ -57,16 +53,19 @@ public class StringMapper implements AbstractMapper {
     */
     public int addData(Object obj) {
         String inS = (String)obj;
-        int index = getIndexOf(inS);
-        if (index == -1) {
-            dataMap.put(inS, Integer.valueOf(lastIndex));
-            indexMap.put(Integer.valueOf(lastIndex), inS);
-            lastIndex++;
-            return lastIndex - 1; //remove 1 to get index
+        int slot = findSlot(inS);
+        if (slots[slot] != 0) {
+            return slots[slot] - 1;
         }
-        else {
-            return index;
+        if (lastIndex == strings.length) {
+            strings = Arrays.copyOf(strings, lastIndex * 2);
+            rehash(strings.length * 2);
+            slot = findSlot(inS);
         }
+        strings[lastIndex] = inS;
+        slots[slot] = lastIndex + 1;
+        lastIndex++;
+        return lastIndex - 1; //remove 1 to get index
     }
 
 
@@ -74,10 +73,10 @@ public class StringMapper implements AbstractMapper {
     *   Return requested String
     *
     *   @param index The index of String to return
-    *   @return The desired String
+    *   @return The desired String, or null if there is none at that index
     */
     public String getString(int index) {
-        return indexMap.get(Integer.valueOf(index));
+        return (index >= 0 && index < lastIndex) ? strings[index] : null;
     }
 
 
@@ -96,11 +95,34 @@ public class StringMapper implements AbstractMapper {
     }
 
     public String[] getSortedEntries() {
-        List<String> list = new ArrayList<String>(dataMap.keySet());
-        Collections.sort(list);
-        String[] s = list.toArray(new String[list.size()]);
+        String[] s = Arrays.copyOf(strings, lastIndex);
+        Arrays.sort(s);
         return s;
     }
 
-}
 
+    /**
+    *   Return the slot holding a String, or the empty slot where it would go
+    */
+    private int findSlot(String s) {
+        int mask = slots.length - 1;
+        int h = ((s == null) ? 0 : s.hashCode()) * 0x9E3779B9;
+        int slot = (h ^ (h >>> 16)) & mask;
+        while (slots[slot] != 0 && !(s == null ? strings[slots[slot] - 1] == null : s.equals(strings[slots[slot] - 1]))) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+
+    /**
+    *   Rebuild the hash table with a new number of slots (a power of 2)
+    */
+    private void rehash(int size) {
+        slots = new int[size];
+        for (int i=0; i < lastIndex; i++) {
+            slots[findSlot(strings[i])] = i + 1;
+        }
+    }
+
+}
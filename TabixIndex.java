@@ -0,0 +1,350 @@
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+*   A tabix (.tbi) or coordinate-sorted (.csi) index of a bgzipped file.  Returns the BGZF virtual offset
+*   ranges that may hold records overlapping a region, so only those parts of the file need to be read.
+*/
+public class TabixIndex {
+
+    private final static int TBI_MIN_SHIFT = 14;
+    private final static int TBI_DEPTH = 5;
+
+    private int minShift;
+    private int depth;
+    private int metaChar = '#';
+    private List<String> names = new ArrayList<String>();
+    private Map<String, Integer> nameIndex = new HashMap<String, Integer>();
+    private List<Map<Integer, long[]>> binChunks = new ArrayList<Map<Integer, long[]>>();   //bin -> beg,end pairs
+    private List<Map<Integer, Long>> binLoffset = new ArrayList<Map<Integer, Long>>();     //CSI: bin -> min offset
+    private List<long[]> linearIndex = new ArrayList<long[]>();                           //TBI: 16kb window offsets
+
+    /**
+    *   Find the index of a bgzipped file: inFile.tbi, or else inFile.csi
+    *
+    *   @param inFile Path to the bgzipped file
+    *   @return Path to the index, or null if there is none
+    */
+    public static String findIndexFile(String inFile) {
+        String[] suffixes = { ".tbi", ".csi" };
+        for (String s : suffixes) {
+            if (new File(inFile + s).isFile()) {
+                return inFile + s;
+            }
+        }
+        return null;
+    }
+
+
+    /**
+    *   Constructor
+    *
+    *   @param indexFile Path to a .tbi or .csi index (the format is taken from the file contents)
+    */
+    public TabixIndex(String indexFile) throws IOException {
+        LittleEndianReader in = new LittleEndianReader(BGZFInputStream.open(indexFile));
+        try {
+            byte[] magic = in.readBytes(4);
+            if (magic[0] == 'T' && magic[1] == 'B' && magic[2] == 'I' && magic[3] == 1) {
+                minShift = TBI_MIN_SHIFT;
+                depth = TBI_DEPTH;
+                int refCount = in.readInt();
+                readNames(in, refCount);
+                for (int i=0; i<refCount; i++) {
+                    readBins(in, false);
+                    int intervals = in.readInt();
+                    long[] offsets = new long[intervals];
+                    for (int j=0; j<intervals; j++) {
+                        offsets[j] = in.readLong();
+                    }
+                    linearIndex.add(offsets);
+                }
+            }
+            else if (magic[0] == 'C' && magic[1] == 'S' && magic[2] == 'I' && magic[3] == 1) {
+                minShift = in.readInt();
+                depth = in.readInt();
+                int auxLength = in.readInt();
+                if (auxLength >= 28) {
+                    LittleEndianReader aux = new LittleEndianReader(new ByteArrayInputStream(in.readBytes(auxLength)));
+                    readNames(aux, -1);
+                }
+                else {
+                    in.readBytes(auxLength);
+                }
+                int refCount = in.readInt();
+                for (int i=0; i<refCount; i++) {
+                    readBins(in, true);
+                }
+            }
+            else {
+                throw new IOException(indexFile + " is not a tabix (.tbi) or CSI (.csi) index");
+            }
+        }
+        finally {
+            in.close();
+        }
+    }
+
+
+    /**
+    *   Return the sequence names, in index order.  A CSI index may not store names; then setNames() must
+    *    be called with the names from the file header.
+    *
+    *   @return Sequence names
+    */
+    public List<String> getNames() {
+        return Collections.unmodifiableList(names);
+    }
+
+
+    /**
+    *   Set the sequence names, in index order, for an index without stored names
+    *
+    *   @param inNames Sequence names (ie the ##contig IDs of a VCF)
+    */
+    public void setNames(List<String> inNames) {
+        names = new ArrayList<String>(inNames);
+        nameIndex.clear();
+        for (int i=0; i<names.size(); i++) {
+            nameIndex.put(names.get(i), i);
+        }
+    }
+
+
+    /**
+    *   Return the character that starts header lines in the indexed file
+    *
+    *   @return The meta character (usually '#')
+    */
+    public int getMetaChar() {
+        return metaChar;
+    }
+
+
+    /**
+    *   Return the index of a sequence name, accepting the name with or without a leading "chr"
+    *
+    *   @param name Sequence name
+    *   @return Index of the sequence, or -1 if it is not in the index
+    */
+    public int getSequenceIndex(String name) {
+        Integer i = nameIndex.get(name);
+        if (i == null) {
+            i = nameIndex.get(name.startsWith("chr") ? name.substring(3) : "chr" + name);
+        }
+        return (i == null) ? -1 : i.intValue();
+    }
+
+
+    /**
+    *   Return the sorted, merged virtual offset ranges that may hold records of one sequence overlapping any
+    *    of a list of 0-based, half-open intervals
+    *
+    *   @param seq Index of the sequence
+    *   @param starts Start of each interval
+    *   @param ends End of each interval
+    *   @return List of {begin, end} virtual offset pairs
+    */
+    public List<long[]> getChunks(int seq, int[] starts, int[] ends) {
+        List<long[]> chunks = new ArrayList<long[]>();
+        if (seq < 0 || seq >= binChunks.size()) {
+            return chunks;
+        }
+        Map<Integer, long[]> bins = binChunks.get(seq);
+        for (int r=0; r<starts.length; r++) {
+            long minOffset = getMinOffset(seq, starts[r]);
+            for (int bin : regionToBins(starts[r], ends[r])) {
+                long[] c = bins.get(bin);
+                if (c == null) {
+                    continue;
+                }
+                for (int i=0; i<c.length; i+=2) {
+                    if (c[i + 1] > minOffset) {
+                        chunks.add(new long[] { c[i], c[i + 1] });
+                    }
+                }
+            }
+        }
+
+        //Sort by start, then merge overlapping or touching ranges
+        Collections.sort(chunks, new java.util.Comparator<long[]>() {
+            public int compare(long[] a, long[] b) {
+                return (a[0] < b[0]) ? -1 : ((a[0] == b[0]) ? 0 : 1);
+            }
+        });
+        List<long[]> merged = new ArrayList<long[]>();
+        for (long[] c : chunks) {
+            long[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (last != null && c[0] <= last[1]) {
+                last[1] = Math.max(last[1], c[1]);
+            }
+            else {
+                merged.add(new long[] { c[0], c[1] });
+            }
+        }
+        return merged;
+    }
+
+
+    /**
+    *   Return the smallest virtual offset at which a record overlapping position beg can start
+    */
+    private long getMinOffset(int seq, int beg) {
+        if (seq < linearIndex.size()) {
+            long[] offsets = linearIndex.get(seq);
+            if (offsets.length == 0) {
+                return 0;
+            }
+            return offsets[Math.min(beg >> TBI_MIN_SHIFT, offsets.length - 1)];
+        }
+
+        //CSI: the min offset of the smallest existing bin containing beg
+        Map<Integer, Long> loffset = binLoffset.get(seq);
+        int bin = firstBin(depth) + (beg >> minShift);
+        while (true) {
+            Long off = loffset.get(bin);
+            if (off != null) {
+                return off.longValue();
+            }
+            if (bin == 0) {
+                return 0;
+            }
+            bin = (bin - 1) >> 3;
+        }
+    }
+
+
+    /**
+    *   Return the bins that may hold records overlapping [beg, end)
+    */
+    private List<Integer> regionToBins(int beg, int end) {
+        List<Integer> bins = new ArrayList<Integer>();
+        long maxPos = 1L << (minShift + depth * 3);
+        if (end > maxPos || end <= 0) {
+            end = (int)Math.min(maxPos, Integer.MAX_VALUE);
+        }
+        if (beg >= end) {
+            return bins;
+        }
+        end--;
+        int shift = minShift + depth * 3;
+        for (int level=0, offset=0; level<=depth; shift-=3, offset+=1<<(level*3), level++) {
+            int b = offset + (int)((long)beg >> shift);
+            int e = offset + (int)((long)end >> shift);
+            for (int i=b; i<=e; i++) {
+                bins.add(i);
+            }
+        }
+        return bins;
+    }
+
+
+    /**
+    *   First bin number of a level of the binning scheme
+    */
+    private static int firstBin(int level) {
+        return ((1 << (level * 3)) - 1) / 7;
+    }
+
+
+    /**
+    *   Read the tabix header fields (format, columns, meta char, skip) and the sequence names
+    *
+    *   @param refCount Expected number of names, or -1 to accept any number
+    */
+    private void readNames(LittleEndianReader in, int refCount) throws IOException {
+        in.readInt();       //format
+        in.readInt();       //sequence column
+        in.readInt();       //begin column
+        in.readInt();       //end column
+        metaChar = in.readInt();
+        in.readInt();       //lines to skip
+        int nameLength = in.readInt();
+        byte[] b = in.readBytes(nameLength);
+        List<String> inNames = new ArrayList<String>();
+        int start = 0;
+        for (int i=0; i<nameLength; i++) {
+            if (b[i] == 0) {
+                inNames.add(new String(b, start, i - start));
+                start = i + 1;
+            }
+        }
+        if (refCount >= 0 && inNames.size() != refCount) {
+            throw new IOException("Index has " + refCount + " sequences, but " + inNames.size() + " names");
+        }
+        setNames(inNames);
+    }
+
+
+    /**
+    *   Read the bins of one sequence, skipping the pseudo-bin of summary statistics
+    *
+    *   @param isCSI True if each bin has a min offset (CSI)
+    */
+    private void readBins(LittleEndianReader in, boolean isCSI) throws IOException {
+        int pseudoBin = firstBin(depth + 1) + 1;
+        int binCount = in.readInt();
+        Map<Integer, long[]> bins = new HashMap<Integer, long[]>();
+        Map<Integer, Long> loffset = new HashMap<Integer, Long>();
+        for (int i=0; i<binCount; i++) {
+            int bin = in.readInt();
+            long minOffset = isCSI ? in.readLong() : 0;
+            int chunkCount = in.readInt();
+            long[] c = new long[chunkCount * 2];
+            for (int j=0; j<c.length; j++) {
+                c[j] = in.readLong();
+            }
+            if (bin != pseudoBin) {
+                bins.put(bin, c);
+                if (isCSI) {
+                    loffset.put(bin, minOffset);
+                }
+            }
+        }
+        binChunks.add(bins);
+        if (isCSI) {
+            binLoffset.add(loffset);
+        }
+    }
+
+
+    /**
+    *   Reads little-endian binary values
+    */
+    private static class LittleEndianReader {
+        private DataInputStream in;
+        private byte[] b = new byte[8];
+
+        LittleEndianReader(InputStream inStream) {
+            in = new DataInputStream(new BufferedInputStream(inStream));
+        }
+
+        int readInt() throws IOException {
+            in.readFully(b, 0, 4);
+            return (b[0] & 0xff) | ((b[1] & 0xff) << 8) | ((b[2] & 0xff) << 16) | ((b[3] & 0xff) << 24);
+        }
+
+        long readLong() throws IOException {
+            in.readFully(b, 0, 8);
+            long v = 0;
+            for (int i=7; i>=0; i--) {
+                v = (v << 8) | (b[i] & 0xff);
+            }
+            return v;
+        }
+
+        byte[] readBytes(int n) throws IOException {
+            byte[] out = new byte[n];
+            in.readFully(out);
+            return out;
+        }
+
+        void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,391 @@
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+*   Reads the header and the records overlapping a list of regions from a bgzipped, tabix- or CSI-indexed
+*   VCF file.  Only the parts of the file the index points to are decompressed.  The result is a normal
+*   stream of VCF text (header lines, then records in file order), so it can be loaded like a whole file.
+*/
+public class TabixRegionReader extends InputStream {
+
+    private final static Pattern region_pat = Pattern.compile("^([^:]+)(?::(\\d+)(?:-(\\d+))?)?$");
+
+    private String inFile;
+    private TabixIndex index;
+    private List<Integer> seqs = new ArrayList<Integer>();  //Sequences with regions, in index order
+    private List<int[][]> seqRegions = new ArrayList<int[][]>();    //Merged {starts, ends} of each sequence
+    private int seqPos = -1;
+
+    private String seqName;             //Name of the current sequence
+    private int[] starts;               //Regions of the current sequence, 0-based half-open
+    private int[] ends;
+    private List<long[]> chunks;        //Virtual offset ranges of the current sequence
+    private int chunkPos = 0;
+    private BGZFInputStream chunkStream = null;
+
+    private byte[] line = new byte[4096];
+    private int lineLength = 0;
+    private byte[] out;                 //Bytes waiting to be returned by read()
+    private int outPos = 0;
+
+
+    /**
+    *   Parse a list of regions: either the path of a BED file, or regions written as chr, chr:pos or
+    *    chr:start-end (1-based, inclusive), separated by commas, semicolons or whitespace
+    *
+    *   @param regionSpec BED file name or region list
+    *   @return Map of chromosome to list of {start, end} pairs, 0-based half-open
+    */
+    public static Map<String, List<int[]>> parseRegions(String regionSpec) throws IOException {
+        Map<String, List<int[]>> regions = new TreeMap<String, List<int[]>>();
+        File f = new File(regionSpec);
+        if (f.isFile()) {
+            BufferedReader br = new BufferedReader(new FileReader(f));
+            try {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    if (line.length() == 0 || line.startsWith("#") || line.startsWith("track") || line.startsWith("browser")) {
+                        continue;
+                    }
+                    String[] temp = line.split("\\s+");
+                    try {
+                        addRegion(regions, temp[0], Integer.parseInt(temp[1]), Integer.parseInt(temp[2]));
+                    }
+                    catch (RuntimeException re) {
+                        throw new IOException("Bad line in BED file " + regionSpec + ": " + line);
+                    }
+                }
+            }
+            finally {
+                br.close();
+            }
+        }
+        else {
+            for (String s : regionSpec.trim().split("[,;\\s]+")) {
+                if (s.length() == 0) {
+                    continue;
+                }
+                Matcher m = region_pat.matcher(s);
+                if (!m.matches()) {
+                    throw new IOException("Bad region (expected chr, chr:pos or chr:start-end): " + s);
+                }
+                try {
+                    int start = (m.group(2) == null) ? 0 : Integer.parseInt(m.group(2)) - 1;
+                    int end = (m.group(3) != null) ? Integer.parseInt(m.group(3))
+                            : (m.group(2) != null) ? start + 1
+                            : Integer.MAX_VALUE;
+                    addRegion(regions, m.group(1), Math.max(start, 0), end);
+                }
+                catch (NumberFormatException nfe) {
+                    throw new IOException("Bad region (position too large): " + s);
+                }
+            }
+        }
+        if (regions.isEmpty()) {
+            throw new IOException("No regions given");
+        }
+        return regions;
+    }
+
+
+    /**
+    *   Constructor
+    *
+    *   @param inVCF Path to a bgzipped VCF, with a .tbi or .csi index beside it
+    *   @param regionSpec BED file name or region list (see parseRegions())
+    */
+    public TabixRegionReader(String inVCF, String regionSpec) throws IOException {
+        inFile = inVCF;
+        String indexFile = TabixIndex.findIndexFile(inFile);
+        if (indexFile == null) {
+            throw new IOException("No index (" + inFile + ".tbi or " + inFile + ".csi) found for " + inFile);
+        }
+        index = new TabixIndex(indexFile);
+        out = readHeader();
+
+        //Group regions by sequence, in index order, merging overlaps
+        Map<Integer, List<int[]>> bySeq = new TreeMap<Integer, List<int[]>>();
+        Map<String, List<int[]>> regions = parseRegions(regionSpec);
+        for (Map.Entry<String, List<int[]>> e : regions.entrySet()) {
+            int seq = index.getSequenceIndex(e.getKey());
+            if (seq < 0) {
+                System.out.println("Region sequence " + e.getKey() + " not found in index - skipping");
+                continue;
+            }
+            if (bySeq.get(seq) == null) {
+                bySeq.put(seq, new ArrayList<int[]>());
+            }
+            bySeq.get(seq).addAll(e.getValue());
+        }
+        for (Map.Entry<Integer, List<int[]>> e : bySeq.entrySet()) {
+            seqs.add(e.getKey());
+            seqRegions.add(mergeRegions(e.getValue()));
+        }
+    }
+
+
+    public int read() throws IOException {
+        if (!fillOut()) {
+            return -1;
+        }
+        return out[outPos++] & 0xff;
+    }
+
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        int n = 0;
+        while (n < len && fillOut()) {
+            int count = Math.min(len - n, out.length - outPos);
+            System.arraycopy(out, outPos, b, off + n, count);
+            outPos += count;
+            n += count;
+        }
+        return (n == 0) ? -1 : n;
+    }
+
+
+    public void close() throws IOException {
+        if (chunkStream != null) {
+            chunkStream.close();
+            chunkStream = null;
+        }
+        seqPos = seqs.size();
+        chunks = null;
+    }
+
+
+    /**
+    *   Add a region to a map of chromosome to region list
+    */
+    private static void addRegion(Map<String, List<int[]>> regions, String chrom, int start, int end) {
+        if (end <= start) {
+            return;
+        }
+        if (regions.get(chrom) == null) {
+            regions.put(chrom, new ArrayList<int[]>());
+        }
+        regions.get(chrom).add(new int[] { start, end });
+    }
+
+
+    /**
+    *   Sort regions and merge overlapping ones
+    *
+    *   @return {starts, ends}
+    */
+    private static int[][] mergeRegions(List<int[]> regions) {
+        Collections.sort(regions, new Comparator<int[]>() {
+            public int compare(int[] a, int[] b) {
+                return (a[0] < b[0]) ? -1 : ((a[0] == b[0]) ? 0 : 1);
+            }
+        });
+        int[] s = new int[regions.size()];
+        int[] e = new int[regions.size()];
+        int n = 0;
+        for (int[] r : regions) {
+            if (n > 0 && r[0] <= e[n - 1]) {
+                e[n - 1] = Math.max(e[n - 1], r[1]);
+            }
+            else {
+                s[n] = r[0];
+                e[n] = r[1];
+                n++;
+            }
+        }
+        return new int[][] { Arrays.copyOf(s, n), Arrays.copyOf(e, n) };
+    }
+
+
+    /**
+    *   Read the header lines at the top of the file.  If the index does not store sequence names (CSI),
+    *    they are taken from the ##contig lines.
+    *
+    *   @return The header bytes
+    */
+    private byte[] readHeader() throws IOException {
+        final Pattern contig_pat = Pattern.compile("^##contig=<.*?ID=([^,>]+)");
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        List<String> contigs = new ArrayList<String>();
+        chunkStream = new BGZFInputStream(inFile, 0, VSThreadPool.getThreadCount());
+        try {
+            while (readLine() && line[0] == index.getMetaChar()) {
+                header.write(line, 0, lineLength);
+                Matcher m = contig_pat.matcher(new String(line, 0, lineLength));
+                if (m.find()) {
+                    contigs.add(m.group(1));
+                }
+            }
+        }
+        finally {
+            chunkStream.close();
+            chunkStream = null;
+        }
+        if (index.getNames().isEmpty()) {
+            index.setNames(contigs);
+        }
+        return header.toByteArray();
+    }
+
+
+    /**
+    *   Make sure out has unread bytes, reading ahead to the next overlapping record if needed
+    *
+    *   @return False when there are no more records
+    */
+    private boolean fillOut() throws IOException {
+        while (outPos == out.length) {
+            if (!nextRecord()) {
+                return false;
+            }
+            out = Arrays.copyOf(line, lineLength);
+            outPos = 0;
+        }
+        return true;
+    }
+
+
+    /**
+    *   Read the next record overlapping a region into line
+    *
+    *   @return False when there are no more records
+    */
+    private boolean nextRecord() throws IOException {
+        while (true) {
+            if (chunkStream == null) {
+                if (!nextChunk()) {
+                    return false;
+                }
+            }
+            if (chunkStream.getVirtualOffset() >= chunks.get(chunkPos - 1)[1] || !readLine()) {
+                chunkStream.close();
+                chunkStream = null;
+                continue;
+            }
+            if (lineLength == 0 || line[0] == index.getMetaChar()) {
+                continue;
+            }
+
+            int overlap = checkOverlap();
+            if (overlap > 0) {
+                return true;
+            }
+            else if (overlap < 0) {
+                //Past the last region of this sequence
+                chunkStream.close();
+                chunkStream = null;
+                chunkPos = chunks.size();
+            }
+        }
+    }
+
+
+    /**
+    *   Open the next chunk of the current sequence, moving to the next sequence if needed
+    *
+    *   @return False when all sequences are done
+    */
+    private boolean nextChunk() throws IOException {
+        while (chunks == null || chunkPos == chunks.size()) {
+            seqPos++;
+            if (seqPos >= seqs.size()) {
+                return false;
+            }
+            int seq = seqs.get(seqPos);
+            seqName = index.getNames().get(seq);
+            starts = seqRegions.get(seqPos)[0];
+            ends = seqRegions.get(seqPos)[1];
+            chunks = index.getChunks(seq, starts, ends);
+            chunkPos = 0;
+        }
+        chunkStream = new BGZFInputStream(inFile, chunks.get(chunkPos)[0], VSThreadPool.getThreadCount());
+        chunkPos++;
+        return true;
+    }
+
+
+    /**
+    *   Check whether the record in line overlaps a region of the current sequence
+    *
+    *   @return 1 if it overlaps, 0 if not, -1 if it is past the last region (or on another sequence)
+    */
+    private int checkOverlap() throws IOException {
+        int[] tabs = new int[4];
+        int n = 0;
+        for (int i=0; i<lineLength && n < tabs.length; i++) {
+            if (line[i] == '\t') {
+                tabs[n++] = i;
+            }
+        }
+        if (n < 4) {
+            throw new IOException("Malformed VCF record: " + new String(line, 0, lineLength).trim());
+        }
+        String chrom = new String(line, 0, tabs[0]);
+        if (!chrom.equals(seqName)) {
+            return -1;
+        }
+        int pos = 0;
+        for (int i=tabs[0] + 1; i<tabs[1]; i++) {
+            if (line[i] < '0' || line[i] > '9' || pos > (Integer.MAX_VALUE - 9) / 10) {
+                throw new IOException("Malformed VCF position: " + new String(line, 0, lineLength).trim());
+            }
+            pos = pos * 10 + (line[i] - '0');
+        }
+        int recStart = pos - 1;
+        int recEnd = recStart + Math.max(1, tabs[3] - tabs[2] - 1);   //REF allele length
+
+        //First region ending after the record starts
+        int lo = 0;
+        int hi = ends.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ends[mid] <= recStart) {
+                lo = mid + 1;
+            }
+            else {
+                hi = mid;
+            }
+        }
+        if (lo == ends.length) {
+            return -1;
+        }
+        return (starts[lo] < recEnd) ? 1 : 0;
+    }
+
+
+    /**
+    *   Read one line, including its newline, from chunkStream into line
+    *
+    *   @return False at end of file
+    */
+    private boolean readLine() throws IOException {
+        lineLength = 0;
+        int c;
+        while ((c = chunkStream.read()) >= 0) {
+            if (lineLength == line.length) {
+                line = Arrays.copyOf(line, line.length * 2);
+            }
+            line[lineLength++] = (byte)c;
+            if (c == '\n') {
+                break;
+            }
+        }
+        if (lineLength > 0 && line[lineLength - 1] != '\n') {
+            if (lineLength == line.length) {
+                line = Arrays.copyOf(line, line.length + 1);
+            }
+            line[lineLength++] = '\n';
+        }
+        return lineLength > 0;
+    }
+}
@@ -9,6 +9,16 @@ import java.util.Map;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Collections;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
 
 /**
 *   A VarData subclass for loading VCF files
@@ -20,6 +30,30 @@ public class VCFVarData extends VarData {
     private Map<String, Map<String, String>> formatMetaVCF = new HashMap<String, Map<String, String>>();
 
     private CustomAnnotation ca = null;
+    private String regions = null;      //Regions to load (from a tabix-indexed file), or null for all
+
+    private final static int ANNOT_COUNT = 8;  //Number of fixed VCF columns before FORMAT
+    private final static Pattern genoSep_pat = Pattern.compile("([0-9])[/\\|]([0-9])");
+
+    //Set from the header, then read by the threads parsing data lines
+    private String[] infoKeys;          //INFO keys loaded as columns, in column order
+    private boolean[] infoIsMulti;      //True if INFO column has one value per alt allele
+    private int infoOffset;             //Column of the first INFO key
+    private String geneNameKey = "";
+    private String typeKey = "";
+    private String typeDelim = "/";
+    private boolean typeIsMulti = false;
+    private boolean noSamples = false;
+    private LineTokenizer.StringTable infoKeyTable;    //INFO keys needed while parsing
+    private int[] infoColKey;           //infoKeyTable index of each INFO column
+    private int geneKeyIndex = -1;      //infoKeyTable index of geneNameKey, typeKey, custom annotation key
+    private int typeKeyIndex = -1;
+    private int caKeyIndex = -1;
+    private LineTokenizer.StringTable formatKeyTable;  //sampleValueName, to find FORMAT keys
+    private final static char[] FLAG_VALUE = {'1'};    //Value of an INFO flag
+
+    private int rowCount = 0;
+    private AtomicInteger linesLoaded = new AtomicInteger();
 
     private static final Map<String, Integer> VCFTypeMap;
     static {
@@ -37,24 +71,47 @@ public class VCFVarData extends VarData {
     *   @param inFile Absolute pathe of VCF file to load
     */
     public VCFVarData(String inFile) {
+        this(inFile, null);
+    }
+
+
+    /**
+    *   Interpret part of a VCF file - load VarData data structures with only the records overlapping
+    *    a list of regions.  The file must be bgzipped, with a tabix (.tbi) or CSI (.csi) index beside it.
+    *   @param inFile Absolute path of VCF file to load
+    *   @param inRegions BED file name, or list of regions as chr:start-end (see TabixRegionReader);
+    *    null to load the whole file
+    */
+    public VCFVarData(String inFile, String inRegions) {
         dataFile = inFile;
+        regions = inRegions;
         
         try {
-            BufferedReader br = new BufferedReader(new FileReader(inFile));
+            BufferedReader br = new BufferedReader(new InputStreamReader(BGZFInputStream.open(inFile)));
             String line = br.readLine();
             br.close();
 
             if (vcf.matcher(line).find()) {
-                loadVCFFile(inFile);
+                //Snapshots are only kept for whole files
+                if (regions != null) {
+                    loadVCFFile(inFile);
+                }
+                else if (!VSBinaryCache.load(this, inFile, "VCF")) {
+                    loadVCFFile(inFile);
+                    VSBinaryCache.save(this, inFile, "VCF");
+                }
             }
             else {
                 VarSifter.showError("VCF file doesn't look like a VCF - first header line not as expected.");
             }
         }
         catch (IOException ioe) {
-            VarSifter.showError(ioe.toString());
-            System.out.println(ioe);
-            System.exit(1);
+            close();
+            throw new LoadException(ioe.toString(), ioe);
+        }
+        catch (RuntimeException re) {
+            close();    //Release the sample store of a partly loaded file
+            throw re;
         }
 
         resetOutput();
@@ -63,8 +120,8 @@ public class VCFVarData extends VarData {
 
     /**
     *   Parses a VCF file to fill in data structures
-    *    It first reads through the file to count lines for first dimension
-    *    of data[][] and samples[][][].  Then, it reads again to fill in the array.
+    *    The header is read first, on this thread.  Data lines are then read in blocks, which are
+    *    parsed on the worker threads of VSThreadPool and merged into data[][] and samples in file order.
     *
     *   @param inFile Absolute path to VCF file name
     */
@@ -72,7 +129,6 @@ public class VCFVarData extends VarData {
         final Pattern info_pat = Pattern.compile("^##INFO");
         final Pattern format_pat = Pattern.compile("^##FORMAT");
         final Pattern head_pat = Pattern.compile("^#CHROM");
-        final Pattern genoSep_pat = Pattern.compile("([0-9])[/\\|]([0-9])");
 
         final String[] fixedNames = { "Chr",
                                       "LeftFlank",
@@ -110,8 +166,7 @@ public class VCFVarData extends VarData {
                                                 };
         
         if (fixedNames.length != fixedClassList.length) {
-            System.out.println("fixedName size different from fixed class list size! Tell developer!!");
-            System.exit(1);
+            throw new LoadException("fixedName size different from fixed class list size! Tell developer!!");
         }
 
         //Fill dataTypeAt with fixed names
@@ -120,23 +175,21 @@ public class VCFVarData extends VarData {
         }
 
         String line = "";
-        boolean indel;
-        boolean noSamples = false;
         boolean loadAll = false;
-        int lineCount = 0;
+        boolean headerDone = false;
         int infoCount = 0;
-        int headCount = 0;
         int sampleCount = 0;
-        String geneNameKey = "";
-        String typeKey = "";
-        String typeDelim = "/";
-        final int annotCount = 8;
 
         List<String> tempNames = new ArrayList<String>();
 
+        LineChunkReader lcr = null;
+        LinkedList<Future<VCFChunk>> pending = new LinkedList<Future<VCFChunk>>();
         try {
-            BufferedReader br = new BufferedReader(new FileReader(inFile));
-            while ((line = br.readLine()) != null) {
+            InputStream in = (regions == null) ? BGZFInputStream.open(inFile, true) : new TabixRegionReader(inFile, regions);
+            lcr = new LineChunkReader(in, LineChunkReader.CHUNK_SIZE);
+
+            //Read the header, up to and including the #CHROM line
+            while (!headerDone && (line = lcr.readLine()) != null) {
                 
                 String tempLine[] = line.split("\t", 0);
 
@@ -149,13 +202,12 @@ public class VCFVarData extends VarData {
                     if (dataTypeAt.containsKey(descTemp)) {
                         descTemp = (descTemp + "_" + tempMeta.get("ID"));
                         if (dataTypeAt.containsKey(descTemp)) {
-                            VarSifter.showError("<html>INFO column has already been seen or has the same "
+                            throw new LoadException("<html>INFO column has already been seen or has the same "
                                 + "Description as a reserved name in VarSifter,<p>"
                                 + "As VarSifter uses the Description to identify the column, this will not work.<p><p>"
                                 + "Failed to add a unique identifier, so please change the following:"
                                 + "ID=" + tempMeta.get("ID") + "     Description="
                                 + tempMeta.get("Description") + "</html>");
-                                System.exit(1);
                         }
                                 
                         VarSifter.showMessage("<html>INFO column has the same Description as a reserved name in VarSifter,<p>"
@@ -177,12 +229,10 @@ public class VCFVarData extends VarData {
                 }
                 else if (head_pat.matcher(line).find()) {
 
-                    if (tempLine.length < annotCount) {
-                        VarSifter.showError("<html>Header line (#CHROM...) column count is less than required."
+                    if (tempLine.length < ANNOT_COUNT) {
+                        throw new LoadException("<html>Header line (#CHROM...) column count is less than required."
                             + "<p>Check the file format, and make sure the text file is tab-delimited!");
-                        System.exit(1);
                     }
-
                     // Load any Custom Annotation JSON files.
                     CustomAnnotation[] caGroup = loadCustomAnnotation();
                     List<String> annotFormats = new ArrayList<String>();
@@ -195,16 +245,21 @@ public class VCFVarData extends VarData {
 
                     // display formats available, have user choose one.
                     if (annotFormats.size() > 0) {
-                        String annotChoice = (String)JOptionPane.showInputDialog(
-                            null,
-                            "<html>The following special annotation formats were detected.<p>"
-                                + "If you want VarSifter to interpret one of these, select it and click \"OK\".<p>"
-                                + "Otherwise, click \"Cancel\".</html>",
-                            "Choose Custom Annotation Format",
-                            JOptionPane.QUESTION_MESSAGE,
-                            null,
-                            annotFormats.toArray(new String[annotFormats.size()]),
-                            null);
+                        final String[] formatChoices = annotFormats.toArray(new String[annotFormats.size()]);
+                        String annotChoice = VarSifter.callOnEDT(new Callable<String>() {
+                            public String call() {
+                                return (String)JOptionPane.showInputDialog(
+                                    null,
+                                    "<html>The following special annotation formats were detected.<p>"
+                                        + "If you want VarSifter to interpret one of these, select it and click \"OK\".<p>"
+                                        + "Otherwise, click \"Cancel\".</html>",
+                                    "Choose Custom Annotation Format",
+                                    JOptionPane.QUESTION_MESSAGE,
+                                    null,
+                                    formatChoices,
+                                    null);
+                            }
+                        });
                         if (annotChoice != null && annotChoice.length() > 0) {
                             for (int cIndex=0; cIndex < caGroup.length; cIndex++) {
                                 if (annotChoice.equals(caGroup[cIndex].format)) {
@@ -215,18 +270,21 @@ public class VCFVarData extends VarData {
                     }
 
                     // Ask User to give more info about data
-                    InputTableDialog itd = new InputTableDialog(infoMetaVCF, inFile);
-                    infoMetaVCF = itd.runDialog();
-                    itd = null;
+                    final Map<String, Map<String, String>> infoToAsk = infoMetaVCF;
+                    final String fileToAsk = inFile;
+                    infoMetaVCF = VarSifter.callOnEDT(new Callable<Map<String, Map<String, String>>>() {
+                        public Map<String, Map<String, String>> call() {
+                            return new InputTableDialog(infoToAsk, fileToAsk).runDialog();
+                        }
+                    });
 
                     // determine custom Gene_name, type infoMetaVCF key (if any)
                     for (int i=0; i<tempNames.size(); i++) {
                         if ( Boolean.parseBoolean(infoMetaVCF.get(tempNames.get(i)).get("Gene_Name_Field")) 
                              && ca == null) {
                             if ( Boolean.parseBoolean(infoMetaVCF.get(tempNames.get(i)).get("Type_Field")) ) {
-                                VarSifter.showError("<html>You cannot use the same column for both \"Gene Name\" and \"Type\""
+                                throw new LoadException("<html>You cannot use the same column for both \"Gene Name\" and \"Type\""
                                     + ".<p>Please restart the program, and select distinct columns.</html>");
-                                System.exit(1);
                             }
 
                             geneNameKey = tempNames.get(i);
@@ -259,12 +317,13 @@ public class VCFVarData extends VarData {
                         toKeep = new String[] {ca.columnKey};
                         ca.setMultiAllelic( Boolean.parseBoolean(infoMetaVCF.get(ca.columnKey).get("MultiAllele")) );
                     }
-                    ColumnSelectionDialog csd = new ColumnSelectionDialog(
-                        tempNames.toArray(new String[tempNames.size()]), 
-                        toKeep);
-
-                    colMask = csd.runDialog();
-                    csd = null;
+                    final String[] colNames = tempNames.toArray(new String[tempNames.size()]);
+                    final String[] colsToKeep = toKeep;
+                    colMask = VarSifter.callOnEDT(new Callable<BitSet>() {
+                        public BitSet call() {
+                            return new ColumnSelectionDialog(colNames, colsToKeep).runDialog();
+                        }
+                    });
 
                     if ( colMask.cardinality() == tempNames.size() && geneNameKey.equals("") ) {
                         loadAll = true;
@@ -301,7 +360,7 @@ public class VCFVarData extends VarData {
                         tempNames = maskedTempNames;
                     }
 
-                    sampleCount = tempLine.length - (annotCount + 1);
+                    sampleCount = tempLine.length - (ANNOT_COUNT + 1);
                     //!!! Below TODO items may need to be done in the sampleCount test just below !!!
                     //TODO:DONE need to initialize sampleMapper based on total fields
                     //TODO:DONE populate String[] sampleValueName: GT first, then others (GQ, DP if present?)
@@ -412,7 +471,7 @@ public class VCFVarData extends VarData {
 
                     for (int i=0; i < sampleCount; i++) {
                         //TODO:DONE alter this 
-                        sampleNames[i] = tempLine[i + annotCount + 1];
+                        sampleNames[i] = tempLine[i + ANNOT_COUNT + 1];
                         
                         for (int j=0; j < sampleValueName.length; j++) {
                             sampleNamesOrig[ (i * S_FIELDS + j) ] 
@@ -505,435 +564,609 @@ public class VCFVarData extends VarData {
                         }
                     }
 
+                    headerDone = true;
                 }
                 else if (! comment.matcher(line).find()) {
-                    
-                    if (tempLine.length < annotCount) {
-                        VarSifter.showError("<html>Data line column count is less than required."
-                            + "<p>Check the file format, and make sure the text file is tab-delimited!");
-                        System.exit(1);
-                    }
-
-
-                    //include multiple lines
-                    String varAllele = tempLine[4];
-                    if (varAllele.contains(",")) {
-                        for (int i=0; i<varAllele.length(); i++) {
-                            if (varAllele.charAt(i) == ',') {
-                                lineCount++;
-                            }
-                        }
-                    }
-                    lineCount++;
-                }
-
-                if (lineCount % 1000 == 0) {
-                    System.out.print(".");
+                    throw new LoadException("<html>Data line found before the header line (#CHROM...)."
+                        + "<p>Check the file format!");
                 }
             }
-            data = new int[lineCount][];
-            samples = new int[lineCount][][];
-            dataIsIncluded = new BitSet(lineCount);
-            br.close();
         
             //Ensure required columns are present (hopefully, as they are filled in by this class).
             checkReqHeaders();
 
-            //TESTING FORMAT fields
-            //System.out.println("S_FIELDS: " + S_FIELDS);
-            //System.out.print("sampleValueName_type:");
-            //for (int s = 0; s < sampleValueName.length; s++) {
-            //    System.out.print(" " + sampleValueName[s] + "_" + sampleMapper[s].getDataType());
-            //}
-            //System.out.println();
-            //System.out.println("sampleMapper count: " + sampleMapper.length);
-            
-
-            //System.out.println(lineCount); //TESTING
-            lineCount = 0;
+            infoKeys = tempNames.toArray(new String[tempNames.size()]);
+            infoOffset = fixedNames.length;
+            infoIsMulti = new boolean[infoKeys.length];
+            for (int i=0; i < infoKeys.length; i++) {
+                infoIsMulti[i] = infoMetaVCF.get(infoKeys[i]).get("MultiAllele").equals("true");
+            }
+            typeIsMulti = (!typeKey.equals("") && infoMetaVCF.get(typeKey).get("MultiAllele").equals("true"));
+
+            List<String> neededKeys = new ArrayList<String>(tempNames);
+            neededKeys.add(geneNameKey);
+            neededKeys.add(typeKey);
+            if (ca != null) {
+                neededKeys.add(ca.columnKey);
+            }
+            infoKeyTable = new LineTokenizer.StringTable(neededKeys.toArray(new String[neededKeys.size()]));
+            infoColKey = new int[infoKeys.length];
+            for (int i=0; i < infoKeys.length; i++) {
+                infoColKey[i] = infoKeyTable.indexOf(infoKeys[i]);
+            }
+            geneKeyIndex = geneNameKey.equals("") ? -1 : infoKeyTable.indexOf(geneNameKey);
+            typeKeyIndex = typeKey.equals("") ? -1 : infoKeyTable.indexOf(typeKey);
+            caKeyIndex = (ca == null) ? -1 : infoKeyTable.indexOf(ca.columnKey);
+            formatKeyTable = new LineTokenizer.StringTable(sampleValueName);
+
+            System.out.println("Header parsing completed - loading file");
+
+            //Parse blocks of data lines on the worker threads, merging finished blocks in order.
+            //  Only a few blocks are held at once, to limit memory use.
+            data = new int[1024][];
+            samples = new SampleMatrix(0, sampleNames.length, S_FIELDS);
+            rowCount = 0;
+            ExecutorService pool = VSThreadPool.getPool();
+            int maxPending = VSThreadPool.getThreadCount() * 2;
+            byte[] chunk;
+            while ((chunk = lcr.readChunk()) != null) {
+                pending.add(pool.submit(new VCFChunk(chunk)));
+                if (pending.size() >= maxPending) {
+                    mergeChunk(pending.removeFirst().get());
+                }
+            }
+            while (!pending.isEmpty()) {
+                mergeChunk(pending.removeFirst().get());
+            }
+            lcr.close();
+
+            data = Arrays.copyOf(data, rowCount);
+            samples.trimToSize();
+            dataIsIncluded = new BitSet(rowCount);
             System.out.println();
-            System.out.println("File parsing completed - loading file");
+        }
+        catch (LoadProgress.CancelledException ce) {
+            throw ce;
+        }
+        catch (LoadException le) {
+            throw le;
         }
         catch (IOException ioe) {
-            System.out.println(ioe);
-            VarSifter.showError(ioe.toString());
-            System.exit(1);
+            throw new LoadException(ioe.toString(), ioe);
+        }
+        catch (Exception e) {
+            Throwable t = (e instanceof ExecutionException && e.getCause() != null) ? e.getCause() : e;
+            if (t instanceof LoadException) {
+                throw (LoadException)t;
+            }
+            t.printStackTrace();
+            throw new LoadException("<html>Ooops - VarSifter encountered an unexpected error when loading your "
+                + "VCF file.<p>Check the terminal output for full details:<p>" + t.toString(), t);
         }
+        finally {
+            //On an error or cancel, stop parsing blocks of the abandoned file
+            for (Future<VCFChunk> f : pending) {
+                f.cancel(true);
+            }
+            closeQuietly(lcr);
+        }
+        
 
-        //Open again - fill data
-        try {
-            BufferedReader br = new BufferedReader(new FileReader(inFile));
-            while ((line = br.readLine()) != null) {
-                if (! comment.matcher(line).find()) {
-                    String tempLine[] = line.split("\t", 0);
-                    List<String> alleles = new ArrayList<String>();
-
-                    //Check for multiallelic line
-                    String varAllele = tempLine[4];
-                    int altAlleleCount = 1;
-                    if (varAllele.contains(",")) {
-                        for (int i=0; i<varAllele.length(); i++) {
-                            if (varAllele.charAt(i) == ',') {
-                                altAlleleCount++;
-                            }
-                        }
-                    }
+    }
 
 
-                    // First, load INFO fields to hash (so they are available for parsing)
-                    String[] infoTemp = tempLine[7].split(";");
-                    Map<String, String> infoHash = new HashMap<String, String>(tempNames.size() + 2);
-                    for (String s : infoTemp) {
-                        String[] pairs = s.split("=",2);
-                        if (pairs.length == 2) {
-                            infoHash.put(pairs[0], pairs[1]);
-                        }
-                        else if (pairs.length == 1) {
-                            infoHash.put(pairs[0], "1");
-                        }
-                    }
+    /**
+    *   Append the rows of a parsed block to data[][] and samples, translating
+    *   the block's mapper indices to the main mappers
+    *
+    *   @param c A parsed block
+    */
+    private void mergeChunk(VCFChunk c) {
+        int[][] annotTable = new int[annotMapper.length][];
+        for (int i=0; i < annotMapper.length; i++) {
+            annotTable[i] = mergeMapper(c.chunkAnnotMapper[i], annotMapper[i]);
+        }
+        int[][] sampleTable = new int[sampleMapper.length][];
+        for (int j=0; j < sampleMapper.length; j++) {
+            sampleTable[j] = mergeMapper(c.chunkSampleMapper[j], sampleMapper[j]);
+        }
 
-                    // Load Custom Annotation data string to object
-                    if (ca != null) {
-                        if (infoHash.containsKey(ca.columnKey)) {
-                            ca.loadAnnot(infoHash.get(ca.columnKey), altAlleleCount);
-                        }
-                        else {
-                            ca.loadAnnot("", altAlleleCount);
-                        }
-                    }
+        if (rowCount + c.chunkRows > data.length) {
+            int newLength = Math.max(data.length * 2, rowCount + c.chunkRows);
+            data = Arrays.copyOf(data, newLength);
+        }
+        samples.setRowCount(rowCount + c.chunkRows);
+        int sampleCount = samples.getSampleCount();
 
-                    //Run loop once for each alt allele
-                    for (int altI = 0; altI < altAlleleCount; altI++) {
+        for (int r=0; r < c.chunkRows; r++) {
+            int[] row = c.chunkData[r];
+            for (int i=0; i < row.length; i++) {
+                row[i] = remapIndex(row[i], annotTable[i]);
+            }
+            for (int i=0; i < sampleCount; i++) {
+                for (int j=0; j < S_FIELDS; j++) {
+                    samples.set(rowCount, i, j, remapIndex(c.chunkSamples.get(r, i, j), sampleTable[j]));
+                }
+            }
+            data[rowCount] = row;
+            rowCount++;
+        }
+        LoadProgress.setRows(rowCount);
+    }
 
-                        int tempLineCount = lineCount + altI;
-                        data[tempLineCount] = new int[dataNames.length];
 
+    /**
+    *   Parses one block of VCF data lines into its own arrays, using its own mappers (so blocks can be
+    *   parsed at the same time).  mergeChunk() then adds the rows to the main data structures.
+    */
+    private class VCFChunk implements Callable<VCFChunk> {
+        private byte[] bytes;
+        private AbstractMapper[] chunkAnnotMapper;
+        private AbstractMapper[] chunkSampleMapper;
+        private CustomAnnotation chunkCA = null;
+        private int[][] chunkData = new int[256][];
+        private SampleMatrix chunkSamples = new SampleMatrix(0, sampleNames.length, S_FIELDS, false);
+        private int chunkRows = 0;
+
+        //Reused for every line of the block, so parsing a line creates few objects
+        private LineTokenizer tok = new LineTokenizer();      // tab-separated columns
+        private LineTokenizer infoTok = new LineTokenizer();  // INFO entries (';')
+        private LineTokenizer valTok = new LineTokenizer();   // values of one INFO entry (',')
+        private LineTokenizer altTok = new LineTokenizer();   // alt alleles (',')
+        private LineTokenizer fmtTok = new LineTokenizer();   // FORMAT keys (':')
+        private LineTokenizer sampTok = new LineTokenizer();  // values of one sample (':')
+        private LineTokenizer.StringTable strings = new LineTokenizer.StringTable(65536);
+        private char[][] infoBuf;    // where the value of each INFO key is, for the current line
+        private int[] infoStart;
+        private int[] infoEnd;
+        private int[] infoStamp;     // infoStamp[k] == stamp if key k is present in the current line
+        private int stamp = 0;
+        private int[] fmtPos;        // position of each sample value in the FORMAT keys of the current line
+        private String lastChromIn = null;
+        private String lastChromOut = null;
+
+        /**
+        *   @param inBytes A block of complete lines
+        */
+        VCFChunk(byte[] inBytes) {
+            bytes = inBytes;
+            chunkAnnotMapper = new AbstractMapper[annotMapper.length];
+            for (int i=0; i < annotMapper.length; i++) {
+                chunkAnnotMapper[i] = newMapper(annotMapper[i].getDataType(), typeDelim);
+            }
+            chunkSampleMapper = new AbstractMapper[sampleMapper.length];
+            for (int j=0; j < sampleMapper.length; j++) {
+                chunkSampleMapper[j] = newMapper(sampleMapper[j].getDataType(), null);
+            }
+            if (noSamples) {
+                chunkSampleMapper[0].addData("NA");
+            }
+            if (ca != null) {
+                chunkCA = new CustomAnnotation(ca);
+            }
+            int keyCount = infoKeyTable.size();
+            infoBuf = new char[keyCount][];
+            infoStart = new int[keyCount];
+            infoEnd = new int[keyCount];
+            infoStamp = new int[keyCount];
+            fmtPos = new int[sampleValueName.length];
+        }
 
-                        //Chr
-                        if ( !tempLine[0].contains("chr") ) {
-                            tempLine[0] = "chr" + tempLine[0];
-                        }
-                        data[tempLineCount][0] = annotMapper[0].addData(tempLine[0]);
 
-                        //LeftFlank / RightFlank
-                        data[tempLineCount][1] = Integer.parseInt(tempLine[1]) - 1;
-                        data[tempLineCount][2] = Integer.parseInt(tempLine[1]) + tempLine[3].length();
+        public VCFChunk call() {
+            CharBuffer cb = Charset.defaultCharset().decode(ByteBuffer.wrap(bytes));
+            bytes = null;
+            char[] b = cb.array();
+            int end = cb.arrayOffset() + cb.limit();
+            int start = cb.arrayOffset();
+            for (int i=start; i < end; i++) {
+                if (b[i] == '\n') {
+                    parseLine(b, start, (i > start && b[i - 1] == '\r') ? i - 1 : i);
+                    start = i + 1;
+                }
+            }
+            if (start < end) {
+                parseLine(b, start, (b[end - 1] == '\r') ? end - 1 : end);
+            }
+            return this;
+        }
 
-                        //Gene_name
-                        if (ca != null) {
-                            data[tempLineCount][3] = annotMapper[3].addData(ca.getGeneName(altI));
-                        }
-                        else if ( !geneNameKey.equals("") ) {
-                            if ( infoHash.get(geneNameKey) != null ) {
-                                data[tempLineCount][3] = annotMapper[3].addData(
-                                    infoHash.get(geneNameKey));
-                            }
-                            else {
-                                data[tempLineCount][3] = annotMapper[3].addData("-");
-                            }
-                        }
-                        else {
-                            data[tempLineCount][3] = annotMapper[3].addData("-");
-                        }
 
-                        //type
-                        if (ca != null) {
-                            // This is now split based on allele
-                            data[tempLineCount][4] = annotMapper[4].addData(ca.getType(altI));
-                        }
-                        else if ( !typeKey.equals("") ) {
-                            if ( infoHash.get(typeKey) != null ) {
-                                if (infoMetaVCF.get(typeKey).get("MultiAllele").equals("true")) {
-                                    //split values, enter correct one for this allele
-                                    String[] multiValues = infoHash.get(typeKey).split(",",0);
-                                    String s = "-";
-                                    if (altI < multiValues.length) {
-                                        s = multiValues[altI];
-                                    }
-                                    data[tempLineCount][4] = annotMapper[4].addData(s);
-                                }
-                                else {                                        
-                                    //Not multiallele, so add complete value
-                                    data[tempLineCount][4] = annotMapper[4].addData(
-                                        infoHash.get(typeKey));
-                                }
+        /**
+        *   Make room for another row, returning its index
+        */
+        private int addRow() {
+            if (chunkRows == chunkData.length) {
+                chunkData = Arrays.copyOf(chunkData, chunkRows * 2);
+            }
+            chunkSamples.setRowCount(chunkRows + 1);
+            return chunkRows++;
+        }
 
-                            }
-                            else {
-                                data[tempLineCount][4] = annotMapper[4].addData("-");
-                            }
-                        }
-                        else {
-                            data[tempLineCount][4] = annotMapper[4].addData("-");
-                        }
 
-                        //dbID
-                        if (tempLine[2].equals(".")) {
-                            tempLine[2] = "-";
-                        }
-                        data[tempLineCount][6] = annotMapper[6].addData(tempLine[2]);
+        /**
+        *   @return True if INFO key k is present in the current line
+        */
+        private boolean hasInfo(int k) {
+            return (k >= 0 && infoStamp[k] == stamp);
+        }
 
-                        //ref_allele
-                        data[tempLineCount][7] = annotMapper[7].addData(tempLine[3]);
-                        alleles.add(tempLine[3]);
 
-                        //var_allele
-                        String[] varTemp = tempLine[4].split(",", 0);
-                        data[tempLineCount][8] = annotMapper[8].addData(varTemp[altI]);
+        /**
+        *   @return The value of INFO key k as a String
+        */
+        private String infoString(int k) {
+            return strings.intern(infoBuf[k], infoStart[k], infoEnd[k]);
+        }
 
-                        //muttype and assingment of INDEL (and further parsing of var_allele)
-                        indel = (tempLine[3].length() != 1) ? true : false;
-                        if (tempLine[3].length() != varTemp[altI].length() ) {
-                            indel = true;
-                        }
-                        // Uncommenting below lines breaks things - SNVs should be 1,2 char.
-                        //else if (tempLine[3].length() == varTemp[altI].length() ) {
-                        //    indel = false;
-                        //}
-                        if (altI == 0) { //only load alleles once!
-                            for (int i=0; i<varTemp.length; i++) {
-                                alleles.add(varTemp[i]);
-                            }
-                        }
-                        int index;
-                        if (indel) {
-                            index = annotMapper[5].addData("INDEL");
-                        }
-                        else {
-                            index = annotMapper[5].addData("SNP");
-                        }
-                        data[tempLineCount][5] = index;
-                        
 
-                        //QUAL
-                        if (tempLine[5].equals(".")) {
-                            tempLine[5] = "NaN";
-                        }
-                        data[tempLineCount][9] = annotMapper[9].addData(Float.parseFloat(tempLine[5]));
+        /**
+        *   Parse one line (chars from-to of b), adding a row for each alt allele
+        */
+        private void parseLine(char[] b, int from, int to) {
+            if (from < to && b[from] == '#') {
+                return;
+            }
 
-                        //FILTER
-                        data[tempLineCount][10] = annotMapper[10].addData(tempLine[6]);
+            tok.split(b, from, to, '\t');
+            List<String> alleles = new ArrayList<String>();
+            boolean indel;
 
+            if (tok.count() < ANNOT_COUNT) {
+                throw new LoadException("<html>Data line column count is less than required."
+                    + "<p>Check the file format, and make sure the text file is tab-delimited!");
+            }
 
-                        //INFO field
-                        for (int i=0; i<tempNames.size(); i++) {
-                            int pos = i + fixedNames.length;
-                            String key = tempNames.get(i);
-
-                            if (infoMetaVCF.get(key).get("MultiAllele").equals("true")) { 
-                                //split these values, enter correct value for alt allele (or 0/- if no value)
-                                String[] multiValues = {""};
-                                if (infoHash.containsKey(key)) {
-                                    multiValues = infoHash.get(key).split(",",0);
-                                }
-                                //TESTING System.out.println(key + " " + classList[pos] + " " + " " + pos + " " + infoMetaVCF.get(key).get("Type"));
-
-                                switch (classList[pos]) {
-                                    case INTEGER:
-                                        if (infoHash.containsKey(key) && altI < multiValues.length) {
-                                            data[tempLineCount][pos] = Integer.parseInt(multiValues[altI]);
-                                        }
-                                        else {
-                                            data[tempLineCount][pos] = 0;
-                                        }
-                                        break;
-                                    case FLOAT:
-                                        float f = 0f;
-                                        if (infoHash.containsKey(key) && altI < multiValues.length) {
-                                            if (floatNaN.matcher(infoHash.get(key)).find()) {
-                                                f = Float.parseFloat("NaN");
-                                            }
-                                            else {
-                                                f = Float.parseFloat(multiValues[altI]);
-                                            }
-                                        }
-                                        data[tempLineCount][pos] = annotMapper[pos].addData(f);
-                                        break;
-                                    case STRING:
-                                        String s = "-";
-                                        if (infoHash.containsKey(key) && altI < multiValues.length) {
-                                            s = multiValues[altI];
-                                        }
-                                        data[tempLineCount][pos] = annotMapper[pos].addData(s);
-                                        break;
-                                }
-                            }
-                            else {
-                                //Not multiallele, so add complete value to each line
-                                switch (classList[pos]) {
-                                    case INTEGER:
-                                        if (infoHash.containsKey(key)) { 
-                                            data[tempLineCount][pos] = Integer.parseInt(infoHash.get(key));
-                                        }
-                                        else {
-                                            data[tempLineCount][pos] = 0;
-                                        }
-                                        break;
-                                    case FLOAT:
-                                        float f = 0f;
-                                        if (infoHash.containsKey(key)) {
-                                            if (floatNaN.matcher(infoHash.get(key)).find()) {
-                                                f = Float.parseFloat("NaN");
-                                            }
-                                            else {
-                                                f = Float.parseFloat(infoHash.get(key));
-                                            }
-                                        }
-                                        data[tempLineCount][pos] = annotMapper[pos].addData(f);
-                                        break;
-                                    case STRING:
-                                        String s = "-";
-                                        if (infoHash.containsKey(key)) {
-                                            s = infoHash.get(key);
-                                        }
-                                        data[tempLineCount][pos] = annotMapper[pos].addData(s);
-                                        break;
-                                }
-                            }
-                        }
+            //Check for multiallelic line
+            int altAlleleCount = 1;
+            for (int c=tok.start(4); c < tok.end(4); c++) {
+                if (b[c] == ',') {
+                    altAlleleCount++;
+                }
+            }
+            altTok.split(b, tok.start(4), tok.end(4), ',');
+
+
+            // First, find INFO values (so they are available for parsing)
+            stamp++;
+            infoTok.split(b, tok.start(7), tok.end(7), ';');
+            for (int e=0; e < infoTok.count(); e++) {
+                int es = infoTok.start(e);
+                int ee = infoTok.end(e);
+                int eq = es;
+                while (eq < ee && b[eq] != '=') {
+                    eq++;
+                }
+                int k = infoKeyTable.indexOf(b, es, eq);
+                if (k < 0) {
+                    continue;
+                }
+                infoStamp[k] = stamp;
+                if (eq < ee) {
+                    infoBuf[k] = b;
+                    infoStart[k] = eq + 1;
+                    infoEnd[k] = ee;
+                }
+                else {
+                    //Flag: value is "1"
+                    infoBuf[k] = FLAG_VALUE;
+                    infoStart[k] = 0;
+                    infoEnd[k] = FLAG_VALUE.length;
+                }
+            }
+
+            // Load Custom Annotation data string to object
+            if (chunkCA != null) {
+                if (hasInfo(caKeyIndex)) {
+                    chunkCA.loadAnnot(infoString(caKeyIndex), altAlleleCount);
+                }
+                else {
+                    chunkCA.loadAnnot("", altAlleleCount);
+                }
+            }
+
+            String ref = tok.getString(3, strings);
+            String[] genoCache = null;
 
+            //Run loop once for each alt allele
+            for (int altI = 0; altI < altAlleleCount; altI++) {
 
-                        // Handle Samples
-                        samples[tempLineCount] = new int[sampleNames.length][S_FIELDS];
+                int tempLineCount = addRow();
+                int[] dataRow = new int[dataNames.length];
+                chunkData[tempLineCount] = dataRow;
 
-                        if (noSamples) {
-                            samples[tempLineCount][0][0] = sampleMapper[0].getIndexOf("NA");
-                            samples[tempLineCount][0][1] = (sampleMapper[1].getDataType() == FLOAT) 
-                                ? sampleMapper[1].addData(Float.parseFloat("NaN")) : 0;
-                            samples[tempLineCount][0][2] = 0;
+
+                //Chr
+                if (lastChromIn == null || !tok.equals(0, lastChromIn)) {
+                    lastChromIn = tok.getString(0);
+                    lastChromOut = ( !lastChromIn.contains("chr") ) ? "chr" + lastChromIn : lastChromIn;
+                }
+                dataRow[0] = chunkAnnotMapper[0].addData(lastChromOut);
+
+                //LeftFlank / RightFlank
+                int varPos = tok.parseInt(1);
+                dataRow[1] = varPos - 1;
+                dataRow[2] = varPos + tok.length(3);
+
+                //Gene_name
+                if (chunkCA != null) {
+                    dataRow[3] = chunkAnnotMapper[3].addData(chunkCA.getGeneName(altI));
+                }
+                else if (hasInfo(geneKeyIndex)) {
+                    dataRow[3] = chunkAnnotMapper[3].addData(infoString(geneKeyIndex));
+                }
+                else {
+                    dataRow[3] = chunkAnnotMapper[3].addData("-");
+                }
+
+                //type
+                if (chunkCA != null) {
+                    // This is now split based on allele
+                    dataRow[4] = chunkAnnotMapper[4].addData(chunkCA.getType(altI));
+                }
+                else if (hasInfo(typeKeyIndex)) {
+                    if (typeIsMulti) {
+                        //split values, enter correct one for this allele
+                        int n = valTok.split(infoBuf[typeKeyIndex], infoStart[typeKeyIndex], infoEnd[typeKeyIndex], ',');
+                        String s = "-";
+                        if (altI < n) {
+                            s = valTok.getString(altI, strings);
                         }
-                        else {
-                            String[] sampTemp = tempLine[8].split(":");
-                            Map<String, Integer> sampHash = new HashMap<String,Integer>(7);
-                            for (int i=0; i < sampTemp.length; i++) {
-                                sampHash.put(sampTemp[i], i);
-                            }
+                        dataRow[4] = chunkAnnotMapper[4].addData(s);
+                    }
+                    else {                                        
+                        //Not multiallele, so add complete value
+                        dataRow[4] = chunkAnnotMapper[4].addData(infoString(typeKeyIndex));
+                    }
+                }
+                else {
+                    dataRow[4] = chunkAnnotMapper[4].addData("-");
+                }
 
-                            if ( (tempLine.length - (annotCount+1)) != sampleNames.length) {
-                                System.out.println("INTERNAL ERROR: inconsistent sample counting at dataline " 
-                                    + tempLineCount);
-                                System.exit(1);
-                            }
+                //dbID
+                dataRow[6] = chunkAnnotMapper[6].addData( tok.equals(2, ".") ? "-" : tok.getString(2, strings) );
 
-                            for (int i = annotCount + 1; i < tempLine.length; i++) {
-                                sampTemp = tempLine[i].split(":");
-                                String geno = sampTemp[sampHash.get("GT")];
-                                Matcher m = genoSep_pat.matcher(geno);
-                                
-                                // Genotype
-                                //   !!! Will need to fix this for "normalized" VCF (from vt)
-                                if (geno.contains(".")) {
-                                    geno = "NA";
-                                }
-                                else if (m.find()) {
-                                    String[] genoTemp = { alleles.get(Integer.parseInt(m.group(1))), 
-                                                          alleles.get(Integer.parseInt(m.group(2))) 
-                                                        };
-                                    java.util.Arrays.sort(genoTemp);
-
-                                    // DIV handling
-                                    if (indel) {
-                                        geno = genoTemp[0] + ":" + genoTemp[1];
+                //ref_allele
+                dataRow[7] = chunkAnnotMapper[7].addData(ref);
+
+                //var_allele
+                String varAllele = altTok.getString(altI, strings);
+                dataRow[8] = chunkAnnotMapper[8].addData(varAllele);
+
+                //muttype and assingment of INDEL (and further parsing of var_allele)
+                indel = (ref.length() != 1) ? true : false;
+                if (ref.length() != varAllele.length() ) {
+                    indel = true;
+                }
+                // Uncommenting below lines breaks things - SNVs should be 1,2 char.
+                //else if (tempLine[3].length() == varTemp[altI].length() ) {
+                //    indel = false;
+                //}
+                if (altI == 0) { //only load alleles once!
+                    alleles.add(ref);
+                    for (int i=0; i<altTok.count(); i++) {
+                        alleles.add(altTok.getString(i, strings));
+                    }
+                    genoCache = new String[2 * alleles.size() * alleles.size()];
+                }
+                int index;
+                if (indel) {
+                    index = chunkAnnotMapper[5].addData("INDEL");
+                }
+                else {
+                    index = chunkAnnotMapper[5].addData("SNP");
+                }
+                dataRow[5] = index;
+                
+
+                //QUAL
+                float qual = tok.equals(5, ".") ? Float.NaN : tok.parseFloat(5);
+                dataRow[9] = chunkAnnotMapper[9].addData(qual);
+
+                //FILTER
+                dataRow[10] = chunkAnnotMapper[10].addData(tok.getString(6, strings));
+
+
+                //INFO field
+                for (int i=0; i<infoKeys.length; i++) {
+                    int pos = i + infoOffset;
+                    int k = infoColKey[i];
+                    boolean has = hasInfo(k);
+
+                    if (infoIsMulti[i]) { 
+                        //split these values, enter correct value for alt allele (or 0/- if no value)
+                        int n = has ? valTok.split(infoBuf[k], infoStart[k], infoEnd[k], ',') : 0;
+                        boolean present = (has && altI < n);
+
+                        switch (classList[pos]) {
+                            case INTEGER:
+                                dataRow[pos] = present ? valTok.parseInt(altI) : 0;
+                                break;
+                            case FLOAT:
+                                float f = 0f;
+                                if (present) {
+                                    if (isNaNValue(infoBuf[k], infoStart[k], infoEnd[k])) {
+                                        f = Float.NaN;
                                     }
                                     else {
-                                        geno = genoTemp[0] + genoTemp[1];
+                                        f = valTok.parseFloat(altI);
                                     }
                                 }
-                                else {
-                                    try {
-                                        geno = alleles.get(Integer.parseInt(geno));
+                                dataRow[pos] = chunkAnnotMapper[pos].addData(f);
+                                break;
+                            case STRING:
+                                String s = present ? valTok.getString(altI, strings) : "-";
+                                dataRow[pos] = chunkAnnotMapper[pos].addData(s);
+                                break;
+                        }
+                    }
+                    else {
+                        //Not multiallele, so add complete value to each line
+                        switch (classList[pos]) {
+                            case INTEGER:
+                                dataRow[pos] = has ? LineTokenizer.parseInt(infoBuf[k], infoStart[k], infoEnd[k]) : 0;
+                                break;
+                            case FLOAT:
+                                float f = 0f;
+                                if (has) {
+                                    if (isNaNValue(infoBuf[k], infoStart[k], infoEnd[k])) {
+                                        f = Float.NaN;
                                     }
-                                    catch (NumberFormatException nfe) {
-                                        System.out.println("Malformed genotype on line " + (tempLineCount + 1) + ": " + geno );
+                                    else {
+                                        f = LineTokenizer.parseFloat(infoBuf[k], infoStart[k], infoEnd[k]);
                                     }
                                 }
+                                dataRow[pos] = chunkAnnotMapper[pos].addData(f);
+                                break;
+                            case STRING:
+                                String s = has ? infoString(k) : "-";
+                                dataRow[pos] = chunkAnnotMapper[pos].addData(s);
+                                break;
+                        }
+                    }
+                }
 
-                                samples[tempLineCount][i - (annotCount + 1)][0] = sampleMapper[0].addData(geno);
-
-                                //TODO:DONE - REMOVE - may not need separate "Qual score", "coverage" loaders
-                                // Qual score
-                                //if (sampHash.get("GQ") == null || sampTemp.length <= sampHash.get("GQ") || sampTemp[sampHash.get("GQ")].equals(".")) {
-                                //    samples[tempLineCount][i - (annotCount + 1)][1] 
-                                //    = (sampleMapper[1].getDataType() == FLOAT)
-                                //    ? sampleMapper[1].addData(Float.parseFloat("NaN"))
-                                //    : sampleMapper[1].addData(0);
-                                //}
-                                //else {
-                                //    samples[tempLineCount][i - (annotCount + 1)][1] 
-                                //        = (sampleMapper[1].getDataType() == FLOAT) 
-                                //        ? sampleMapper[1].addData(Float.parseFloat(sampTemp[sampHash.get("GQ")])) 
-                                //        : sampleMapper[1].addData(Integer.parseInt(sampTemp[sampHash.get("GQ")]));
-                                //}
-
-                                //// Read depth
-                                //if (sampHash.get("DP") == null || sampTemp.length <= sampHash.get("DP") || sampTemp[sampHash.get("DP")].equals(".")) {
-                                //    samples[tempLineCount][i - (annotCount + 1)][2] = 0;
-                                //}
-                                //else {
-                                //    samples[tempLineCount][i - (annotCount + 1)][2] 
-                                //        = Integer.parseInt(sampTemp[sampHash.get("DP")]);
-                                //}
-
-                                //TODO:DONE Load other sample fields
-                                // Start at index 1, as 0 is GT (handled above)
-                                for (int j = 1; j < S_FIELDS; j++) {
-                                    String tag = sampleValueName[j];
-                                    switch (sampleMapper[j].getDataType()) {
-                                        case INTEGER:
-                                            samples[tempLineCount][i - (annotCount + 1)][j]
-                                                = (sampHash.get(tag) != null 
-                                                    && sampTemp.length > sampHash.get(tag)
-                                                    && !sampTemp[sampHash.get(tag)].equals(".") ) 
-                                                ? sampleMapper[j].addData(Integer.parseInt(sampTemp[sampHash.get(tag)]))
-                                                : sampleMapper[j].addData(0);
-                                            break;
-                                        case FLOAT:
-                                            samples[tempLineCount][i - (annotCount + 1)][j]
-                                                = (sampHash.get(tag) != null 
-                                                    && sampTemp.length > sampHash.get(tag)
-                                                    && !sampTemp[sampHash.get(tag)].equals(".") )
-                                                ? sampleMapper[j].addData(Float.parseFloat(sampTemp[sampHash.get(tag)]))
-                                                : sampleMapper[j].addData(Float.parseFloat("NaN"));
-                                            break;
-                                        case STRING:
-                                            samples[tempLineCount][i - (annotCount + 1)][j]
-                                                = (sampHash.get(tag) != null 
-                                                    && sampTemp.length > sampHash.get(tag)
-                                                    && !sampTemp[sampHash.get(tag)].equals(".") )
-                                                ? sampleMapper[j].addData(sampTemp[sampHash.get(tag)])
-                                                : sampleMapper[j].addData(CustomAnnotation.EMPTY);
-                                            break;
-                                    }
+
+                // Handle Samples
+                if (noSamples) {
+                    chunkSamples.set(tempLineCount, 0, 0, chunkSampleMapper[0].getIndexOf("NA"));
+                    chunkSamples.set(tempLineCount, 0, 1, (chunkSampleMapper[1].getDataType() == FLOAT) 
+                        ? chunkSampleMapper[1].addData(Float.NaN) : 0);
+                    chunkSamples.set(tempLineCount, 0, 2, 0);
+                }
+                else {
+                    Arrays.fill(fmtPos, -1);
+                    fmtTok.split(b, tok.start(8), tok.end(8), ':');
+                    for (int p=0; p < fmtTok.count(); p++) {
+                        int t = formatKeyTable.indexOf(b, fmtTok.start(p), fmtTok.end(p));
+                        if (t >= 0) {
+                            fmtPos[t] = p;
+                        }
+                    }
+
+                    if ( (tok.count() - (ANNOT_COUNT+1)) != sampleNames.length) {
+                        throw new LoadException("INTERNAL ERROR: inconsistent sample counting at dataline " 
+                            + tok.getString(0) + ":" + tok.getString(1));
+                    }
+
+                    int gtPos = fmtPos[0];
+                    int alleleCount = alleles.size();
+                    int cacheOffset = indel ? alleleCount * alleleCount : 0;
+                    for (int i = ANNOT_COUNT + 1; i < tok.count(); i++) {
+                        int valueCount = sampTok.split(b, tok.start(i), tok.end(i), ':');
+                        int gs = sampTok.start(gtPos);
+                        int ge = sampTok.end(gtPos);
+                        String geno;
+                        
+                        // Genotype
+                        //   !!! Will need to fix this for "normalized" VCF (from vt)
+                        int sep = findGenoSep(b, gs, ge);
+                        if (sampTok.contains(gtPos, '.')) {
+                            geno = "NA";
+                        }
+                        else if (sep >= 0) {
+                            int a1 = b[sep - 1] - '0';
+                            int a2 = b[sep + 1] - '0';
+                            if (a1 >= alleleCount || a2 >= alleleCount) {
+                                throw new IndexOutOfBoundsException("Genotype allele not present: " 
+                                    + sampTok.getString(gtPos));
+                            }
+                            int cacheIndex = cacheOffset + a1 * alleleCount + a2;
+                            geno = genoCache[cacheIndex];
+                            if (geno == null) {
+                                String[] genoTemp = { alleles.get(a1), alleles.get(a2) };
+                                java.util.Arrays.sort(genoTemp);
+
+                                // DIV handling
+                                if (indel) {
+                                    geno = genoTemp[0] + ":" + genoTemp[1];
+                                }
+                                else {
+                                    geno = genoTemp[0] + genoTemp[1];
                                 }
+                                genoCache[cacheIndex] = geno;
+                            }
+                        }
+                        else {
+                            geno = sampTok.getString(gtPos, strings);
+                            try {
+                                geno = alleles.get(LineTokenizer.parseInt(b, gs, ge));
+                            }
+                            catch (NumberFormatException nfe) {
+                                System.out.println("Malformed genotype at " + tok.getString(0) + ":" 
+                                    + tok.getString(1) + ": " + geno );
+                            }
+                        }
+
+                        int sample = i - (ANNOT_COUNT + 1);
+                        chunkSamples.set(tempLineCount, sample, 0, chunkSampleMapper[0].addData(geno));
 
+                        // Start at index 1, as 0 is GT (handled above)
+                        for (int j = 1; j < S_FIELDS; j++) {
+                            int p = fmtPos[j];
+                            boolean present = (p >= 0 && p < valueCount && !sampTok.equals(p, "."));
+                            int value = 0;
+                            switch (chunkSampleMapper[j].getDataType()) {
+                                case INTEGER:
+                                    //IntMapper stores the int itself
+                                    value = present ? sampTok.parseInt(p) : 0;
+                                    break;
+                                case FLOAT:
+                                    value = chunkSampleMapper[j].addData(
+                                        present ? sampTok.parseFloat(p) : Float.NaN);
+                                    break;
+                                case STRING:
+                                    value = chunkSampleMapper[j].addData(
+                                        present ? sampTok.getString(p, strings) : CustomAnnotation.EMPTY);
+                                    break;
                             }
+                            chunkSamples.set(tempLineCount, sample, j, value);
                         }
-                        
-                    }
-                    lineCount += altAlleleCount;
 
+                    }
                 }
-                if (lineCount % 1000 == 0) {
-                    System.out.print(".");
-                }
+                
+            }
+
+            if (linesLoaded.incrementAndGet() % 1000 == 0) {
+                System.out.print(".");
             }
-            br.close();
-            System.out.println();
-        }
-        catch (IOException ioe) {
-            System.out.println(ioe);
-            VarSifter.showError(ioe.toString());
-            System.exit(1);
         }
-        catch (Exception e) {
-            VarSifter.showError("<html>Ooops - VarSifter encountered an unexpected error when loading your "
-                + "VCF file.<p>Check the terminal output for full details:<p>" + e.toString());
-            e.printStackTrace();
-            System.exit(1);
+    }
+
+
+    /**
+    *   Find the first genotype allele separator (as in "0/1" or "0|1") in a range of chars
+    *
+    *   @return Position of the '/' or '|', with a digit on each side, or -1 if none
+    */
+    private static int findGenoSep(char[] b, int from, int to) {
+        for (int i = from + 1; i < to - 1; i++) {
+            char c = b[i];
+            if ((c == '/' || c == '|') 
+                    && b[i - 1] >= '0' && b[i - 1] <= '9' 
+                    && b[i + 1] >= '0' && b[i + 1] <= '9') {
+                return i;
+            }
         }
-        
+        return -1;
+    }
 
+
+    /**
+    *   True if a range of chars is a NaN value (same test as floatNaN: "nan", "na", case-insensitive, optional '-')
+    */
+    private static boolean isNaNValue(char[] b, int from, int to) {
+        if (from < to && b[from] == '-') {
+            from++;
+        }
+        int len = to - from;
+        if (len != 2 && len != 3) {
+            return false;
+        }
+        return (b[from] == 'n' || b[from] == 'N')
+            && (b[from + 1] == 'a' || b[from + 1] == 'A')
+            && (len == 2 || b[from + 2] == 'n' || b[from + 2] == 'N');
     }
 
     /**
@@ -954,8 +1187,7 @@ public class VCFVarData extends VarData {
             sub = m.group(1);
         }
         else {
-            System.out.println("VCF file may have malformed Headers: no \"<>\"");
-            System.exit(1);
+            throw new LoadException("VCF file may have malformed Headers: no \"<>\"");
         }
         String[] tags = sub.split(",", 4);
         for (String s : tags) {
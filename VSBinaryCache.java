@@ -0,0 +1,552 @@
+import java.awt.GraphicsEnvironment;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import javax.swing.JOptionPane;
+
+/**
+*   Binary snapshot (.vsb file) of a loaded VarData, so a file that was loaded before can be reopened without
+*   parsing it again.  The snapshot is written beside the source file after it is first loaded, and holds the
+*   names, column classes, sample roles, mapper dictionaries, the data values stored one column at a time, and
+*   the flat array of each sample field (as in SampleMatrix).  The values are read back through a memory-mapped
+*   file.
+*   A snapshot is only used if the source file, and its sample name map (the .map file read beside a VS file),
+*   still have the path, size and modification time they had when the snapshot was written.  It holds the result of the column and INFO field choices made when the file was
+*   parsed, so before it is used the user is asked whether to keep those choices, or to parse the file again
+*   and choose anew.  Snapshots can be turned off with the "Binary_Cache" option in VarSifter.config.
+*   <p>
+*   Files whose sample values are too large for the heap (kept in mapped files, see SampleMatrix) get no
+*   snapshot: it would be an uncompressed copy of the mapped values, as large as the store itself.
+*/
+public class VSBinaryCache {
+
+    /** Suffix added to the source file name to name its snapshot */
+    public final static String SUFFIX = ".vsb";
+    private final static String MAP_SUFFIX = ".map";     //Sample name map of a VS file (see VarData)
+
+    private final static int MAGIC = 0x56534231;   //"VSB1"
+    private final static int VERSION = 4;
+    private final static int BUFFER_SIZE = 1024 * 1024;
+    private final static int MAP_SIZE = 256 * 1024 * 1024;     //Largest region mapped at once
+
+    private static boolean enabled = true;
+
+    /**
+    *   Turn reading and writing of snapshots on or off
+    *
+    *   @param isEnabled False to always parse the source file
+    */
+    public static synchronized void setEnabled(boolean isEnabled) {
+        enabled = isEnabled;
+    }
+
+
+    /**
+    *   Return true if snapshots are read and written
+    *
+    *   @return True if enabled
+    */
+    public static synchronized boolean isEnabled() {
+        return enabled;
+    }
+
+
+    /**
+    *   Fill a VarData from the snapshot of a source file, if there is an up-to-date one
+    *
+    *   @param v The VarData to fill (its loaded fields are replaced)
+    *   @param sourceFile Path of the source VS or VCF file
+    *   @param kind Name of the loader that parsed the source ("VS" or "VCF"); a snapshot written by a
+    *    different loader is not used
+    *   @return True if the VarData was filled; false if the source must be parsed (no up-to-date snapshot, or
+    *    the user chose to make the load choices again)
+    */
+    public static boolean load(VarData v, String sourceFile, String kind) {
+        File src = new File(sourceFile);
+        File cache = new File(sourceFile + SUFFIX);
+        if (!isEnabled() || !cache.isFile() || !src.isFile()) {
+            return false;
+        }
+
+        RandomAccessFile raf = null;
+        SampleMatrix samples = null;
+        boolean filled = false;
+        try {
+            raf = new RandomAccessFile(cache, "r");
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(raf.getFD()), BUFFER_SIZE));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !kind.equals(readString(in))
+                || in.readLong() != src.length() || in.readLong() != src.lastModified()
+                || !VarData.fileKey(sourceFile + MAP_SUFFIX).equals(readString(in))) {
+                return false;
+            }
+            long matrixStart = in.readLong();
+            if (!askReuse(src)) {
+                return false;
+            }
+
+            int sFields = in.readInt();
+            int numCols = in.readInt();
+            String[] dataNamesOrig = readStringArray(in);
+            String[] dataNames = readStringArray(in);
+            String[] sampleNamesOrig = readStringArray(in);
+            String[] sampleNames = readStringArray(in);
+            String[] sampleValueName = readStringArray(in);
+            int[] classList = readIntArray(in);
+            List<String> commentList = new ArrayList<String>();
+            for (String s : readStringArray(in)) {
+                commentList.add(s);
+            }
+            int typeCount = in.readInt();
+            Map<String, Integer> dataTypeAt = new HashMap<String, Integer>(typeCount * 2);
+            for (int i=0; i < typeCount; i++) {
+                String key = readString(in);
+                dataTypeAt.put(key, in.readInt());
+            }
+            BitSet dataIsEditable = readBitSet(in);
+            BitSet colMask = readBitSet(in);
+            int[] affAt = readIntArray(in);
+            int[] normAt = readIntArray(in);
+            int[] caseAt = readIntArray(in);
+            int[] controlAt = readIntArray(in);
+            AbstractMapper[] annotMapper = readMappers(in);
+            AbstractMapper[] sampleMapper = readMappers(in);
+            int rows = in.readInt();
+            int dataCols = in.readInt();
+            int nSamples = in.readInt();
+
+            //Data values one column at a time, then each sample field
+            int[][] data = new int[rows][dataCols];
+            samples = new SampleMatrix(rows, nSamples, sFields);
+            FileChannel fc = raf.getChannel();
+            long colBytes = (long)rows * 4;
+            if (matrixStart + colBytes * (dataCols + (long)nSamples * sFields) != fc.size()) {
+                return false;
+            }
+            int[] column = new int[rows];
+            long pos = matrixStart;
+            for (int c=0; c < dataCols; c++) {
+                readInts(fc, pos, column);
+                for (int r=0; r < rows; r++) {
+                    data[r][c] = column[r];
+                }
+                pos += colBytes;
+            }
+            for (int f=0; f < sFields; f++) {
+                readSampleField(fc, pos, samples, f);
+                pos += colBytes * nSamples;
+            }
+
+            v.S_FIELDS = sFields;
+            v.numCols = numCols;
+            v.dataNamesOrig = dataNamesOrig;
+            v.dataNames = dataNames;
+            v.sampleNamesOrig = sampleNamesOrig;
+            v.sampleNames = sampleNames;
+            v.sampleValueName = sampleValueName;
+            v.classList = classList;
+            v.commentList = commentList;
+            v.dataTypeAt = dataTypeAt;
+            v.dataIsEditable = dataIsEditable;
+            v.colMask = colMask;
+            v.affAt = affAt;
+            v.normAt = normAt;
+            v.caseAt = caseAt;
+            v.controlAt = controlAt;
+            v.annotMapper = annotMapper;
+            v.sampleMapper = sampleMapper;
+            v.data = data;
+            v.samples = samples;
+            v.dataIsIncluded = new BitSet(rows);
+            System.out.println("Loaded " + rows + " rows from " + cache.getName());
+            filled = true;
+            return true;
+        }
+        catch (IOException ioe) {
+            System.out.println("Could not read " + cache + " (" + ioe + ") - parsing " + sourceFile);
+            return false;
+        }
+        finally {
+            if (!filled && samples != null) {
+                samples.close();    //Release the mapped files of a snapshot read only in part
+            }
+            if (raf != null) {
+                try {
+                    raf.close();
+                }
+                catch (IOException ioe) {
+                }
+            }
+        }
+    }
+
+
+    /**
+    *   Write the snapshot of a freshly loaded VarData beside its source file.  Failure to write (ie in a
+    *    read-only directory) is reported on the console, but is not an error.
+    *
+    *   @param v The loaded VarData
+    *   @param sourceFile Path of the source VS or VCF file
+    *   @param kind Name of the loader that parsed the source ("VS" or "VCF")
+    */
+    public static void save(VarData v, String sourceFile, String kind) {
+        File src = new File(sourceFile);
+        File cache = new File(sourceFile + SUFFIX);
+        File temp = new File(sourceFile + SUFFIX + ".tmp");
+        if (!isEnabled() || !src.isFile()) {
+            return;
+        }
+
+        int rows = v.data.length;
+        int dataCols = (rows > 0) ? v.data[0].length : v.dataNames.length;
+        int nSamples = v.samples.getSampleCount();
+        if (v.samples.getRowCount() != rows || v.samples.getFieldCount() != v.S_FIELDS) {
+            return;
+        }
+        if (v.samples.isMapped()) {
+            System.out.println("Sample values of " + sourceFile + " are kept in mapped files - no snapshot written");
+            return;
+        }
+        long matrixBytes = (long)rows * 4 * (dataCols + (long)nSamples * v.S_FIELDS);
+        File dir = src.getAbsoluteFile().getParentFile();
+        if (dir != null && dir.getUsableSpace() < 2 * matrixBytes) {
+            System.out.println("Not enough free space beside " + sourceFile + " - no snapshot written");
+            return;
+        }
+        for (int r=0; r < rows; r++) {
+            if (v.data[r].length != dataCols) {
+                return;     //Rows of different lengths are not stored
+            }
+        }
+
+        FileOutputStream fos = null;
+        try {
+            //Header and dictionaries
+            ByteArrayOutputStream metaBytes = new ByteArrayOutputStream();
+            DataOutputStream meta = new DataOutputStream(metaBytes);
+            meta.writeInt(v.S_FIELDS);
+            meta.writeInt(v.numCols);
+            writeStringArray(meta, v.dataNamesOrig);
+            writeStringArray(meta, v.dataNames);
+            writeStringArray(meta, v.sampleNamesOrig);
+            writeStringArray(meta, v.sampleNames);
+            writeStringArray(meta, v.sampleValueName);
+            writeIntArray(meta, v.classList);
+            writeStringArray(meta, v.commentList.toArray(new String[v.commentList.size()]));
+            meta.writeInt(v.dataTypeAt.size());
+            for (Map.Entry<String, Integer> e : v.dataTypeAt.entrySet()) {
+                writeString(meta, e.getKey());
+                meta.writeInt(e.getValue().intValue());
+            }
+            writeBitSet(meta, v.dataIsEditable);
+            writeBitSet(meta, v.colMask);
+            writeIntArray(meta, v.affAt);
+            writeIntArray(meta, v.normAt);
+            writeIntArray(meta, v.caseAt);
+            writeIntArray(meta, v.controlAt);
+            writeMappers(meta, v.annotMapper);
+            writeMappers(meta, v.sampleMapper);
+            meta.writeInt(rows);
+            meta.writeInt(dataCols);
+            meta.writeInt(nSamples);
+            meta.close();
+
+            ByteArrayOutputStream headBytes = new ByteArrayOutputStream();
+            DataOutputStream head = new DataOutputStream(headBytes);
+            head.writeInt(MAGIC);
+            head.writeInt(VERSION);
+            writeString(head, kind);
+            head.writeLong(src.length());
+            head.writeLong(src.lastModified());
+            writeString(head, VarData.fileKey(sourceFile + MAP_SUFFIX));
+            head.close();
+            long matrixStart = headBytes.size() + 8 + metaBytes.size();
+
+            fos = new FileOutputStream(temp);
+            FileChannel fc = fos.getChannel();
+            ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            buf.put(headBytes.toByteArray());
+            buf.putLong(matrixStart);
+            writeBytes(fc, buf, metaBytes.toByteArray());
+
+            //Data values one column at a time, then each sample field
+            for (int c=0; c < dataCols; c++) {
+                for (int r=0; r < rows; r++) {
+                    if (buf.remaining() < 4) {
+                        flush(fc, buf);
+                    }
+                    buf.putInt(v.data[r][c]);
+                }
+            }
+            int[] values = new int[BUFFER_SIZE / 4];
+            long length = (long)rows * nSamples;
+            for (int f=0; f < v.S_FIELDS; f++) {
+                for (long i=0; i < length; ) {
+                    if (buf.remaining() < 4) {
+                        flush(fc, buf);
+                    }
+                    int n = (int)Math.min(length - i, buf.remaining() / 4);
+                    v.samples.getValues(f, i, values, 0, n);
+                    buf.asIntBuffer().put(values, 0, n);
+                    buf.position(buf.position() + n * 4);
+                    i += n;
+                }
+            }
+            flush(fc, buf);
+            fos.close();
+            fos = null;
+
+            cache.delete();
+            if (!temp.renameTo(cache)) {
+                throw new IOException("could not rename " + temp);
+            }
+        }
+        catch (IOException ioe) {
+            System.out.println("Could not write " + cache + ": " + ioe);
+            temp.delete();
+        }
+        finally {
+            if (fos != null) {
+                try {
+                    fos.close();
+                }
+                catch (IOException ioe) {
+                }
+                temp.delete();
+            }
+        }
+    }
+
+
+    /**
+    *   Ask whether to reuse the choices made when the snapshot was written (as InputTableDialog asks about a
+    *    saved .vcf_config).  Without a display there is no one to ask, and the snapshot is used.
+    *
+    *   @param src The source file
+    *   @return True to load the snapshot, false to parse the source again
+    */
+    private static boolean askReuse(final File src) {
+        if (GraphicsEnvironment.isHeadless()) {
+            return true;
+        }
+        return VarSifter.callOnEDT(new Callable<Boolean>() {
+            public Boolean call() {
+                return JOptionPane.showConfirmDialog(null, 
+                    "<html>" + src.getName() + " was loaded before, and a snapshot of it was kept.<p>"
+                        + "Load the snapshot, with the columns and INFO field settings chosen then?<p>"
+                        + "Choose \"No\" to read the file again and choose them anew.</html>",
+                    "Load Snapshot", JOptionPane.YES_NO_OPTION, JOptionPane.QUESTION_MESSAGE)
+                    == JOptionPane.YES_OPTION;
+            }
+        }).booleanValue();
+    }
+
+
+    /**
+    *   Fill an array with ints read from memory-mapped regions of the file
+    */
+    private static void readInts(FileChannel fc, long pos, int[] values) throws IOException {
+        int perMap = MAP_SIZE / 4;
+        for (int i=0; i < values.length; i+=perMap) {
+            int n = Math.min(perMap, values.length - i);
+            IntBuffer ib = fc.map(FileChannel.MapMode.READ_ONLY, pos + (long)i * 4, (long)n * 4).asIntBuffer();
+            ib.get(values, i, n);
+        }
+    }
+
+
+    /**
+    *   Fill one field of a SampleMatrix with ints read from memory-mapped regions of the file
+    */
+    private static void readSampleField(FileChannel fc, long pos, SampleMatrix samples, int field) throws IOException {
+        long length = (long)samples.getRowCount() * samples.getSampleCount();
+        long perMap = MAP_SIZE / 4;
+        int[] values = new int[BUFFER_SIZE / 4];
+        for (long i=0; i < length; i+=perMap) {
+            IntBuffer ib = fc.map(FileChannel.MapMode.READ_ONLY, pos + i * 4, Math.min(perMap, length - i) * 4).asIntBuffer();
+            long at = i;
+            while (ib.hasRemaining()) {
+                int n = Math.min(values.length, ib.remaining());
+                ib.get(values, 0, n);
+                samples.setValues(field, at, values, 0, n);
+                at += n;
+            }
+        }
+    }
+
+
+    private static void flush(FileChannel fc, ByteBuffer buf) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            fc.write(buf);
+        }
+        buf.clear();
+    }
+
+
+    private static void writeBytes(FileChannel fc, ByteBuffer buf, byte[] b) throws IOException {
+        int off = 0;
+        while (off < b.length) {
+            if (!buf.hasRemaining()) {
+                flush(fc, buf);
+            }
+            int n = Math.min(buf.remaining(), b.length - off);
+            buf.put(b, off, n);
+            off += n;
+        }
+    }
+
+
+    private static void writeMappers(DataOutputStream out, AbstractMapper[] mappers) throws IOException {
+        out.writeInt(mappers.length);
+        for (AbstractMapper m : mappers) {
+            int type = m.getDataType();
+            int length = m.getLength();
+            out.writeInt(type);
+            writeString(out, (type == VarData.MULTISTRING) ? ((MultiStringMapper)m).getSeparator() : null);
+            out.writeInt(length);
+            for (int i=0; i < length; i++) {
+                switch (type) {
+                    case VarData.FLOAT:
+                        out.writeFloat(m.getFloat(i));
+                        break;
+                    case VarData.STRING:
+                        writeString(out, m.getString(i));
+                        break;
+                    case VarData.MULTISTRING:
+                        writeString(out, ((MultiStringMapper)m).getEntry(i));
+                        break;
+                }
+            }
+            if (type == VarData.MULTISTRING) {
+                MultiStringMapper multi = (MultiStringMapper)m;
+                out.writeInt(multi.getSetCount());
+                for (int c=0; c < multi.getSetCount(); c++) {
+                    writeIntArray(out, multi.getSetEntries(c));
+                }
+            }
+        }
+    }
+
+
+    /**
+    *   Rebuild mappers, adding the entries (and for MULTISTRING, the sets) in index order so each gets its
+    *    original index
+    */
+    private static AbstractMapper[] readMappers(DataInputStream in) throws IOException {
+        AbstractMapper[] mappers = new AbstractMapper[in.readInt()];
+        for (int m=0; m < mappers.length; m++) {
+            int type = in.readInt();
+            mappers[m] = VarData.newMapper(type, readString(in));
+            int length = in.readInt();
+            for (int i=0; i < length; i++) {
+                if (type == VarData.FLOAT) {
+                    mappers[m].addData(Float.valueOf(in.readFloat()));
+                }
+                else if (type == VarData.MULTISTRING) {
+                    ((MultiStringMapper)mappers[m]).addEntry(readString(in));
+                }
+                else {
+                    mappers[m].addData(readString(in));
+                }
+            }
+            if (type == VarData.MULTISTRING) {
+                int setCount = in.readInt();
+                for (int c=0; c < setCount; c++) {
+                    ((MultiStringMapper)mappers[m]).addSet(readIntArray(in));
+                }
+            }
+        }
+        return mappers;
+    }
+
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] b = s.getBytes("UTF-8");
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] b = new byte[length];
+        in.readFully(b);
+        return new String(b, "UTF-8");
+    }
+
+
+    private static void writeStringArray(DataOutputStream out, String[] a) throws IOException {
+        out.writeInt(a.length);
+        for (String s : a) {
+            writeString(out, s);
+        }
+    }
+
+
+    private static String[] readStringArray(DataInputStream in) throws IOException {
+        String[] a = new String[in.readInt()];
+        for (int i=0; i < a.length; i++) {
+            a[i] = readString(in);
+        }
+        return a;
+    }
+
+
+    private static void writeIntArray(DataOutputStream out, int[] a) throws IOException {
+        out.writeInt(a.length);
+        for (int i : a) {
+            out.writeInt(i);
+        }
+    }
+
+
+    private static int[] readIntArray(DataInputStream in) throws IOException {
+        int[] a = new int[in.readInt()];
+        for (int i=0; i < a.length; i++) {
+            a[i] = in.readInt();
+        }
+        return a;
+    }
+
+
+    /**
+    *   Write a BitSet as the list of its set bits (-1 for null)
+    */
+    private static void writeBitSet(DataOutputStream out, BitSet bs) throws IOException {
+        if (bs == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(bs.cardinality());
+        for (int i = bs.nextSetBit(0); i >= 0; i = bs.nextSetBit(i + 1)) {
+            out.writeInt(i);
+        }
+    }
+
+
+    private static BitSet readBitSet(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0) {
+            return null;
+        }
+        BitSet bs = new BitSet();
+        for (int i=0; i < count; i++) {
+            bs.set(in.readInt());
+        }
+        return bs;
+    }
+}
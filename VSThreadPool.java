@@ -0,0 +1,55 @@
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+*   A shared pool of worker threads, used to split up file loading and other long-running work.
+*   The number of threads can be set with the "Worker_Threads" option in VarSifter.config.
+*/
+public class VSThreadPool {
+
+    private static int threadCount = Runtime.getRuntime().availableProcessors();
+    private static ExecutorService pool = null;
+
+    /**
+    *   Set the number of worker threads.  Must be called before the pool is first used to have an effect.
+    *
+    *   @param count Number of threads (values less than 1 are ignored)
+    */
+    public static synchronized void setThreadCount(int count) {
+        if (count > 0 && pool == null) {
+            threadCount = count;
+        }
+    }
+
+
+    /**
+    *   Return the number of worker threads
+    *
+    *   @return Number of threads in the pool
+    */
+    public static synchronized int getThreadCount() {
+        return threadCount;
+    }
+
+
+    /**
+    *   Return the shared pool, creating it if needed.  Threads are daemon threads, so they never
+    *   keep the program from exiting.
+    *
+    *   @return The shared ExecutorService
+    */
+    public static synchronized ExecutorService getPool() {
+        if (pool == null) {
+            pool = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+                private int count = 0;
+                public synchronized Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "VarSifter-worker-" + (count++));
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return pool;
+    }
+}
@@ -1,5 +1,6 @@
 import java.io.*;
 import java.util.regex.*;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.HashMap;
 import java.util.Map;
@@ -7,6 +8,10 @@ import java.util.HashSet;
 import java.util.Set;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 
 /**
@@ -24,7 +29,17 @@ public class VarData {
     final int MIN_MPG = 3;
     final int MIN_MPG_COV = 4;
 
-    protected int genScoreThresh;
+    final static int TOTAL_FILTERS = 11 + 1; //Number of non-type filters plus 1 (all type filters)
+    final static int CUSTOM_FILTER = 11;
+    final static int GENE_FILTER = TOTAL_FILTERS;       //Gene name (TextArea) filter
+    final static int QUAL_FILTER = TOTAL_FILTERS + 1;
+    final static int ALL_FILTERS = TOTAL_FILTERS + 2;
+    final static int FILTER_BLOCK_MIN = 4096;   //Fewest rows given to a worker thread when filtering
+
+    private BitSet[] filterCache = new BitSet[ALL_FILTERS];       //Last result of each filter
+    private String[] filterCacheKeys = new String[ALL_FILTERS];   //Inputs of each cached result (see filterKeys())
+    private BitSet[] drillCache = new BitSet[ALL_FILTERS];        //The same, for evaluateFilter() alone (drill-down)
+    private String[] drillCacheKeys = new String[ALL_FILTERS];
     
     final String[] geneDataHeaders = {"Gene_name", "Var Count"};
     final String[] ALLELES = {"A", "C", "G", "T"};
@@ -52,8 +67,17 @@ public class VarData {
     //data fields
     protected int[][] data;           // Fields: [line][var_annotation col]
     protected int[][] outData;        // Gets returned (can be filtered)
-    protected int[][][] samples;      // Fields: [line][sampleName][genotype:MPGscore:coverage]
-    protected int[][][] outSamples;   // Gets returned (can be filtered)
+    protected SampleMatrix samples;      // Fields: [line][sampleName][genotype:MPGscore:coverage]
+    protected SampleMatrix outSamples;   // Gets returned (can be filtered)
+    private GenotypeCodes genotypeCodes = null;  // 2-bit genotypes of biallelic rows, packed when first needed
+    private ColumnIndex[] columnIndex = null;    // Inverted index of each annotation column, built when first needed
+    private int[][] columns = null;              // Column-major copy of annotation columns [col][row], made when first needed
+    private double[] mpgOrder = null;    // k-th highest MPG score of each row, for k = mpgOrderRank
+    private int mpgOrderRank = 0;
+    private double[] covOrder = null;    // k-th highest MPG score / coverage of each row, for k = covOrderRank
+    private int covOrderRank = 0;
+    private BitSet sharedRows = null;    // Rows of data[][] shared with a subset or parent VarData, copied before editing
+    private int[] outRows = null;        // Row of data[][] shown as each row of outData, or null if not filtered
     protected int[] classList = null;
     protected List<String> commentList = new ArrayList<String>(); //comment stored here for printing
     protected List<AbstractMapper> annotMapperBuilder = new ArrayList<AbstractMapper>();  //Build an array of AbstractMappers for annotations
@@ -90,8 +114,8 @@ public class VarData {
 
     /**    
     *    Constructor reads in the file specified by full path in String inFile.
-    *    It first reads through the file just to count lines for first dimension
-    *     of data[][] and samples[][][].  Then, it reads again to fill in the array.
+    *    The file is read once; data[][] and samples grow as rows are loaded.
+    *    If the file was loaded before, its binary snapshot (see VSBinaryCache) is read instead.
     *
     *   @param inFile Absolute path to VS file to load.
     */
@@ -99,22 +123,25 @@ public class VarData {
         dataFile = inFile;
     
         try {
-            BufferedReader br = new BufferedReader(new FileReader(dataFile));
+            BufferedReader br = new BufferedReader(new InputStreamReader(BGZFInputStream.open(dataFile)));
             String line = br.readLine();
             br.close();
             
             if (vcf.matcher(line).find()) { //VCF file
-                VarSifter.showError("This looks like a VCF file - please append .vcf to filename and load again.");
-                System.exit(1);
+                throw new LoadException("This looks like a VCF file - please append .vcf to filename and load again.");
             }
-            else {  //VarSifter file
+            else if (!VSBinaryCache.load(this, inFile, "VS")) {  //VarSifter file
                 loadVSFile(inFile);
+                VSBinaryCache.save(this, inFile, "VS");
             }
         }
         catch (IOException ioe) {
-            VarSifter.showError(ioe.toString());
-            System.out.println(ioe);
-            System.exit(1);
+            close();
+            throw new LoadException(ioe.toString(), ioe);
+        }
+        catch (RuntimeException re) {
+            close();    //Release the sample store of a partly loaded file
+            throw re;
         }
 
         //indices for CompHet view
@@ -148,7 +175,7 @@ public class VarData {
     private VarData(int[][] dataIn,
                     String[] dataNamesOrigIn,
                     String[] dataNamesIn,
-                    int[][][] samplesIn,
+                    SampleMatrix samplesIn,
                     String[] sampleNamesOrigIn,
                     String[] sampleNamesIn,
                     String[] sampleValueNameIn,
@@ -198,15 +225,16 @@ public class VarData {
 
 
     /**
-    *   Load data structures by parsing a VarSifter file
+    *   Load data structures by parsing a VarSifter file.  The file is read once: column classes are
+    *   inferred as rows are stored, and a column that turns out to need a wider class is re-encoded
+    *   in place (see InferredColumn), so the result matches a load where the classes were known up front.
     *
     *   @param inFile Absolute path to VarSifter file
     */
     private void loadVSFile(String inFile) {
-        final int header_lines = 1;
         String line = "";
         int lineCount = 0;
-        long time = System.currentTimeMillis();
+        int rowCount = 0;
         boolean first = true;
         boolean noSamples = false;
         int sampleCount = 0;
@@ -219,18 +247,29 @@ public class VarData {
         final Pattern samNorm = Pattern.compile("norm");
         final Pattern casePat = Pattern.compile("case");
         final Pattern controlPat = Pattern.compile("control");
+
+        InferredColumn[] annotCols = null;
+        InferredColumn[] sampleFields = null;
+        int[][] dataRows = new int[1024][];
+        SampleMatrix sampleRows = null;
+        int[] colIndex = null;    //Column of the line holding each loaded column
+        LineTokenizer tok = new LineTokenizer();
+        LineTokenizer.StringTable strings = new LineTokenizer.StringTable(65536);
         
+        BufferedReader br = null;
         try {
-            BufferedReader br = new BufferedReader(new FileReader(inFile));
+            br = new BufferedReader(new InputStreamReader(BGZFInputStream.open(inFile, true)));
             while ((line = br.readLine()) != null) {
-                if (comment.matcher(line).find()) {
+                if (line.startsWith("#")) {
                     commentList.add(line);
                     continue;
                 }
 
                 lineCount++;
-                String[] temp = line.split("\t", 0);
+
+                //Handle the Header
                 if (first) {
+                    String[] temp = line.split("\t", 0);
 
                     List<String> dataT = new ArrayList<String>();
                     // Allow user to select columns for loading/viewing
@@ -250,10 +289,12 @@ public class VarData {
                         colMask.set(0, emptyL);
                     }
                     else {
-                        ColumnSelectionDialog csd = new ColumnSelectionDialog(dataT.toArray(new String[dataT.size()]), 
-                                                                              requiredHeaders);
-                        colMask = csd.runDialog();
-                        csd = null;
+                        final String[] dataNames = dataT.toArray(new String[dataT.size()]);
+                        colMask = VarSifter.callOnEDT(new Callable<BitSet>() {
+                            public BitSet call() {
+                                return new ColumnSelectionDialog(dataNames, requiredHeaders).runDialog();
+                            }
+                        });
                     }
 
                     if ((colMask.cardinality() + sampleCount) == temp.length) {
@@ -268,85 +309,16 @@ public class VarData {
                     for (int i=0; i<classList.length; i++) {
                         classList[i] = INTEGER;
                     }
-                    first = false;
-                    continue;
-                }
-                    
-                if (temp.length != numCols) {
-                    VarSifter.showError("*** Input file appears to be malformed - column number not same as header! " +
-                        "Line: " + (lineCount) + " ***");
-                    System.out.println("*** Input file appears to be malformed - column number not same as header! " +
-                        "Line: " + (lineCount) + " ***");
-                    System.exit(1);
-                }
-                
-                //Determine class of each column, change if not int; for now, do NOT set MULTISTRING here
-                if (! loadAll) {
-                    temp = maskLine(temp, sampleCount);
-                }
-                for (int i=0; i<temp.length; i++) {
-                    if (classList[i] == STRING || classList[i] == MULTISTRING) {
-                        continue;
-                    }
-                        if (fDigits.matcher(temp[i]).matches()) {
-                            classList[i] = FLOAT;
-                        }
-                        else if (!digits.matcher(temp[i]).matches()) {
-                            classList[i] = STRING;
-                        }
-                }
-
-                if (lineCount % 1000 == 0) {
-                    System.out.print(".");
-                }
-
-            }
-            data = new int[lineCount - header_lines][];
-            samples = new int[lineCount - header_lines][][];
-            dataIsIncluded = new BitSet(lineCount - header_lines);
-            System.out.println();
-            System.out.println("File Parsing completed - loading file");
 
-            br.close();
-            lineCount = 0;
-        }
-        catch (IOException ioe) {
-            VarSifter.showError(ioe.toString());
-            System.out.println(ioe);
-            System.exit(1);
-        }
-        first = true;
-        //TESTING System.out.println("Parse finished: " + (System.currentTimeMillis() - time));
-
-        try {
-            BufferedReader br = new BufferedReader(new FileReader(inFile));
-            
-            while ((line = br.readLine()) != null) {
-                
-                if (comment.matcher(line).find()) {
-                    continue;
-                }
-                
-                String temp[] = line.split("\t", 0);
-                List<String> sampleTemp = new ArrayList<String>();
-                List<String> sampleTempOrig = new ArrayList<String>();
-                List<String> sampleTempValueName = new ArrayList<String>(); // the sample value types, in order
-                List<String> dataTemp = new ArrayList<String>();
-                List<Integer> affPos = new ArrayList<Integer>();
-                List<Integer> normPos = new ArrayList<Integer>();
-                List<Integer> casePos = new ArrayList<Integer>();
-                List<Integer> controlPos = new ArrayList<Integer>();
-
-                long startT = System.currentTimeMillis();
-                long annotT;
-                long sampleT;
-                
-                if (! loadAll) {
-                    temp = maskLine(temp, sampleCount);
-                }
-
-                //Handle the Header
-                if (first) {
+                    List<String> sampleTemp = new ArrayList<String>();
+                    List<String> sampleTempOrig = new ArrayList<String>();
+                    List<String> sampleTempValueName = new ArrayList<String>(); // the sample value types, in order
+                    List<String> dataTemp = new ArrayList<String>();
+                    List<Integer> affPos = new ArrayList<Integer>();
+                    List<Integer> normPos = new ArrayList<Integer>();
+                    List<Integer> casePos = new ArrayList<Integer>();
+                    List<Integer> controlPos = new ArrayList<Integer>();
+                    List<InferredColumn> annotColTemp = new ArrayList<InferredColumn>();
                     
                     int dataCount = 0;
                     sampleCount = 0;
@@ -356,9 +328,6 @@ public class VarData {
                         // Is column a sample?
                         if ((samPat.matcher(temp[i])).find()) {
 
-                            /* TODO:DONE match by a "name" tag, determine samPos using "samFieldCount" instead of
-                             * S_FIELDS/
-                             */
                             if ((samLeadPat.matcher(temp[i])).find()) {  //Sample name, not score, cov, etc
                                 int samPos = sampleTemp.size();
                                 sampleTemp.add(temp[i]);
@@ -382,6 +351,9 @@ public class VarData {
                                 else if ((controlPat.matcher(temp[i])).find()) {
                                     controlPos.add(samPos);
                                 }
+
+                                //Genotypes are always strings
+                                classList[i] = STRING;
                             }
                             else {  //other custom sample fields
                                 sampleValueCount++;
@@ -399,21 +371,15 @@ public class VarData {
                                     else {
                                         if (sampleValueCount >= sampleTempValueName.size() ||
                                                 !(sampleTempValueName.get(sampleValueCount)).equals(samType)) {
-                                            VarSifter.showError("Sample columns must be same type and order"
+                                            throw new LoadException("Sample columns must be same type and order"
                                                 + " across all samples!");
-                                            System.exit(1);
                                         }
                                     }
                                     
                                 }
                                 else {
-                                    VarSifter.showError("Cannot parse sample headers.");
-                                    System.exit(1);
+                                    throw new LoadException("Cannot parse sample headers.");
                                 }
-                            /* TODO:DONE
-                             * else if {} //Get the postfix, use as a new "sample" data element
-                             */
-                             
                             }
                             sampleCount++;
                             sampleTempOrig.add(temp[i]);
@@ -437,30 +403,27 @@ public class VarData {
                                 if (m.find()) {
                                     char suffix = m.group(1).toCharArray()[0];
                                     if (suffix == 'z') {
-                                        VarSifter.showError("<html>Multiple columns have the same name, "
+                                        throw new LoadException("<html>Multiple columns have the same name, "
                                             + "which is not allowed.<p>Program unable to create a unique name.<p>"
                                             + "Please rename column #" + (i+1) + ": \"" + temp[i] + "\"</html>");
-                                            System.exit(1);
                                     }
                                     else {
                                         suffix++;
                                         temp[i] = temp[i].substring(0, temp[i].length() - 2);
                                         temp[i] = (temp[i] + "_" + suffix);
                                         if (dataTypeAt.containsKey(temp[i])) {
-                                            VarSifter.showError("<html>Multiple columns have the same name, "
+                                            throw new LoadException("<html>Multiple columns have the same name, "
                                                 + "which is not allowed.<p>Program unable to create a unique name.<p>"
                                                 + "Please rename column #" + (i+1) + ": \"" + temp[i] + "\"</html>");
-                                            System.exit(1);
                                         }
                                     }
                                 }
                                 else {
                                     temp[i] += "_a";
                                     if (dataTypeAt.containsKey(temp[i])) {
-                                        VarSifter.showError("<html>Multiple columns have the same name, "
+                                        throw new LoadException("<html>Multiple columns have the same name, "
                                             + "which is not allowed.<p>Program unable to create a unique name.<p>"
                                             + "Please rename column #" + (i+1) + ": \"" + temp[i] + "\"</html>");
-                                        System.exit(1);
                                     }
                                 }
 
@@ -480,21 +443,7 @@ public class VarData {
                             if (temp[i].equals("type")) {
                                 classList[i] = VarData.MULTISTRING;
                             }
-                            
-                            switch (classList[i]) {
-                                case INTEGER:
-                                    annotMapperBuilder.add(new IntMapper());
-                                    break;
-                                case FLOAT:
-                                    annotMapperBuilder.add(new FloatMapper());
-                                    break;
-                                case STRING:
-                                    annotMapperBuilder.add(new StringMapper());
-                                    break;
-                                case MULTISTRING:
-                                    annotMapperBuilder.add(new MultiStringMapper(";"));
-                                    break;
-                            }
+                            annotColTemp.add(new InferredColumn(classList[i], ";"));
 
                             dataCount++;
                         }
@@ -505,121 +454,17 @@ public class VarData {
 
                     if (sampleCount == 0) {
                         noSamples = true;
-                    }
-                    else {
-
-                        S_FIELDS = sampleTempValueName.size();
-                        sampleMapper = new AbstractMapper[S_FIELDS];
-
-                        //Genotype
-                        sampleMapper[0] = new StringMapper();
-                        
-                        /* TODO:DONE make a general data loader for these fields, instead of hard coded parsing
-                         * of score, coverage. Will likely have to make a map, so order is consistent even 
-                         * if columns are out of order.
-                         */
-                        //Map other sample values
-                        for (int j=1; j < S_FIELDS; j++) {
-                            int thisClass = -1;
-                            for (int k=dataCount+j; k < temp.length; k+=S_FIELDS) {
-                                if (thisClass < 0) {
-                                    thisClass = classList[k];
-                                }                            
-                                //else if (classList[k] != thisClass && thisClass <= FLOAT && classList[k] <= FLOAT) {
-                                //    VarSifter.showMessage("<html>Sample value columns have different numeric "
-                                //        + "types<p>Initial type: " + thisClass + " Other type: " + classList[k]
-                                //        + "<p>Row: " + lineCount + " Col: " + (k+1) + "/" 
-                                //        + sampleTempValueName.get(j)
-                                //        + "<p>VarSifter will continue to load, but you may want to check your "
-                                //        + "data file");
-                                //    thisClass = Math.max(thisClass, classList[k]);
-                                //}
-                                else if (classList[k] != thisClass) {
-                                    VarSifter.showError("<html>Sample value columns have different data types<p>"
-                                        + "Initial type: " + thisClass + " Other type: " + classList[k] + "<p>"
-                                        + "Row: " + lineCount + " Col: " + (k+1) + "/" 
-                                        + sampleTempValueName.get(j));
-                                    System.exit(1);
-                                }
-
-                                //Assume second, third entries are score, coverage
-                                if (j == 1 && (thisClass != INTEGER && thisClass != FLOAT)) {
-                                    VarSifter.showError("<html> It looks like you have a non-integer, non-floating point value"
-                                        + "<p>in the genotype score column! Row: " + lineCount + " Col: " 
-                                        + (k+1) + "/" + sampleTempValueName.get(j));
-                                    System.out.println("Error: non-integer, non-floating point number in genotype score"
-                                        + "column, exiting!");
-                                    System.exit(1);
-                                }
-                                if (j == 2 && thisClass != INTEGER) {
-                                    VarSifter.showError("<html>It looks like you have a non-integer value in the genotype " 
-                                        + "<p>coverage column! Row: " 
-                                        + lineCount + " Col: " + (k+1) + "/" + sampleTempValueName.get(j));
-                                    System.out.println("Error: non-integer in genotype coverage column, exiting!");
-                                    System.exit(1);
-                                }
-                            }
-                            
-                            //Assign class type - for now, no MULTISTRINGMAPPER
-                            switch (thisClass) {
-                                case INTEGER:
-                                    sampleMapper[j] = new IntMapper();
-                                    break;
-                                case FLOAT:
-                                    sampleMapper[j] = new FloatMapper();
-                                    break;
-                                case STRING:
-                                    sampleMapper[j] = new StringMapper();
-                                    break;
-                            }
-
-                        }
-                    }
-                    
-
-                    ////Genotype Qual (Integer or Float?)
-                    //boolean isFloat = false;
-                    //for (int j=dataCount+1; j <= temp.length; j+=3) {
-                    //    if (classList[j] == FLOAT) {
-                    //        isFloat = true;
-                    //    }
-                    //    else if (classList[j] == INTEGER) {
-                    //        //OK, do nothing
-                    //    }
-                    //    else {
-                    //        VarSifter.showError("<html> It looks like you have a non-integer, non-floating point value"
-                    //            + "<p>in the genotype score column! Row: " + lineCount + " Col: " + (j+1));
-                    //        System.out.println("Error: non-integer, non-floating point number in genotype score"
-                    //            + "column, exiting!");
-                    //        System.exit(1);
-                    //    }
-                    //}
-                    //sampleMapper[1] = (isFloat) ? new FloatMapper() : new IntMapper();
-
-                    ////Genotype coverage
-                    //for (int j=dataCount+2; j <= temp.length; j+=3) {
-                    //    if (classList[j] != INTEGER) {
-                    //        VarSifter.showError("<html>It looks like you have a non-integer value in the genotype " 
-                    //            + "<p>coverage column! Row: " 
-                    //            + lineCount + " Col: " + (j+1));
-                    //        System.out.println("Error: non-integer in genotype coverage column, exiting!");
-                    //        System.exit(1);
-                    //    }
-                    //}
-                    //sampleMapper[2] = new IntMapper();
-
-                    //TODO:DONE may not need to do this if no longer hard coded
-                    if (noSamples) {
                         sampleNames = new String[] {"NA"};
                         sampleNamesOrig = new String[] {"NA","NA","NA"};
-                        sampleMapper = new AbstractMapper[3];
-                        sampleMapper[0] = new StringMapper();
-                        sampleMapper[0].addData("NA");
-                        sampleMapper[1] = new IntMapper();
-                        sampleMapper[2] = new IntMapper();
                         sampleValueName = new String[] {"NA", "NA", "NA", "NA"};
                     }
                     else {
+                        S_FIELDS = sampleTempValueName.size();
+                        sampleFields = new InferredColumn[S_FIELDS];
+                        sampleFields[0] = new InferredColumn(STRING, null);  //Genotype
+                        for (int j=1; j < S_FIELDS; j++) {
+                            sampleFields[j] = new InferredColumn(INTEGER, null);
+                        }
                         sampleNames = sampleTemp.toArray(new String[sampleTemp.size()]);
                         sampleNamesOrig = sampleTempOrig.toArray(new String[sampleTempOrig.size()]);
                         sampleValueName = sampleTempValueName.toArray(new String[sampleTempValueName.size()]);
@@ -627,7 +472,7 @@ public class VarData {
                     
                     dataNames = dataTemp.toArray(new String[dataTemp.size()]);
                     dataNamesOrig = dataNames; //Will have to change this when not all data included
-                    annotMapper = annotMapperBuilder.toArray(new AbstractMapper[annotMapperBuilder.size()]);
+                    annotCols = annotColTemp.toArray(new InferredColumn[annotColTemp.size()]);
                     
                     if (affPos.size() > 0 && normPos.size() > 0) {
                         affAt = new int[affPos.size()];
@@ -674,100 +519,273 @@ public class VarData {
 
                     }
 
+                    sampleRows = new SampleMatrix(0, sampleNames.length, S_FIELDS);
+                    samples = sampleRows;   //So a failed load can close it
+
+                    colIndex = new int[classList.length];
+                    int colCount = 0;
+                    for (int i=0; i < numCols; i++) {
+                        if (loadAll || i >= numCols - sampleCount || colMask.get(i)) {
+                            colIndex[colCount] = i;
+                            colCount++;
+                        }
+                    }
 
                     first = false;
                     continue;
                 }
-
+                    
+                if (tok.split(line, '\t') != numCols) {
+                    throw new LoadException("*** Input file appears to be malformed - column number not same as header! " +
+                        "Line: " + (lineCount) + " ***");
+                }
                 
+                //Determine class of each column, change if not int; for now, do NOT set MULTISTRING here
+                for (int i=0; i<classList.length; i++) {
+                    if (classList[i] == STRING || classList[i] == MULTISTRING) {
+                        continue;
+                    }
+                    if (tok.isFloat(colIndex[i])) {
+                        classList[i] = FLOAT;
+                    }
+                    else if (!tok.isInteger(colIndex[i])) {
+                        classList[i] = STRING;
+                    }
+                }
+
+                if (rowCount == dataRows.length) {
+                    dataRows = Arrays.copyOf(dataRows, rowCount * 2);
+                }
+                sampleRows.setRowCount(rowCount + 1);
+
                 //Fill data array (annotations)
-                data[lineCount] = new int[dataNames.length];
+                final int[][] dRows = dataRows;
+                final int row = rowCount;
+                int[] dataRow = new int[dataNames.length];
+                dataRows[row] = dataRow;
                 for (int i=0; i < dataNames.length; i++) {
-                    switch (classList[i]) {
-                        case INTEGER:
-                            data[lineCount][i] = Integer.parseInt(temp[i]);
-                            break;
-                        case FLOAT:
-                            float f = Float.parseFloat(temp[i]);
-                            data[lineCount][i] = annotMapper[i].addData(f); 
-                            break;
-                        case STRING:
-                            data[lineCount][i] = annotMapper[i].addData(temp[i]);
-                            break;
-                        case MULTISTRING:
-                            data[lineCount][i] = annotMapper[i].addData(temp[i]);
-                            break;
+                    if (classList[i] != annotCols[i].getDataClass()) {
+                        final int col = i;
+                        annotCols[i].promote(classList[i], new InferredColumn.Slots() {
+                            public long count() { return row; }
+                            public int get(long slot) { return dRows[(int)slot][col]; }
+                            public void set(long slot, int value) { dRows[(int)slot][col] = value; }
+                        });
                     }
+                    dataRow[i] = annotCols[i].encode(tok, colIndex[i], strings, row);
                 }
 
-                annotT = (System.currentTimeMillis() - startT);
-
-                
                 //Fill samples array (genotypes)
-                samples[lineCount] = new int[sampleNames.length][S_FIELDS];
-                
-                if (noSamples) {
-                    //TODO:DONE may not have to handle this
-                    samples[lineCount][0][0] = sampleMapper[0].getIndexOf("NA");
-                    samples[lineCount][0][1] = -1;
-                    samples[lineCount][0][2] = -1;
-                }
-                else {
-                    //TODO:DONE load sample info, based on included fields (no longer hard coded)
-                    for (int i = 0; i < sampleNames.length; i++) {
+                if (!noSamples) {
+                    final SampleMatrix sRows = sampleRows;
+                    final int nSamples = sampleNames.length;
+                    for (int i = 0; i < nSamples; i++) {
                         for (int j=0; j<S_FIELDS; j++) {
                             int dataIndex = dataNames.length + (i * S_FIELDS) + j;
-                            switch(classList[dataIndex]) {
-                                case INTEGER:
-                                    samples[lineCount][i][j] = Integer.parseInt(temp[dataIndex]);
-                                    break;
-                                case FLOAT:
-                                    float f = Float.parseFloat(temp[dataIndex]);
-                                    samples[lineCount][i][j] = sampleMapper[j].addData(f);
-                                    break;
-                                case STRING:
-                                    samples[lineCount][i][j] = sampleMapper[j].addData(temp[dataIndex]);
-                                    break;
+                            long slot = (long)row * nSamples + i;
+                            if (j > 0 && classList[dataIndex] > sampleFields[j].getDataClass()) {
+                                final int field = j;
+                                final long stored = slot;
+                                sampleFields[j].promote(classList[dataIndex], new InferredColumn.Slots() {
+                                    public long count() { return stored; }
+                                    public int get(long s) { return sRows.get((int)(s / nSamples), (int)(s % nSamples), field); }
+                                    public void set(long s, int value) { sRows.set((int)(s / nSamples), (int)(s % nSamples), field, value); }
+                                });
                             }
+                            sampleRows.set(row, i, j, sampleFields[j].encode(tok, colIndex[dataIndex], strings, slot));
                         }
                     }
                 }
 
-                sampleT = (System.currentTimeMillis() - startT - annotT);
-                
-                lineCount++;
+                rowCount++;
                 if (lineCount % 1000 == 0) {
-                    //TESTING System.out.println(lineCount + " Annot: " + annotT + " Sample: " + sampleT );
                     System.out.print(".");
+                    LoadProgress.setRows(rowCount);
                 }
             }
             br.close();
             System.out.println();
+
+            data = Arrays.copyOf(dataRows, rowCount);
+            sampleRows.trimToSize();
+            samples = sampleRows;
+            dataIsIncluded = new BitSet(rowCount);
+
+            annotMapper = new AbstractMapper[annotCols.length];
+            for (int i=0; i < annotCols.length; i++) {
+                annotMapper[i] = annotCols[i].getMapper();
+            }
+            
+            //TODO:DONE may not need to do this if no longer hard coded
+            if (noSamples) {
+                sampleMapper = new AbstractMapper[3];
+                sampleMapper[0] = new StringMapper();
+                int naIndex = sampleMapper[0].addData("NA");
+                sampleMapper[1] = new IntMapper();
+                sampleMapper[2] = new IntMapper();
+                for (int i=0; i < rowCount; i++) {
+                    samples.set(i, 0, 0, naIndex);
+                    samples.set(i, 0, 1, -1);
+                    samples.set(i, 0, 2, -1);
+                }
+            }
+            else {
+                //Sample value columns of one field must share a type
+                int dataCount = dataNames.length;
+                sampleMapper = new AbstractMapper[S_FIELDS];
+                sampleMapper[0] = sampleFields[0].getMapper();
+                for (int j=1; j < S_FIELDS; j++) {
+                    int thisClass = -1;
+                    for (int k=dataCount+j; k < classList.length; k+=S_FIELDS) {
+                        if (thisClass < 0) {
+                            thisClass = classList[k];
+                        }                            
+                        else if (classList[k] != thisClass) {
+                            throw new LoadException("<html>Sample value columns have different data types<p>"
+                                + "Initial type: " + thisClass + " Other type: " + classList[k] + "<p>"
+                                + "Row: " + lineCount + " Col: " + (k+1) + "/" 
+                                + sampleValueName[j]);
+                        }
+
+                        //Assume second, third entries are score, coverage
+                        if (j == 1 && (thisClass != INTEGER && thisClass != FLOAT)) {
+                            throw new LoadException("<html> It looks like you have a non-integer, non-floating point value"
+                                + "<p>in the genotype score column! Row: " + lineCount + " Col: " 
+                                + (k+1) + "/" + sampleValueName[j]);
+                        }
+                        if (j == 2 && thisClass != INTEGER) {
+                            throw new LoadException("<html>It looks like you have a non-integer value in the genotype " 
+                                + "<p>coverage column! Row: " 
+                                + lineCount + " Col: " + (k+1) + "/" + sampleValueName[j]);
+                        }
+                    }
+                    sampleMapper[j] = sampleFields[j].getMapper();
+                }
+            }
+        }
+        catch (LoadProgress.CancelledException ce) {
+            closeQuietly(br);
+            throw ce;
+        }
+        catch (LoadException le) {
+            closeQuietly(br);
+            throw le;
         }
         catch (IOException ioe) {
-            VarSifter.showError(ioe.toString());
-            System.out.println(ioe);
-            System.exit(1);
+            throw new LoadException(ioe.toString(), ioe);
         }
         catch (Exception e) {
-            VarSifter.showError("<html>Ooops - VarSifter encountered an unexpected error when loading your " 
-                + "VS file.<p>Check the terminal output for full details:<p>" + e.toString());
             e.printStackTrace();
-            System.exit(1);
+            throw new LoadException("<html>Ooops - VarSifter encountered an unexpected error when loading your " 
+                + "VS file.<p>Check the terminal output for full details:<p>" + e.toString(), e);
         }
    
     }
 
 
     /**
-    *   Checks for required headers.  If any are missing, warn, close program.
+    *   Checks for required headers.  If any are missing, throw a LoadException.
     */
     protected void checkReqHeaders() {
         for (String s : requiredHeaders) {
             if ( !dataTypeAt.containsKey(s) ) {
-                VarSifter.showError("Required column \"" + s + "\" missing! Please review the VS file format "
+                throw new LoadException("Required column \"" + s + "\" missing! Please review the VS file format "
                     + "in the User Guide. Exiting.");
-                System.exit(1);
+            }
+        }
+    }
+
+
+    /**
+    *   Create an empty mapper of the given class
+    *
+    *   @param type INTEGER, FLOAT, STRING or MULTISTRING
+    *   @param multiSep Separator used if type is MULTISTRING
+    *   @return A new AbstractMapper
+    */
+    protected static AbstractMapper newMapper(int type, String multiSep) {
+        switch (type) {
+            case FLOAT:
+                return new FloatMapper();
+            case STRING:
+                return new StringMapper();
+            case MULTISTRING:
+                return new MultiStringMapper(multiSep);
+            default:
+                return new IntMapper();
+        }
+    }
+
+
+    /**
+    *   Add the entries of a mapper filled while loading one chunk of a file to the main mapper, and return
+    *   a table translating chunk indices to main indices.  Entries are added in chunk index order (the order
+    *   they were first seen in the chunk), so merging chunks in file order gives the same indices as
+    *   loading the whole file on one thread.
+    *
+    *   @param chunkMapper Mapper filled by one chunk
+    *   @param mainMapper Mapper for the whole file, of the same class
+    *   @return Translation table (for MULTISTRING, the main set code of each chunk set code), or null for an
+    *    IntMapper
+    */
+    protected static int[] mergeMapper(AbstractMapper chunkMapper, AbstractMapper mainMapper) {
+        int length = chunkMapper.getLength();
+        int[] table = new int[length];
+        switch (chunkMapper.getDataType()) {
+            case FLOAT:
+                for (int i=0; i < length; i++) {
+                    table[i] = mainMapper.addData(chunkMapper.getFloat(i));
+                }
+                return table;
+            case STRING:
+                for (int i=0; i < length; i++) {
+                    table[i] = mainMapper.addData(chunkMapper.getString(i));
+                }
+                return table;
+            case MULTISTRING:
+                MultiStringMapper chunkMulti = (MultiStringMapper)chunkMapper;
+                MultiStringMapper mainMulti = (MultiStringMapper)mainMapper;
+                for (int i=0; i < length; i++) {
+                    table[i] = mainMulti.addEntry(chunkMulti.getEntry(i));
+                }
+                int[] setTable = new int[chunkMulti.getSetCount()];
+                for (int c=0; c < setTable.length; c++) {
+                    int[] entries = chunkMulti.getSetEntries(c);
+                    for (int k=0; k < entries.length; k++) {
+                        entries[k] = table[entries[k]];
+                    }
+                    setTable[c] = mainMulti.addSet(entries);
+                }
+                return setTable;
+            default:
+                return null;
+        }
+    }
+
+
+    /**
+    *   Translate an index from a chunk mapper to the main mapper
+    *
+    *   @param index The chunk index
+    *   @param table Table returned by mergeMapper(), or null
+    *   @return The main index
+    */
+    protected static int remapIndex(int index, int[] table) {
+        return (table == null) ? index : table[index];
+    }
+
+
+    /**
+    *   Close a stream left open by a load that was cancelled, ignoring errors
+    *
+    *   @param c The stream, or null
+    */
+    protected static void closeQuietly(Closeable c) {
+        if (c != null) {
+            try {
+                c.close();
+            }
+            catch (IOException ioe) {
             }
         }
     }
@@ -785,7 +803,9 @@ public class VarData {
         for (int i=0; i < data.length; i++) {
             System.arraycopy(data[i], 0, out[i], 0, dataNamesOrig.length);
             for (int j=0; j < sampleNames.length; j++) {
-                System.arraycopy(samples[i][j], 0, out[i], (dataNamesOrig.length + (j * S_FIELDS)), S_FIELDS);
+                for (int k=0; k < S_FIELDS; k++) {
+                    out[i][dataNamesOrig.length + (j * S_FIELDS) + k] = samples.get(i, j, k);
+                }
             }
         }
         return out;
@@ -810,370 +830,902 @@ public class VarData {
     *  
     */
     public void filterData(DataFilter df) {
-        BitSet[] mask = df.getMask();
-        String geneFile = df.getGeneFile();
-        String bedFile = df.getBedFile();
-        int[] spinnerData = df.getSpinnerData();
-        String geneQuery = df.getGeneQuery();
-        int minMPG = df.getMinMPG();
-        float minMPGCovRatio = df.getMinMPGCovRatio();
-        genScoreThresh = df.getGenScoreThresh();
-        String geneDelim = df.getGeneDelim();
-
-        dataIsIncluded.set(0,data.length);
-        final int TOTAL_FILTERS = 11 + 1; //Number of non-type filters plus 1 (all type filters)
-        BitSet[] filterSet = new BitSet[TOTAL_FILTERS];
-        BitSet geneFilter = new BitSet(data.length);
-        geneFilter.set(0, data.length);
-        BitSet qualFilter = new BitSet(data.length);
-        qualFilter.set(0, data.length);
-        Pattern geneQueryPat = null;
-        
-        int typeIndex = dataTypeAt.get("type");
-        int refAlleleIndex = dataTypeAt.get("ref_allele");
-        int varAlleleIndex = dataTypeAt.get("var_allele");
-        int dbSNPIndex = (dataTypeAt.containsKey("dbID")) ? dataTypeAt.get("dbID") : -1;
-        int mendRecIndex = (dataTypeAt.containsKey("MendHomRec")) ? dataTypeAt.get("MendHomRec") : -1;
-        int mendHetRecIndex = (dataTypeAt.containsKey("MendHetRec")) ? dataTypeAt.get("MendHetRec") : -1;
-        int mendDomIndex = (dataTypeAt.containsKey("MendDom")) ? dataTypeAt.get("MendDom") : -1;
-        int mendBadIndex = (dataTypeAt.containsKey("MendInconsis")) ? dataTypeAt.get("MendInconsis") : -1;
-        int geneIndex = dataTypeAt.get("Gene_name");
-        int chrIndex = dataTypeAt.get("Chr");
-        int lfIndex = dataTypeAt.get("LeftFlank");
-        int notMendHetRec = -1;
-        Set<String> geneSet = new HashSet<String>();
-        Map[] bedHash = null;   //<String, List<Integer>>
-
-        //Set up type filters (filterSet[0], as all types are folded into one filter)
-        filterSet[0] = new BitSet(data.length + 1);
-        for (int i=0; i < mask[0].size(); i++) {
-            if (mask[0].get(i)) {
-                filterSet[0].set(data.length + 1);
-                break;
+        BitSet included = evaluateFilter(df, filterCache, filterCacheKeys);
+        dataIsIncluded.clear();
+        dataIsIncluded.or(included);
+        filterOutput();
+    }
+
+
+    /**
+    *   Return the rows passing a set of filters, without changing the filtered data (unlike filterData()).
+    *    Filters already applied by filterData() are not run again.  Results of the others are cached apart
+    *    from filterData()'s, so drilling down (ie to the variants of one gene) keeps the applied filters' results.
+    *
+    *   @param df DataFilter object with the filtering options
+    *   @return BitSet of the rows (of all data) passing the filters
+    */
+    public BitSet evaluateFilter(DataFilter df) {
+        return evaluateFilter(df, drillCache, drillCacheKeys);
+    }
+
+
+    /**
+    *   Return the rows passing a set of filters
+    *
+    *   @param df DataFilter object with the filtering options
+    *   @param cache Where to keep the results of filters that are run (filterCache, or drillCache)
+    *   @param cacheKeys Inputs of the results in cache
+    *   @return BitSet of the rows (of all data) passing the filters
+    */
+    private BitSet evaluateFilter(DataFilter df, BitSet[] cache, String[] cacheKeys) {
+        //Only filters whose inputs changed since they were last run are run again; the others reuse
+        //  their cached result, from filterData()'s cache or the given one.
+        String[] keys = filterKeys(df);
+        BitSet[] result = new BitSet[ALL_FILTERS];
+        boolean[] run = new boolean[ALL_FILTERS];
+        boolean runRows = false;
+        for (int f=0; f < ALL_FILTERS; f++) {
+            if (keys[f] == null) {
+                continue;
+            }
+            if (keys[f].equals(filterCacheKeys[f])) {
+                result[f] = filterCache[f];
+            }
+            else if (keys[f].equals(cacheKeys[f])) {
+                result[f] = cache[f];
+            }
+            else {
+                run[f] = true;
+                if (f != CUSTOM_FILTER) {
+                    runRows = true;
+                }
             }
         }
         
-        //Set up remaining filters (filterSet[x>0])
-        for (int i=1; i < TOTAL_FILTERS; i++) {
-            filterSet[i] = new BitSet(data.length + 1);
-            if (mask[1].get(i - 1)) {  //must have -1 since mask is 0-based
-                filterSet[i].set(data.length + 1);
+        //Start filtering!  The rows are split into blocks, which are filtered on the worker threads
+        //  (each block only depends on its own rows), then the results of each block are copied in.
+        //  Filters testing only the code of one column are answered from the column's index instead.
+        if (runRows) {
+            RowFilter rf = new RowFilter(df, run);
+            BitSet[] filterSet = rf.filterColumns();
+            boolean scanRows = false;
+            for (int f=0; f < ALL_FILTERS; f++) {
+                if (rf.run[f]) {
+                    filterSet[f] = new BitSet(data.length);
+                    scanRows = true;
+                }
+            }
+            int blockSize = filterBlockSize();
+            if (scanRows && blockSize >= data.length) {
+                mergeFilterBlock(rf.filterRows(0, data.length), 0, filterSet, rf.run);
+            }
+            else if (scanRows) {
+                ExecutorService pool = VSThreadPool.getPool();
+                List<Future<BitSet[]>> blocks = new ArrayList<Future<BitSet[]>>();
+                for (int start = 0; start < data.length; start += blockSize) {
+                    blocks.add(pool.submit(new FilterBlock(rf, start, Math.min(start + blockSize, data.length))));
+                }
+                for (int b=0; b < blocks.size(); b++) {
+                    mergeFilterBlock(getBlock(blocks.get(b)), b * blockSize, filterSet, rf.run);
+                }
+            }
+            rf.keepQualOrders();
+            for (int f=0; f < ALL_FILTERS; f++) {
+                if (run[f] && f != CUSTOM_FILTER) {
+                    cache[f] = filterSet[f];
+                    cacheKeys[f] = keys[f];
+                    result[f] = filterSet[f];
+                }
             }
         }
-        
-        //Prepare certain tests
 
-        // Type filters
-        String[] typeNames = annotMapper[typeIndex].getSortedEntries();
-        int[] types = new int[typeNames.length];
-        for (int i=0; i < typeNames.length; i++) {
-            types[i] = annotMapper[typeIndex].getIndexOf(typeNames[i]);
-        }
+        //TODO: may need to adjust sample filtering
+        //Custom Query - outside data loop (it will loop by itself
 
-        //dbSNP
-        int nodbSNP = -1;
-        if (dbSNPIndex > -1) {
-            nodbSNP = annotMapper[dbSNPIndex].getIndexOf("-");
+        if (run[CUSTOM_FILTER]) {
+            keys[CUSTOM_FILTER] = null;     //Not applied unless it runs
+            if (customQuery.equals("")) {
+                VarSifter.showError("No custom query string; did you click \"Apply\" in the Custom Query window?");
+            }
+            else {
+                try {
+                    CustomQuery q = CustomQuery.get(customQuery, bitSets);
+                    cache[CUSTOM_FILTER] = runCustomQuery(q.getModule(this));
+                    cacheKeys[CUSTOM_FILTER] = customQuery;
+                    keys[CUSTOM_FILTER] = customQuery;
+                    result[CUSTOM_FILTER] = cache[CUSTOM_FILTER];
+                }
+                catch (IllegalArgumentException iae) {
+                    if (CustomQuery.isLegacyMultiString(customQuery)) {
+                        VarSifter.showError("<html>Custom query not applied!!  It was saved by an earlier version of "
+                            + "VarSifter, and tests a column with multiple entries per cell the old way.<p>"
+                            + "Please remake those parts of the query.</html>");
+                    }
+                    else {
+                        VarSifter.showError("Error with custom query - not applied!!  Check console output for details.");
+                    }
+                    System.out.println(iae.getMessage());
+                }
+            }
         }
 
-        //menHetRec
-        if (mask[1].get(VarSifter.MENDHETREC)) {
-            notMendHetRec = annotMapper[mendHetRecIndex].getIndexOf("0,");
+        
+        //Apply all filters; intersection if that filter was used
+        BitSet included = new BitSet(data.length);
+        included.set(0,data.length);
+        for (int f=0; f < ALL_FILTERS; f++) {
+            if (keys[f] != null) {
+                included.and(result[f]);
+            }
         }
+        return included;
+    }
 
-        //aff/norm
-        int naInt = sampleMapper[0].getIndexOf("NA");
 
+    /**
+    *   Return a key of the inputs of each filter: if the key of a filter is the same as when its result was
+    *    cached, the result can be reused.
+    *
+    *   @param df The filters to apply
+    *   @return Key of each filter, or null if the filter is not used
+    */
+    private String[] filterKeys(DataFilter df) {
+        BitSet[] mask = df.getMask();
+        int[] spinnerData = df.getSpinnerData();
+        String[] keys = new String[ALL_FILTERS];
 
-        //filterFile
-        if (mask[1].get(7) || mask[1].get(8)) {
-            if (geneFile != null) {
-                geneSet = returnGeneSet(geneFile);
-            }
-            else {
-                VarSifter.showError("!!! geneFile not defined, so can't use it to filter !!!");
-                System.out.println("!!! geneFile not defined, so can't use it to filter !!!");
+        if (!mask[0].isEmpty()) {
+            keys[0] = mask[0].toString();
+        }
+        for (int f=1; f < TOTAL_FILTERS; f++) {
+            if (mask[1].get(f - 1)) {   //mask is 0-based, and has no type filter
+                keys[f] = "";
             }
         }
+        if (keys[6] != null) {
+            keys[6] = spinnerData[AFF_NORM_PAIR] + " " + df.getGenScoreThresh() + " " + Arrays.toString(affAt) + " "
+                + Arrays.toString(normAt);
+        }
+        if (keys[7] != null) {
+            keys[7] = spinnerData[CASE] + " " + spinnerData[CONTROL] + " " + df.getGenScoreThresh() + " "
+                + Arrays.toString(caseAt) + " " + Arrays.toString(controlAt);
+        }
+        if (keys[8] != null) {
+            keys[8] = fileKey(df.getGeneFile()) + " " + df.getGeneDelim();
+        }
+        if (keys[9] != null) {
+            keys[9] = fileKey(df.getGeneFile()) + " " + df.getGeneDelim();
+        }
+        if (keys[10] != null) {
+            keys[10] = fileKey(df.getBedFile());
+        }
+        if (keys[CUSTOM_FILTER] != null) {
+            keys[CUSTOM_FILTER] = customQuery;
+        }
+        if (df.getGeneQuery() != null) {
+            keys[GENE_FILTER] = df.getGeneQuery();
+        }
+        if (df.getMinMPG() != 0 || df.getMinMPGCovRatio() != 0) {
+            keys[QUAL_FILTER] = df.getMinMPG() + " " + df.getMinMPGCovRatio() + " " + spinnerData[MIN_MPG] + " "
+                + spinnerData[MIN_MPG_COV];
+        }
+        return keys;
+    }
 
-        //bedFilterFile
-        if (mask[1].get(9)) {
-            if (bedFile != null) {
-                bedHash = returnBedHash(bedFile);
-            }
-            else {
-                VarSifter.showError("!!! bedFile not defined, so nothing to filter with !!!");
-                System.out.println("!!! bedFile not defined, so nothing to filter with !!!");
-            }
+
+    /**
+    *   Return a key of a file that changes when the file does
+    */
+    static String fileKey(String path) {
+        if (path == null) {
+            return "none";
         }
+        File f = new File(path);
+        return f.getAbsolutePath() + " " + f.lastModified() + " " + f.length();
+    }
+
+
+    /**
+    *   Forget the cached filter results, so all filters are run again.  Must be called when the data changes.
+    */
+    protected void clearFilterCache() {
+        Arrays.fill(filterCacheKeys, null);
+        Arrays.fill(filterCache, null);
+        Arrays.fill(drillCacheKeys, null);
+        Arrays.fill(drillCache, null);
+    }
 
-        //Gene name filter
-        if (geneQuery != null) {
-            geneQueryPat = Pattern.compile(geneQuery, Pattern.CASE_INSENSITIVE);
-            geneFilter.clear();
+
+    /**
+    *   Return the number of distinct codes of an annotation column (codes are 0 to this - 1)
+    *
+    *   @param m The mapper of the column
+    *   @return Number of codes, or -1 for an INTEGER column, where the value is stored instead of a code
+    */
+    protected static int getCodeCount(AbstractMapper m) {
+        switch (m.getDataType()) {
+            case INTEGER:
+                return -1;
+            case MULTISTRING:
+                return ((MultiStringMapper)m).getSetCount();
+            default:
+                return m.getLength();
         }
-        
+    }
 
-        //Start filtering!
-        
-        for (int i = 0; i < data.length; i++) {
-            String[] tempGeno = { annotMapper[refAlleleIndex].getString(data[i][refAlleleIndex]), 
-                                  annotMapper[varAlleleIndex].getString(data[i][varAlleleIndex]) 
-                                };
-            String homNonRefGen = (tempGeno[1] + tempGeno[1]);
-            java.util.Arrays.sort(tempGeno);
-            String hetNonRefGen = "";
-            for (String s : tempGeno) {
-                hetNonRefGen += s;
+
+    /**
+    *   Copy the result of filtering one block of rows into the filters
+    *
+    *   @param part Result of RowFilter.filterRows() for the block
+    *   @param start First row of the block
+    *   @param filterSet Rows passing each filter
+    *   @param run Filters that were run
+    */
+    private void mergeFilterBlock(BitSet[] part, int start, BitSet[] filterSet, boolean[] run) {
+        for (int f=0; f < ALL_FILTERS; f++) {
+            if (run[f]) {
+                orRuns(filterSet[f], part[f], start);
             }
-           
-           
-            // variant type
-            for (int j=0; j < types.length; j++) {
-                if (mask[0].get(j) && (data[i][typeIndex] & (int)Math.pow(2, types[j])) > 0 ) {
+        }
+    }
+
+
+    /**
+    *   Run a custom query, in blocks of rows on the worker threads
+    *
+    *   @param aqm The query, bound to this VarData
+    *   @return BitSet of the rows passing
+    */
+    private BitSet runCustomQuery(AbstractQueryModule aqm) {
+        int blockSize = filterBlockSize();
+        if (blockSize >= data.length) {
+            return aqm.executeCustomQuery(0, data.length);
+        }
+        ExecutorService pool = VSThreadPool.getPool();
+        List<Future<BitSet>> blocks = new ArrayList<Future<BitSet>>();
+        for (int start = 0; start < data.length; start += blockSize) {
+            blocks.add(pool.submit(new QueryBlock(aqm, start, Math.min(start + blockSize, data.length))));
+        }
+        BitSet out = new BitSet(data.length);
+        for (int b=0; b < blocks.size(); b++) {
+            orRuns(out, getBlock(blocks.get(b)), b * blockSize);
+        }
+        return out;
+    }
+
+
+    /**
+    *   Return the number of rows given to a worker thread when filtering: enough for a few blocks per thread
+    */
+    private int filterBlockSize() {
+        int blocks = VSThreadPool.getThreadCount() * 4;
+        return Math.max(FILTER_BLOCK_MIN, (data.length + blocks - 1) / blocks);
+    }
+
+
+    /**
+    *   Wait for the result of a block, passing on any exception it threw
+    */
+    private static <T> T getBlock(Future<T> block) {
+        try {
+            return block.get();
+        }
+        catch (InterruptedException ie) {
+            throw new RuntimeException(ie);
+        }
+        catch (ExecutionException ee) {
+            Throwable t = ee.getCause();
+            throw (t instanceof RuntimeException) ? (RuntimeException)t : new RuntimeException(t);
+        }
+    }
+
+
+    /**
+    *   Set the bits of a block in a BitSet of all rows, a run of set bits at a time
+    */
+    private static void orRuns(BitSet all, BitSet block, int start) {
+        for (int b = block.nextSetBit(0); b >= 0; ) {
+            int e = block.nextClearBit(b);
+            all.set(start + b, start + e);
+            b = block.nextSetBit(e);
+        }
+    }
 
-                    filterSet[0].set(i);
-                    break;
+
+    /**
+    *   Filters one block of rows on a worker thread
+    */
+    private class FilterBlock implements Callable<BitSet[]> {
+        private RowFilter rf;
+        private int start;
+        private int end;
+
+        FilterBlock(RowFilter inRF, int inStart, int inEnd) {
+            rf = inRF;
+            start = inStart;
+            end = inEnd;
+        }
+
+        public BitSet[] call() {
+            return rf.filterRows(start, end);
+        }
+    }
+
+
+    /**
+    *   Runs a custom query on one block of rows on a worker thread
+    */
+    private static class QueryBlock implements Callable<BitSet> {
+        private AbstractQueryModule aqm;
+        private int start;
+        private int end;
+
+        QueryBlock(AbstractQueryModule inAQM, int inStart, int inEnd) {
+            aqm = inAQM;
+            start = inStart;
+            end = inEnd;
+        }
+
+        public BitSet call() {
+            return aqm.executeCustomQuery(start, end);
+        }
+    }
+
+
+    /**
+    *   The row tests of a DataFilter, with everything they need prepared once.  filterRows() only reads
+    *   data shared with other blocks, so blocks of rows can be filtered at the same time.
+    */
+    private class RowFilter {
+        private boolean[] run;
+        private int[] spinnerData;
+        private String geneQuery;
+        private Pattern geneQueryPat = null;
+        private int minMPG;
+        private float minMPGCovRatio;
+        private int genScoreThresh;
+        private String geneDelim;
+
+        private int typeIndex = dataTypeAt.get("type");
+        private int dbSNPIndex = (dataTypeAt.containsKey("dbID")) ? dataTypeAt.get("dbID") : -1;
+        private int mendRecIndex = (dataTypeAt.containsKey("MendHomRec")) ? dataTypeAt.get("MendHomRec") : -1;
+        private int mendHetRecIndex = (dataTypeAt.containsKey("MendHetRec")) ? dataTypeAt.get("MendHetRec") : -1;
+        private int mendDomIndex = (dataTypeAt.containsKey("MendDom")) ? dataTypeAt.get("MendDom") : -1;
+        private int mendBadIndex = (dataTypeAt.containsKey("MendInconsis")) ? dataTypeAt.get("MendInconsis") : -1;
+        private int geneIndex = dataTypeAt.get("Gene_name");
+        private int chrIndex = dataTypeAt.get("Chr");
+        private int lfIndex = dataTypeAt.get("LeftFlank");
+        private int notMendHetRec = -1;
+        private Set<String> geneSet = new HashSet<String>();
+        private BedIndex bedIndex = null;
+        private BitSet typeCodes;
+        private BitSet dbSNPCodes = null;       //dbID codes passing the dbSNP filter
+        private int[] chrColumn = null;
+        private int[] lfColumn = null;
+        private BitSet listedGeneCodes = null;  //Gene_name codes holding a gene of the gene file
+        private BitSet geneQueryCodes = null;   //Gene_name codes matching the gene name filter
+        private int naInt;
+        private GenotypeCodes genoCodes;
+        private int scoreType;
+        private int mpgRank;            //Samples needed to pass the qual filters
+        private int covRank;
+        private double mpgThresh;
+        private double[] mpgKth = null; //k-th highest score and score/coverage of each row (see mpgOrder)
+        private double[] covKth = null;
+        private boolean fillMPG = false;    //True if mpgKth is filled in by filterRows()
+        private boolean fillCov = false;
+
+        /**
+        *   Prepare the tests
+        *
+        *   @param df The filters to apply
+        *   @param inRun The filters to run (by index in the result of filterRows()); not changed
+        */
+        RowFilter(DataFilter df, boolean[] inRun) {
+            BitSet[] mask = df.getMask();
+            run = inRun.clone();
+            run[CUSTOM_FILTER] = false;     //Run by evaluateFilter() itself
+            spinnerData = df.getSpinnerData();
+            geneQuery = df.getGeneQuery();
+            minMPG = df.getMinMPG();
+            minMPGCovRatio = df.getMinMPGCovRatio();
+            genScoreThresh = df.getGenScoreThresh();
+            geneDelim = df.getGeneDelim();
+            String geneFile = df.getGeneFile();
+            String bedFile = df.getBedFile();
+
+            // Type filters: the set codes of the type column holding any checked type
+            MultiStringMapper typeMapper = (MultiStringMapper)annotMapper[typeIndex];
+            String[] typeNames = typeMapper.getSortedEntries();
+            BitSet checkedTypes = new BitSet(typeNames.length);
+            for (int i=0; i < typeNames.length; i++) {
+                if (mask[0].get(i)) {
+                    checkedTypes.set(typeMapper.getIndexOf(typeNames[i]));
                 }
             }
-
-            //dbSNP
-            if ( dbSNPIndex > -1 
-                && mask[1].get(0) 
-                && ( annotMapper[dbSNPIndex].getString(data[i][dbSNPIndex]).matches("^0|-$") )
-                ) {
-                
-                filterSet[1].set(i);
+            typeCodes = typeMapper.codesContainingAny(checkedTypes);
+
+            //dbSNP: codes of "0" or "-"
+            if (run[1] && dbSNPIndex > -1 && getCodeCount(annotMapper[dbSNPIndex]) >= 0) {
+                int count = getCodeCount(annotMapper[dbSNPIndex]);
+                dbSNPCodes = new BitSet(count);
+                for (int c=0; c < count; c++) {
+                    if (annotMapper[dbSNPIndex].getString(c).matches("^0|-$")) {
+                        dbSNPCodes.set(c);
+                    }
+                }
             }
-            
-            //Mendelian recessive (Hom recessive)
-            if (mask[1].get(1) && data[i][mendRecIndex] == 1) {
-                filterSet[2].set(i);
+
+            //menHetRec
+            if (run[5]) {
+                notMendHetRec = annotMapper[mendHetRecIndex].getIndexOf("0,");
             }
-            
-            //Mendelian Dominant
-            if (mask[1].get(2) && data[i][mendDomIndex] == 1) {
-                filterSet[3].set(i);
+
+            //aff/norm
+            naInt = sampleMapper[0].getIndexOf("NA");
+
+            //aff/norm and case/control compare 2-bit genotype codes where a row is packed
+            genoCodes = (run[6] || run[7]) ? returnGenotypeCodes() : null;
+            scoreType = sampleMapper[1].getDataType();
+
+            //Qual filters: a row passes if its k-th highest value passes, where k is the number of samples
+            //  needed.  These values are kept for the last k, so changing only a threshold does not
+            //  look at the samples again.
+            if (run[QUAL_FILTER]) {
+                mpgRank = spinnerData[MIN_MPG];
+                covRank = spinnerData[MIN_MPG_COV];
+                mpgThresh = (scoreType == FLOAT) ? (float)minMPG : minMPG;
+                fillMPG = (mpgRank > 0 && (mpgOrder == null || mpgOrderRank != mpgRank));
+                mpgKth = fillMPG ? new double[data.length] : mpgOrder;
+                fillCov = (covRank > 0 && (covOrder == null || covOrderRank != covRank));
+                covKth = fillCov ? new double[data.length] : covOrder;
             }
 
-            //Mendelian Inconsistant
-            if (mask[1].get(3) && data[i][mendBadIndex] == 1) {
-                filterSet[4].set(i);
+            //filterFile
+            if (run[8] || run[9]) {
+                if (geneFile != null) {
+                    geneSet = returnGeneSet(geneFile);
+                }
+                else {
+                    VarSifter.showError("!!! geneFile not defined, so can't use it to filter !!!");
+                    System.out.println("!!! geneFile not defined, so can't use it to filter !!!");
+                }
             }
-                
-            //Mendelian Compound Het (Het Recessive)
-            if (mask[1].get(VarSifter.MENDHETREC) && data[i][mendHetRecIndex] != notMendHetRec) {
-                filterSet[5].set(i);
-            }
-
-            //TODO: may need to adjust sample filtering
-            //Affected different from Normal
-            if (mask[1].get(5)) {
-                int count = 0;
-                for (int j=0; j < affAt.length; j++) {
-                    int affTemp = samples[i][affAt[j]][0];
-                    int normTemp = samples[i][normAt[j]][0];
-                    if (affTemp != normTemp &&
-                        affTemp != naInt &&
-                        normTemp != naInt &&
-                        ((sampleMapper[1].getDataType() == INTEGER && 
-                          samples[i][affAt[j]][1] >= genScoreThresh &&
-                          samples[i][normAt[j]][1] >= genScoreThresh) ||
-                         (sampleMapper[1].getDataType() == FLOAT &&
-                          sampleMapper[1].getFloat(samples[i][affAt[j]][1]) >= genScoreThresh &&
-                          sampleMapper[1].getFloat(samples[i][normAt[j]][1]) >= genScoreThresh)
-                        )
-                       ) {
-
-                        count++;
-                    }
+
+            //bedFilterFile
+            if (run[10]) {
+                if (bedFile != null) {
+                    bedIndex = BedIndex.get(bedFile);
+                    chrColumn = returnColumn(chrIndex);
+                    lfColumn = returnColumn(lfIndex);
                 }
-                if (count >= spinnerData[AFF_NORM_PAIR]) {
-                    filterSet[6].set(i);
+                else {
+                    VarSifter.showError("!!! bedFile not defined, so nothing to filter with !!!");
+                    System.out.println("!!! bedFile not defined, so nothing to filter with !!!");
                 }
             }
 
-            //TODO: may need to adjust sample filtering
-            // Variant allele in >=x cases, <=y controls
-            if (mask[1].get(6)) {
-                int caseCount = 0;
-                int controlCount = 0;
-                for (int j=0; j < caseAt.length; j++) {
-                    String caseTemp = sampleMapper[0].getString(samples[i][caseAt[j]][0]).replaceAll(":", "");
-                    if ( (caseTemp.equals(hetNonRefGen) || caseTemp.equals(homNonRefGen)) &&
-                        ((sampleMapper[1].getDataType() == INTEGER &&
-                          samples[i][caseAt[j]][1] >= genScoreThresh) ||
-                         (sampleMapper[1].getDataType() == FLOAT &&
-                          sampleMapper[1].getFloat(samples[i][caseAt[j]][1]) >= genScoreThresh)
-                        )
-                       ) {
-
-                        caseCount++;
+            //Gene name filter
+            if (geneQuery != null) {
+                geneQueryPat = Pattern.compile(geneQuery, Pattern.CASE_INSENSITIVE);
+            }
+
+            //The gene filters only depend on the Gene_name value, so test each distinct value once, and
+            //  filterRows() looks up the code of each row.  Integer columns have no dictionary to test.
+            int geneCodeCount = getCodeCount(annotMapper[geneIndex]);
+            if (geneCodeCount >= 0 && (run[8] || run[9])) {
+                listedGeneCodes = new BitSet(geneCodeCount);
+                for (int c=0; c < geneCodeCount; c++) {
+                    if (hasListedGene(annotMapper[geneIndex].getString(c))) {
+                        listedGeneCodes.set(c);
                     }
                 }
-                for (int j=0; j < controlAt.length; j++) {
-                    String controlTemp = sampleMapper[0].getString(samples[i][controlAt[j]][0]).replaceAll(":","");
-                    if ( (controlTemp.equals(hetNonRefGen) || controlTemp.equals(homNonRefGen)) &&
-                        ((sampleMapper[1].getDataType() == INTEGER &&
-                          samples[i][controlAt[j]][1] >= genScoreThresh) ||
-                         (sampleMapper[1].getDataType() == FLOAT &&
-                          sampleMapper[1].getFloat(samples[i][controlAt[j]][1]) >= genScoreThresh)
-                        )
-                       ) {
-                        controlCount++;
+            }
+            if (geneCodeCount >= 0 && run[GENE_FILTER]) {
+                geneQueryCodes = new BitSet(geneCodeCount);
+                for (int c=0; c < geneCodeCount; c++) {
+                    if (geneQueryPat.matcher(annotMapper[geneIndex].getString(c)).find()) {
+                        geneQueryCodes.set(c);
                     }
                 }
-                if (caseCount >= spinnerData[CASE] && controlCount <= spinnerData[CONTROL]) {
-                    filterSet[7].set(i);
-                }
             }
+        }
 
-            //Gene Filter File (include, exclude)                        
-            if (mask[1].get(7)) {
-                String[] dataGenes = 
-                    annotMapper[geneIndex].getString(data[i][geneIndex]).toLowerCase().split(geneDelim);
-                
-                for (String dG : dataGenes) {
-                    if (geneSet.contains(dG)) {
-                        filterSet[8].set(i);
-                        break;
+
+        /**
+        *   Run the filters that only test one column, using the column's index or its column-major copy.
+        *    filterRows() then skips them.
+        *
+        *   @return The rows passing each filter run here, or null for the other filters
+        */
+        BitSet[] filterColumns() {
+            BitSet[] out = new BitSet[ALL_FILTERS];
+            for (int f=0; f < ALL_FILTERS; f++) {
+                if (run[f]) {
+                    out[f] = filterColumn(f);
+                    if (out[f] != null) {
+                        run[f] = false;
                     }
                 }
             }
-            
-            //Gene Filter File (exclude)
-            if (mask[1].get(8)) {
-                String[] dataGenes = 
-                    annotMapper[geneIndex].getString(data[i][geneIndex]).toLowerCase().split(geneDelim);
-                boolean foundDG = false;
-                for (String dG : dataGenes) {
-                    if (geneSet.contains(dG)) {
-                        foundDG = true;
-                        break;
+            return out;
+        }
+
+
+        /**
+        *   Return the rows passing a filter, if it only tests one column
+        *
+        *   @param f The filter
+        *   @return The rows passing, or null if the filter must test each row
+        */
+        private BitSet filterColumn(int f) {
+            switch (f) {
+                case 0:
+                    return returnColumnIndex(typeIndex).rowsWithAny(typeCodes);
+                case 1:
+                    if (dbSNPIndex == -1) {
+                        return new BitSet(data.length);
+                    }
+                    return (dbSNPCodes == null) ? null : returnColumnIndex(dbSNPIndex).rowsWithAny(dbSNPCodes);
+                case 2:
+                    return rowsEqualTo(mendRecIndex, 1);
+                case 3:
+                    return rowsEqualTo(mendDomIndex, 1);
+                case 4:
+                    return rowsEqualTo(mendBadIndex, 1);
+                case 5:
+                    if (getCodeCount(annotMapper[mendHetRecIndex]) < 0) {
+                        return null;
+                    }
+                    BitSet notCompHet = new BitSet();
+                    if (notMendHetRec >= 0) {
+                        notCompHet.set(notMendHetRec);
                     }
+                    return returnColumnIndex(mendHetRecIndex).rowsWithNone(notCompHet);
+                case 8:
+                    return (listedGeneCodes == null) ? null : returnColumnIndex(geneIndex).rowsWithAny(listedGeneCodes);
+                case 9:
+                    return (listedGeneCodes == null) ? null : returnColumnIndex(geneIndex).rowsWithNone(listedGeneCodes);
+                case GENE_FILTER:
+                    return (geneQueryCodes == null) ? null : returnColumnIndex(geneIndex).rowsWithAny(geneQueryCodes);
+                default:
+                    return null;
+            }
+        }
+
+
+        /**
+        *   Return the rows where a column holds a value, scanning the column-major copy of the column
+        *    (none if the column is not present)
+        */
+        private BitSet rowsEqualTo(int col, int value) {
+            if (col < 0) {
+                return new BitSet(data.length);
+            }
+            int[] column = returnColumn(col);
+            BitSet out = new BitSet(column.length);
+            for (int i=0; i < column.length; i++) {
+                if (column[i] == value) {
+                    out.set(i);
                 }
-                if (!foundDG) {
-                    filterSet[9].set(i);
+            }
+            return out;
+        }
+
+
+        /**
+        *   Return true if a Gene_name value holds a gene of the gene file
+        */
+        private boolean hasListedGene(String genes) {
+            for (String dG : genes.toLowerCase().split(geneDelim)) {
+                if (geneSet.contains(dG)) {
+                    return true;
                 }
             }
+            return false;
+        }
+
+
+        /**
+        *   Filter a block of rows
+        *
+        *   @param start First row
+        *   @param end Row after the last row
+        *   @return The rows of the block passing each filter that is run (bit 0 is row start): TOTAL_FILTERS
+        *            filters, then the gene name filter (GENE_FILTER) and the quality filter (QUAL_FILTER)
+        */
+        BitSet[] filterRows(int start, int end) {
+            BitSet[] part = new BitSet[ALL_FILTERS];
+            for (int f=0; f < part.length; f++) {
+                part[f] = new BitSet(end - start);
+            }
+            part[QUAL_FILTER].set(0, end - start);
+            double[] qualValues = (fillMPG || fillCov) ? new double[sampleNames.length] : null;
+
+            for (int i = start; i < end; i++) {
+                // variant type
+                if (run[0] && typeCodes.get(data[i][typeIndex])) {
+                    part[0].set(i - start);
+                }
+
+                //dbSNP
+                if ( dbSNPIndex > -1 
+                    && run[1]
+                    && ( annotMapper[dbSNPIndex].getString(data[i][dbSNPIndex]).matches("^0|-$") )
+                    ) {
+                
+                    part[1].set(i - start);
+                }
             
-            //Bed Filter File (include)
-            if (mask[1].get(9)) {
-                String chrString = annotMapper[chrIndex].getString(data[i][chrIndex]);
-                if (bedHash[0].get(chrString) != null) {
-
-                    @SuppressWarnings("unchecked")
-                    Object[] starts = ((Map<String, List<Integer>>)bedHash[0]).get(chrString).toArray();
-                    @SuppressWarnings("unchecked")
-                    Object[] ends = ((Map<String, List<Integer>>)bedHash[1]).get(chrString).toArray();
-                    int pos = data[i][lfIndex] + 1;
-
-                    for (int j=0; j<starts.length;j++) {
-                        if (pos < (Integer)starts[j]) {
-                            continue;
+                //Mendelian Compound Het (Het Recessive)
+                if (run[5] && data[i][mendHetRecIndex] != notMendHetRec) {
+                    part[5].set(i - start);
+                }
+
+                //TODO: may need to adjust sample filtering
+                //Affected different from Normal
+                if (run[6]) {
+                    int count = 0;
+                    boolean isPacked = genoCodes.isPacked(i);
+                    for (int j=0; j < affAt.length; j++) {
+                        boolean differs;
+                        if (isPacked) {
+                            int affCode = genoCodes.get(i, affAt[j]);
+                            int normCode = genoCodes.get(i, normAt[j]);
+                            differs = (affCode != normCode && affCode != GenotypeCodes.NO_CALL
+                                && normCode != GenotypeCodes.NO_CALL);
+                        }
+                        else {
+                            int affTemp = samples.get(i, affAt[j], 0);
+                            int normTemp = samples.get(i, normAt[j], 0);
+                            differs = (affTemp != normTemp && affTemp != naInt && normTemp != naInt);
                         }
+                        if (differs &&
+                            passesScore(i, affAt[j], scoreType) &&
+                            passesScore(i, normAt[j], scoreType)
+                           ) {
 
-                        if (pos <= (Integer)ends[j]) {
-                            filterSet[10].set(i);
-                            break;
+                            count++;
                         }
                     }
+                    if (count >= spinnerData[AFF_NORM_PAIR]) {
+                        part[6].set(i - start);
+                    }
                 }
-            }
 
-            // Gene name Filter (TextArea)
-            if (geneQuery != null) {
-                if ((geneQueryPat.matcher(annotMapper[geneIndex].getString(data[i][geneIndex]))).find()) {
-                    geneFilter.set(i);
+                //TODO: may need to adjust sample filtering
+                // Variant allele in >=x cases, <=y controls
+                if (run[7]) {
+                    int caseCount = 0;
+                    int controlCount = 0;
+                    if (genoCodes.isPacked(i)) {
+                        //HET and HOM_ALT are the codes with the high bit set
+                        for (int j=0; j < caseAt.length; j++) {
+                            if (genoCodes.get(i, caseAt[j]) >= GenotypeCodes.HET && passesScore(i, caseAt[j], scoreType)) {
+                                caseCount++;
+                            }
+                        }
+                        for (int j=0; j < controlAt.length; j++) {
+                            if (genoCodes.get(i, controlAt[j]) >= GenotypeCodes.HET && passesScore(i, controlAt[j], scoreType)) {
+                                controlCount++;
+                            }
+                        }
+                    }
+                    else {
+                        //Compare genotype indices with those carrying the var allele in this row
+                        for (int j=0; j < caseAt.length; j++) {
+                            if (genoCodes.isCarrier(i, samples.get(i, caseAt[j], 0)) && passesScore(i, caseAt[j], scoreType)) {
+                                caseCount++;
+                            }
+                        }
+                        for (int j=0; j < controlAt.length; j++) {
+                            if (genoCodes.isCarrier(i, samples.get(i, controlAt[j], 0)) && passesScore(i, controlAt[j], scoreType)) {
+                                controlCount++;
+                            }
+                        }
+                    }
+                    if (caseCount >= spinnerData[CASE] && controlCount <= spinnerData[CONTROL]) {
+                        part[7].set(i - start);
+                    }
                 }
-            }
 
-            //TODO: may need to adjust sample filtering
-            // Qual filters
-            if (minMPG != 0 || minMPGCovRatio != 0) {
-                int minMPGCount = 0;
-                int minMPGCovCount = 0;
-                for (int j=0; j < sampleNames.length; j++) {
-                    if ((sampleMapper[1].getDataType() == INTEGER &&
-                          samples[i][j][1] >= minMPG) ||
-                        (sampleMapper[1].getDataType() == FLOAT &&
-                          sampleMapper[1].getFloat(samples[i][j][1]) >=minMPG)
-                       ) {
-                        minMPGCount++;
+                //Gene Filter File (include, exclude)
+                if (run[8] || run[9]) {
+                    int gene = data[i][geneIndex];
+                    boolean foundDG = (listedGeneCodes != null) ? listedGeneCodes.get(gene)
+                                                                : hasListedGene(annotMapper[geneIndex].getString(gene));
+                    if (run[8] && foundDG) {
+                        part[8].set(i - start);
+                    }
+                    if (run[9] && !foundDG) {
+                        part[9].set(i - start);
+                    }
+                }
+            
+                //Bed Filter File (include)
+                if (run[10] && bedIndex != null) {
+                    String chrString = annotMapper[chrIndex].getString(chrColumn[i]);
+                    if (bedIndex.contains(chrString, lfColumn[i] + 1)) {
+                        part[10].set(i - start);
                     }
-                    if ( samples[i][j][2] != 0 &&
-                         ((sampleMapper[1].getDataType() == INTEGER &&
-                           ((float)samples[i][j][1] / (float)samples[i][j][2]) >= minMPGCovRatio) ||
-                          (sampleMapper[1].getDataType() == FLOAT &&
-                           (sampleMapper[1].getFloat(samples[i][j][1]) / samples[i][j][2]) >= minMPGCovRatio)
-                         )
-                       ) {
-                        minMPGCovCount++;
+                }
+
+                // Gene name Filter (TextArea)
+                if (run[GENE_FILTER]) {
+                    int gene = data[i][geneIndex];
+                    if ((geneQueryCodes != null) ? geneQueryCodes.get(gene)
+                                                 : geneQueryPat.matcher(annotMapper[geneIndex].getString(gene)).find()) {
+                        part[GENE_FILTER].set(i - start);
                     }
                 }
-                if (minMPGCount < spinnerData[MIN_MPG] || minMPGCovCount < spinnerData[MIN_MPG_COV]) {
-                    qualFilter.clear(i);
+
+                //TODO: may need to adjust sample filtering
+                // Qual filters
+                if (run[QUAL_FILTER]) {
+                    if (qualValues != null) {
+                        fillQualOrders(i, qualValues);
+                    }
+                    if ((mpgRank > 0 && !(mpgKth[i] >= mpgThresh)) || (covRank > 0 && !(covKth[i] >= minMPGCovRatio))) {
+                        part[QUAL_FILTER].clear(i - start);
+                    }
                 }
             }
-                
-                        
+            return part;
         }
 
-        //TODO: may need to adjust sample filtering
-        //Custom Query - outside data loop (it will loop by itself
 
-        if (mask[1].get(10)) {
-            try {
-                CompileCustomQuery c = new CompileCustomQuery();
-                if ( c.compileCustom(customQuery) ) {
-                    filterSet[11] = c.run(this);
-                    filterSet[11].set(data.length + 1);
+        /**
+        *   Find the k-th highest MPG score and MPG score / coverage of a row, for the qual filters
+        *
+        *   @param i The row of data
+        *   @param values Space for the values of each sample
+        */
+        private void fillQualOrders(int i, double[] values) {
+            if (scoreType != INTEGER && scoreType != FLOAT) {
+                //No sample passes
+                if (fillMPG) {
+                    mpgKth[i] = Double.NEGATIVE_INFINITY;
                 }
-                else {
-                    VarSifter.showError("Error with custom query - not applied!!");
+                if (fillCov) {
+                    covKth[i] = Double.NEGATIVE_INFINITY;
                 }
+                return;
             }
-            catch (NoClassDefFoundError e) {
-                VarSifter.showError("<html>Couldn't find a class needed for custom querying - most likely you are"
-                    + "<p>not running Java JDK 1.6 or greater.  See console for more details.");
-                System.out.println(e.toString());
+            if (fillMPG) {
+                int n = 0;
+                for (int j=0; j < sampleNames.length; j++) {
+                    double score = (scoreType == INTEGER) ? samples.get(i, j, 1)
+                                                          : sampleMapper[1].getFloat(samples.get(i, j, 1));
+                    if (!Double.isNaN(score)) {
+                        values[n++] = score;
+                    }
+                }
+                mpgKth[i] = kthHighest(values, n, mpgRank);
+            }
+            if (fillCov) {
+                int n = 0;
+                for (int j=0; j < sampleNames.length; j++) {
+                    int cov = samples.get(i, j, 2);
+                    if (cov != 0) {
+                        float score = (scoreType == INTEGER) ? (float)samples.get(i, j, 1)
+                                                             : sampleMapper[1].getFloat(samples.get(i, j, 1));
+                        float ratio = score / (float)cov;
+                        if (!Float.isNaN(ratio)) {
+                            values[n++] = ratio;
+                        }
+                    }
+                }
+                covKth[i] = kthHighest(values, n, covRank);
             }
         }
 
-        
-        //Apply all filters; intersection if that filter was used
-        for (BitSet fs : filterSet) {
-            if (fs.get(data.length + 1)) {
-                dataIsIncluded.and(fs);
+
+        /**
+        *   Keep the values found by fillQualOrders(), once all rows are filtered
+        */
+        void keepQualOrders() {
+            if (fillMPG) {
+                mpgOrder = mpgKth;
+                mpgOrderRank = mpgRank;
+            }
+            if (fillCov) {
+                covOrder = covKth;
+                covOrderRank = covRank;
             }
         }
 
-        dataIsIncluded.and(geneFilter);
-        dataIsIncluded.and(qualFilter);
-        filterOutput();
+
+        /**
+        *   Return true if a sample's genotype score is at least the genotype score threshold
+        *
+        *   @param row The row of data
+        *   @param sample The sample
+        *   @param scoreType Data type of the score field (INTEGER or FLOAT; other types never pass)
+        */
+        private boolean passesScore(int row, int sample, int scoreType) {
+            if (scoreType == INTEGER) {
+                return samples.get(row, sample, 1) >= genScoreThresh;
+            }
+            else if (scoreType == FLOAT) {
+                return sampleMapper[1].getFloat(samples.get(row, sample, 1)) >= genScoreThresh;
+            }
+            return false;
+        }
+    }
+
+
+    /**
+    *   Return the k-th highest of some values (quickselect; the values are reordered)
+    *
+    *   @param v The values
+    *   @param n Number of values used, from the start of v
+    *   @param k Rank wanted (1 is the highest)
+    *   @return The value, or negative infinity if there are fewer than k values
+    */
+    private static double kthHighest(double[] v, int n, int k) {
+        if (k > n) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        int target = n - k;     //Position in ascending order
+        int lo = 0;
+        int hi = n - 1;
+        while (lo < hi) {
+            double pivot = v[(lo + hi) >>> 1];
+            int a = lo;
+            int b = hi;
+            while (a <= b) {
+                while (v[a] < pivot) {
+                    a++;
+                }
+                while (v[b] > pivot) {
+                    b--;
+                }
+                if (a <= b) {
+                    double t = v[a];
+                    v[a] = v[b];
+                    v[b] = t;
+                    a++;
+                    b--;
+                }
+            }
+            if (target <= b) {
+                hi = b;
+            }
+            else if (target >= a) {
+                lo = a;
+            }
+            else {
+                return v[target];
+            }
+        }
+        return v[target];
     }
 
+
     /** 
     *   Handle the filtering
     *  
     */
     protected void filterOutput() {
          
-        if (dataIsIncluded.cardinality() == data.length) {
+        int count = dataIsIncluded.cardinality();
+        if (count == data.length) {
             outData = data;
             outSamples = samples;
+            outRows = null;
         }
         else {
-            outData = new int[dataIsIncluded.cardinality()][];
-            outSamples = new int[dataIsIncluded.cardinality()][][];
+            outData = new int[count][];
+            outRows = new int[count];
             int j = 0;
-            for (int i=0; i < data.length; i++) {
-                if (dataIsIncluded.get(i)) {
-                    outData[j] = data[i];
-                    outSamples[j] = samples[i];
-                    j++;
-                }
+            for (int i = dataIsIncluded.nextSetBit(0); i >= 0; i = dataIsIncluded.nextSetBit(i + 1)) {
+                outData[j] = data[i];
+                outRows[j] = i;
+                j++;
             }
+            outSamples = samples.rowView(outRows);
         }
     }
 
@@ -1246,47 +1798,6 @@ public class VarData {
     }
     
 
-    /** 
-    *   Return a hash of Lists containing start positions in a bedfile
-    *  
-    *   @param inFile The Bedfile to load
-    *   @return An array of hashmaps.  Element 0: key=chrom, value = vector of starts.
-    *                                  Element 1: key=chrom, value = vector of ends.
-    */
-    protected Map[] returnBedHash(String inFile) {
-        Map<String, List<Integer>> outStart = new HashMap<String, List<Integer>>();
-        Map<String, List<Integer>> outEnd   = new HashMap<String, List<Integer>>();
-        Map[] outHash = new Map[2];
-
-        try {
-            String line = "";
-            Pattern chr = Pattern.compile("^chr");
-            BufferedReader br = new BufferedReader(new FileReader(inFile));
-            while ((line = br.readLine()) != null) {
-                if ( (chr.matcher(line)).find() ) {
-                    String[] lineArray = line.split("\\s+");
-                    if (outStart.get(lineArray[0]) == null) {
-                        outStart.put(lineArray[0], new ArrayList<Integer>());
-                        outEnd.put(lineArray[0], new ArrayList<Integer>());
-                    }
-
-                    outStart.get(lineArray[0]).add(Integer.valueOf(lineArray[1]) + 1);
-                    outEnd.get(lineArray[0]).add(Integer.valueOf(lineArray[2]));
-                }
-            }
-            br.close();
-        }
-        catch (IOException ioe) {
-            System.out.println(ioe);
-            System.exit(1);
-        }
-
-        outHash[0] = outStart;
-        outHash[1] = outEnd;
-        return outHash;
-    }
-
-
     /**
     *   Return array of comment lines
     *   @return array of comment lines, one row per line
@@ -1325,25 +1836,102 @@ public class VarData {
     }
 
 
+    /**
+    *   Release the sample values (see SampleMatrix.close()), closing their mapped files if this was the last
+    *    VarData using them.  Call when the data is no longer shown; it must not be used afterwards.
+    */
+    public void close() {
+        if (samples != null) {
+            samples.close();
+        }
+    }
+
+
     /**
     *   Return all sample data
     *
-    *   @return Returns all sample data as a 3d array: [line][sample][gen:score:cov]
+    *   @return Returns all sample data, indexed by [line][sample][gen:score:cov]
     */
-    public int[][][] returnSamples() {
+    public SampleMatrix returnSamples() {
         return samples;
     }
 
     /**
     *   Return filtered sample data
     *
-    *   @return Returns filtered sample data as 3d array: [line][sample][gen:score:cov]
+    *   @return Returns filtered sample data, indexed by [line][sample][gen:score:cov]
     */
-    public int[][][] returnOutSamples() {
+    public SampleMatrix returnOutSamples() {
         return outSamples;
     }
 
 
+    /**
+    *   Return the 2-bit genotype codes of all rows, packing them the first time this is called
+    *   @return GenotypeCodes for the rows of data
+    */
+    public synchronized GenotypeCodes returnGenotypeCodes() {
+        if (genotypeCodes == null) {
+            genotypeCodes = new GenotypeCodes(data, dataTypeAt.get("ref_allele"), dataTypeAt.get("var_allele"),
+                annotMapper, samples, sampleMapper[0]);
+        }
+        return genotypeCodes;
+    }
+
+
+    /**
+    *   Return the values of an annotation column as one array (column-major), copying them out of the rows
+    *    the first time this is called.  Scanning one column is then a tight loop over a single array.
+    *
+    *   @param col The column
+    *   @return The value (or code) of each row; must not be changed
+    */
+    public synchronized int[] returnColumn(int col) {
+        if (columns == null) {
+            columns = new int[annotMapper.length][];
+        }
+        if (columns[col] == null) {
+            int[] column = new int[data.length];
+            for (int i=0; i < data.length; i++) {
+                column[i] = data[i][col];
+            }
+            columns[col] = column;
+        }
+        return columns[col];
+    }
+
+
+    /**
+    *   Return the inverted index of an annotation column, building it the first time this is called
+    *
+    *   @param col The column
+    *   @return The index, or null for an INTEGER column (which has no codes)
+    */
+    public synchronized ColumnIndex returnColumnIndex(int col) {
+        int codeCount = getCodeCount(annotMapper[col]);
+        if (codeCount < 0) {
+            return null;
+        }
+        if (columnIndex == null) {
+            columnIndex = new ColumnIndex[annotMapper.length];
+        }
+        if (columnIndex[col] == null) {
+            columnIndex[col] = new ColumnIndex(data, col, codeCount);
+        }
+        return columnIndex[col];
+    }
+
+
+    /**
+    *   Return the 2-bit genotype codes of the filtered rows
+    *   @return GenotypeCodes for the rows of outData
+    */
+    public GenotypeCodes returnOutGenotypeCodes() {
+        GenotypeCodes codes = returnGenotypeCodes();
+        return (outRows == null) ? codes : codes.rowView(outRows);
+    }
+
+
     /**
     *   Return the Annotation Column Names
     *   @return Returns an array of the column header names
@@ -1524,9 +2112,9 @@ public class VarData {
                 eachPair[pairCount] = new int[compHetFields.length + (sampleNames.length * S_FIELDS)];
                 for (int j = compHetFields.length; j < eachPair[pairCount].length; j+=S_FIELDS) {
                     int sampleIndex = (j - compHetFields.length) / S_FIELDS;
-                    eachPair[pairCount][j]   = outSamples[i][sampleIndex][0];
-                    eachPair[pairCount][j+1] = outSamples[i][sampleIndex][1];
-                    eachPair[pairCount][j+2] = outSamples[i][sampleIndex][2];
+                    eachPair[pairCount][j]   = outSamples.get(i, sampleIndex, 0);
+                    eachPair[pairCount][j+1] = outSamples.get(i, sampleIndex, 1);
+                    eachPair[pairCount][j+2] = outSamples.get(i, sampleIndex, 2);
                 }
             }
             else {
@@ -1564,7 +2152,7 @@ public class VarData {
     public int[][] returnSample(int i) {
         int[][] tempOutSamples;
         
-        if (outSamples.length == 0) {
+        if (outSamples.getRowCount() == 0) {
             tempOutSamples = new int[0][];
         }
         else {
@@ -1572,7 +2160,7 @@ public class VarData {
             tempOutSamples = new int[sampleNames.length][S_FIELDS+1];
             for (int j = 0; j < sampleNames.length; j++) {
                 for (int k = 0; k < S_FIELDS; k++) {
-                    tempOutSamples[j][k+1] = outSamples[i][j][k];
+                    tempOutSamples[j][k+1] = outSamples.get(i, j, k);
                 }
                 tempOutSamples[j][0] = j;
             }
@@ -1607,7 +2195,8 @@ public class VarData {
 
 
     /** 
-    *   Returns a new Object with a subset of the data
+    *   Returns a new Object with a subset of the data.  The subset shares the rows and sample values of
+    *    this VarData instead of copying them; a shared row is copied when either one edits it.
     *  
     *   @param vdatIn The VarData object to use as a basis for a Sub VarData object
     *   @param isInSubset BitSet where set bits determine which rows to include
@@ -1617,17 +2206,16 @@ public class VarData {
         if (isInSubset == null) {
             isInSubset = dataIsIncluded;
         }
-        int[][] subsetData = new int[isInSubset.cardinality()][data[0].length];
-        int[][][] subsetSamples = new int[subsetData.length][][];
+        int[][] subsetData = new int[isInSubset.cardinality()][];
+        int[] subsetRows = new int[subsetData.length];
         int lastPos = 0;
-        for (int i=0; i < data.length; i++) {
-            if (isInSubset.get(i)) {
-                System.arraycopy(data[i], 0, subsetData[lastPos], 0, data[i].length);
-                subsetSamples[lastPos] = samples[i];
-                lastPos++;
-            }
+        for (int i = isInSubset.nextSetBit(0); i >= 0; i = isInSubset.nextSetBit(i + 1)) {
+            subsetData[lastPos] = data[i];
+            subsetRows[lastPos] = i;
+            lastPos++;
         }
-        return new VarData(subsetData,
+        SampleMatrix subsetSamples = samples.rowView(subsetRows);
+        VarData sub = new VarData(subsetData,
                            dataNamesOrig,
                            dataNames,
                            subsetSamples,
@@ -1645,6 +2233,15 @@ public class VarData {
                            sampleMapper,
                            commentList
                            );
+        sub.sharedRows = new BitSet(subsetData.length);
+        sub.sharedRows.set(0, subsetData.length);
+        synchronized (this) {
+            if (sharedRows == null) {
+                sharedRows = new BitSet(data.length);
+            }
+            sharedRows.or(isInSubset);
+        }
+        return sub;
     }
 
     /**
@@ -1659,6 +2256,8 @@ public class VarData {
         else {
             bitSets = inBS;
         }
+        filterCacheKeys[CUSTOM_FILTER] = null;  //The same query text may now test different values
+        drillCacheKeys[CUSTOM_FILTER] = null;
     }
 
 
@@ -1694,7 +2293,22 @@ public class VarData {
         for (int i = 0; i <= row; i++) {
             lastIndex = ( dataIsIncluded.nextSetBit(lastIndex) + 1 );
         }
+        if (sharedRows != null && sharedRows.get(lastIndex - 1)) {
+            //Copy a row shared with a subset or parent VarData, so the edit only changes this one
+            data[lastIndex - 1] = data[lastIndex - 1].clone();
+            sharedRows.clear(lastIndex - 1);
+            outData[row] = data[lastIndex - 1];
+        }
         data[lastIndex - 1][col] = annotMapper[col].addData(newData);
+        clearFilterCache();
+        synchronized (this) {
+            if (columnIndex != null) {
+                columnIndex[col] = null;
+            }
+            if (columns != null && columns[col] != null) {
+                columns[col][lastIndex - 1] = data[lastIndex - 1][col];
+            }
+        }
     }
 
 
@@ -1729,8 +2343,8 @@ public class VarData {
 
         //Test - unique and not NA between first 2 samples
         //for (int i = 0; i < vdat.samples.length; i++) {
-        //    if (!vdat.samples[i][0][0].equals(vdat.samples[i][1][0]) && (!vdat.samples[i][0][0].equals("NA") 
-        //        && !vdat.samples[i][1][0].equals("NA"))) {
+        //    if (!vdat.samples.get(i, 0, 0).equals(vdat.samples.get(i, 1, 0)) && (!vdat.samples.get(i, 0, 0).equals("NA") 
+        //        && !vdat.samples.get(i, 1, 0).equals("NA"))) {
 
         //        StringBuilder out = new StringBuilder();
         //        for (String s : vdat.data[i]) {
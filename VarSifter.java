@@ -13,6 +13,9 @@ import java.util.List;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import components.TableSorter;
 
 /** 
@@ -155,8 +158,7 @@ public class VarSifter extends JFrame implements ListSelectionListener, ActionLi
     private DataFilter df = null;
     public final static Pattern fDigits = Pattern.compile("^-?[0-9]+\\.[0-9]+(E-?[0-9]+)?$|^NaN$");
     public final static Pattern emptyPat = Pattern.compile("emptyVS_.*tmp");
-    private final Pattern vcfPat = Pattern.compile("\\.vcf$");
-    private final Pattern gzPat = Pattern.compile("\\.gz$");
+    private final Pattern vcfPat = Pattern.compile("\\.vcf(?:\\.b?gz)?$");
 
     //Default score cutoff thresholds
     protected static int SCORE_THRESH = 10;
@@ -196,23 +198,13 @@ public class VarSifter extends JFrame implements ListSelectionListener, ActionLi
         //Load config file
         opt = parseConfig();
 
-        if (inFile == null) {
-            try {
-                File emptyFile = File.createTempFile("emptyVS_", null, null);
-                emptyFile.deleteOnExit();
-                PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(emptyFile)));
-                pw.println(emptyHeader);
-                pw.close();
-                inFile = emptyFile.toString();
-            }
-            catch (IOException ioe) {
-                VarSifter.showError("<html>Could not write to Java temp directory.<p>To avoid this error again, " +
-                    "either allow write permission in the Java temp directory,<p>" +
-                    "or open a file from the commandline:<p>java -jar VarSifter[version].jar [your data file]</html>");
-                System.out.println(ioe);
-                System.exit(1);
-            }
-
+        VarData loaded = null;
+        if (inFile != null) {
+            loaded = getNewVarData(inFile);
+        }
+        if (loaded == null) {   //No file given, or its load was cancelled
+            inFile = writeEmptyFile();
+            loaded = new VarData(inFile);
         }
         if (emptyPat.matcher(inFile).find()) {
             this.setTitle("VarSifter - No file loaded yet");
@@ -222,7 +214,7 @@ public class VarSifter extends JFrame implements ListSelectionListener, ActionLi
         }
         outTable = new JTable();
         sampleTable = new JTable();
-        redrawOutTable(inFile);
+        redrawOutTable(loaded);
         initTable();
 
         if (emptyPat.matcher(inFile).find()) {
@@ -230,6 +222,31 @@ public class VarSifter extends JFrame implements ListSelectionListener, ActionLi
         }
     }
 
+
+    /**
+    *   Write a VS file with a header and no data, to start with when no file is loaded
+    *
+    *   @return Path of the file
+    */
+    private static String writeEmptyFile() {
+        try {
+            File emptyFile = File.createTempFile("emptyVS_", null, null);
+            emptyFile.deleteOnExit();
+            PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(emptyFile)));
+            pw.println(emptyHeader);
+            pw.close();
+            return emptyFile.toString();
+        }
+        catch (IOException ioe) {
+            VarSifter.showError("<html>Could not write to Java temp directory.<p>To avoid this error again, " +
+                "either allow write permission in the Java temp directory,<p>" +
+                "or open a file from the commandline:<p>java -jar VarSifter[version].jar [your data file]</html>");
+            System.out.println(ioe);
+            System.exit(1);
+        }
+        return null;
+    }
+
     /** 
     *   Constructor using VarData object
     *  
@@ -242,6 +259,11 @@ public class VarSifter extends JFrame implements ListSelectionListener, ActionLi
         setBounds(w-(3* w/4), (h/2), (w/2), (h/2));
         //setBounds(0, (h/4), (w/2), (h/2));
         vdat = vdatTemp;
+        addWindowListener(new WindowAdapter() {
+            public void windowClosed(WindowEvent e) {
+                vdat.close();   //The subset shares the sample store of the data it came from
+            }
+        });
         String[] sampValName = vdat.returnSampleValueNames();
         sampleTableLabels = new String[sampValName.length + 1];
         sampleTableLabels[0] = "Sample";
@@ -330,19 +352,20 @@ public class VarSifter extends JFrame implements ListSelectionListener, ActionLi
                 }
             }
 
-            vdat.filterData(new DataFilter(emptyBS, null, null, spinnerData, geneRegex, minMPG, minMPGCovRatio, genScoreThresh, geneDelim));
-            VarData tempVdat = vdat.returnSubVarData(vdat, null);
+            BitSet geneRows = vdat.evaluateFilter(new DataFilter(emptyBS, null, null, spinnerData, geneRegex, minMPG, minMPGCovRatio, genScoreThresh, geneDelim));
+            VarData tempVdat = vdat.returnSubVarData(vdat, geneRows);
             VarSifter vs = new VarSifter(tempVdat);
-            
-            //Must return the filtered state to what it was, to avoid data mapping errors!
-            vdat.filterData(df);
         }
 
         else if (es == openItem) {
             String fName = openData(VARIANT_FILE);
+            VarData loaded = (fName == null) ? null : getNewVarData(fName);
 
             // If a new data file is loaded, we need to clear out the current data
-            if (fName != null) {
+            //  (if the load was cancelled, the current data is kept)
+            if (loaded != null) {
+                VarSifter.this.setTitle("VarSifter - " + fName);
+
                 //Clear listeners
                 registerActionListeners(listenerList, false);
                 listenerList.clear();
@@ -358,9 +381,10 @@ public class VarSifter extends JFrame implements ListSelectionListener, ActionLi
                 preferViewParent.dispose();
                 dispose();
 
-                //Reinitialize, load data
+                //Reinitialize with the new data, releasing the old data's sample store
+                vdat.close();
                 frameInit();
-                redrawOutTable(fName);
+                redrawOutTable(loaded);
                 initTable();
             }
         }
@@ -443,17 +467,15 @@ public class VarSifter extends JFrame implements ListSelectionListener, ActionLi
             }
             BitSet[] tempBS = { mask[0], (BitSet)(mask[1].clone()) };
             tempBS[1].set(MENDHETREC);
-            vdat.filterData(new DataFilter(tempBS, geneFile, bedFile, spinnerData, geneRegex, minMPG, minMPGCovRatio, genScoreThresh, geneDelim));
-            int temp[][] = vdat.returnOutData();
-
-            //Must return the filtered state to what it was, to avoid data mapping errors!
-            vdat.filterData(df);
-
-            if (temp.length > 0) {
-                String[] index = new String[temp.length];
-                for (int i=0; i<temp.length; i++) {
-                    index[i] = annotMapper[indexIndex].getString(temp[i][indexIndex]) + "," 
-                        + annotMapper[mendHetRecIndex].getString(temp[i][mendHetRecIndex]);
+            BitSet compHetRows = vdat.evaluateFilter(new DataFilter(tempBS, geneFile, bedFile, spinnerData, geneRegex, minMPG, minMPGCovRatio, genScoreThresh, geneDelim));
+            int allData[][] = vdat.returnData();
+
+            if (!compHetRows.isEmpty()) {
+                String[] index = new String[compHetRows.cardinality()];
+                int n = 0;
+                for (int i = compHetRows.nextSetBit(0); i >= 0; i = compHetRows.nextSetBit(i + 1)) {
+                    index[n++] = annotMapper[indexIndex].getString(allData[i][indexIndex]) + "," 
+                        + annotMapper[mendHetRecIndex].getString(allData[i][mendHetRecIndex]);
                 }
                 CompHetView c = new CompHetView(index, vdat, compHetSamples.isSelected());
             }
@@ -487,17 +509,15 @@ public class VarSifter extends JFrame implements ListSelectionListener, ActionLi
             String geneRegex = (getRegex() == null) ? "." : getRegex();
             BitSet[] tempBS = { mask[0], (BitSet)(mask[1].clone()) };
             tempBS[1].set(MENDHETREC);
-            vdat.filterData(new DataFilter(tempBS, geneFile, bedFile, spinnerData, geneRegex, minMPG, minMPGCovRatio, genScoreThresh, geneDelim));
-            int temp[][] = vdat.returnOutData();
-
-            //Must return the filtered state to what it was, to avoid data mapping errors!
-            vdat.filterData(df);
-
-            if (temp.length > 0) {
-                String[] index = new String[temp.length];
-                for (int i=0; i<temp.length; i++) {
-                    index[i] = annotMapper[indexIndex].getString(temp[i][indexIndex]) + "," 
-                        + annotMapper[mendHetRecIndex].getString(temp[i][mendHetRecIndex]);
+            BitSet compHetRows = vdat.evaluateFilter(new DataFilter(tempBS, geneFile, bedFile, spinnerData, geneRegex, minMPG, minMPGCovRatio, genScoreThresh, geneDelim));
+            int allData[][] = vdat.returnData();
+
+            if (!compHetRows.isEmpty()) {
+                String[] index = new String[compHetRows.cardinality()];
+                int n = 0;
+                for (int i = compHetRows.nextSetBit(0); i >= 0; i = compHetRows.nextSetBit(i + 1)) {
+                    index[n++] = annotMapper[indexIndex].getString(allData[i][indexIndex]) + "," 
+                        + annotMapper[mendHetRecIndex].getString(allData[i][mendHetRecIndex]);
                 }
                 CompHetView c = new CompHetView(index, vdat, compHetSamples.isSelected());
             }
@@ -1226,12 +1246,12 @@ public class VarSifter extends JFrame implements ListSelectionListener, ActionLi
     /** 
     *   Redraw Table
     *  
-    *   @param newData VS file
+    *   @param newData Newly loaded data, or null to redraw the current data
     */
-    private void redrawOutTable(String newData) {
+    private void redrawOutTable(VarData newData) {
         
         if (newData != null) {
-            vdat = getNewVarData(newData);
+            vdat = newData;
             String[] sampValName = vdat.returnSampleValueNames();
             sampleTableLabels = new String[sampValName.length + 1];
             sampleTableLabels[0] = "Sample";
@@ -1419,21 +1439,96 @@ public class VarSifter extends JFrame implements ListSelectionListener, ActionLi
 
 
     /**
-    *   Determine what type of file to interpret, call the correct VarData object
+    *   Determine what type of file to interpret, and load it into the correct VarData object on a
+    *    background thread.  A progress dialog with a Cancel button is shown meanwhile; it is modal, so the
+    *    windows keep repainting but take no other input until the load ends.
+    *
+    *   @param in File name
+    *   @return The loaded data, or null if the load was cancelled (or failed)
     */
-    private VarData getNewVarData(String in) {
-        VarData v = null;
-        if (vcfPat.matcher(in).find()) {
-            v = new VCFVarData(in);
+    private VarData getNewVarData(final String in) {
+        final boolean isVCF = vcfPat.matcher(in).find();
+        final String regions = isVCF ? askRegions(in) : null;
+        final LoadProgress progress = new LoadProgress((regions == null) ? new File(in).length() : -1);
+        final LoadProgressDialog dialog = new LoadProgressDialog(this, in, progress);
+
+        SwingWorker<VarData, Void> worker = new SwingWorker<VarData, Void>() {
+            protected VarData doInBackground() {
+                LoadProgress.begin(progress);
+                try {
+                    if (isVCF) {
+                        return new VCFVarData(in, regions);
+                    }
+                    else {
+                        return new VarData(in);
+                    }
+                }
+                finally {
+                    LoadProgress.end();
+                }
+            }
+
+            protected void done() {
+                dialog.dispose();
+            }
+        };
+        worker.execute();
+        dialog.setVisible(true);    //Returns when done() closes the dialog
+
+        try {
+            return worker.get();
         }
-        else if (gzPat.matcher(in).find()) {
-            VarSifter.showError("Cannot read .gz files.  Please uncompress and load the uncompressed file.");
-            System.exit(1);
+        catch (InterruptedException ie) {
+            return null;
         }
-        else {
-            v = new VarData(in);
+        catch (java.util.concurrent.ExecutionException ee) {
+            Throwable t = ee.getCause();
+            if (t instanceof LoadProgress.CancelledException) {
+                System.out.println("Loading of " + in + " cancelled.");
+            }
+            else if (t instanceof LoadException) {
+                System.out.println(t.getMessage());
+                if (t.getCause() != null) {
+                    System.out.println(t.getCause());
+                }
+                showError(t.getMessage());
+            }
+            else {
+                showError("<html>Ooops - VarSifter encountered an unexpected error when loading your "
+                    + "file.<p>Check the terminal output for full details:<p>" + t.toString());
+                t.printStackTrace();
+            }
+            return null;
+        }
+    }
+
+
+    /**
+    *   If a VCF file has a tabix or CSI index, ask which regions to load
+    *
+    *   @param in VCF file name
+    *   @return BED file name or region list, or null to load the whole file
+    */
+    private String askRegions(String in) {
+        if (TabixIndex.findIndexFile(in) == null) {
+            return null;
+        }
+        while (true) {
+            String regions = JOptionPane.showInputDialog(null,
+                "This VCF file is indexed.  To load only some regions, enter a BED file name or\n" +
+                "regions (ie chr1:10000-20000, chr2), or leave blank to load the whole file.",
+                "Load Regions", JOptionPane.QUESTION_MESSAGE);
+            if (regions == null || regions.trim().length() == 0) {
+                return null;
+            }
+            try {
+                TabixRegionReader.parseRegions(regions.trim());
+                return regions.trim();
+            }
+            catch (IOException ioe) {
+                showError(ioe.getMessage());
+            }
         }
-        return v;
     }
 
 
@@ -1540,8 +1635,13 @@ public class VarSifter extends JFrame implements ListSelectionListener, ActionLi
     *  
     *   @param err An error message to display as a MessageDialog
     */
-    public static void showError(String err) {
-        JOptionPane.showMessageDialog(null, err, "Error!", JOptionPane.ERROR_MESSAGE);
+    public static void showError(final String err) {
+        callOnEDT(new Callable<Void>() {
+            public Void call() {
+                JOptionPane.showMessageDialog(null, err, "Error!", JOptionPane.ERROR_MESSAGE);
+                return null;
+            }
+        });
     }
 
 
@@ -1550,8 +1650,63 @@ public class VarSifter extends JFrame implements ListSelectionListener, ActionLi
     *
     *   @param mess A message to display
     */
-    public static void showMessage(String mess) {
-        JOptionPane.showMessageDialog(null, mess, "VarSifter Message", JOptionPane.INFORMATION_MESSAGE);
+    public static void showMessage(final String mess) {
+        callOnEDT(new Callable<Void>() {
+            public Void call() {
+                JOptionPane.showMessageDialog(null, mess, "VarSifter Message", JOptionPane.INFORMATION_MESSAGE);
+                return null;
+            }
+        });
+    }
+
+
+    /**
+    *   Run a dialog (or other Swing work) on the event dispatch thread, and wait for its answer.  Loaders
+    *    run on a background thread, so their prompts go through here; the load's time estimate is paused
+    *    while the user answers.
+    *
+    *   @param prompt The work to run
+    *   @return What prompt returned
+    */
+    public static <T> T callOnEDT(Callable<T> prompt) {
+        FutureTask<T> task = new FutureTask<T>(prompt);
+        if (SwingUtilities.isEventDispatchThread()) {
+            task.run();
+        }
+        else {
+            LoadProgress.pause();
+            try {
+                SwingUtilities.invokeAndWait(task);
+            }
+            catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new LoadProgress.CancelledException();
+            }
+            catch (java.lang.reflect.InvocationTargetException ite) {
+                //FutureTask keeps its own exceptions, so this is not expected
+                throw new RuntimeException(ite.getCause());
+            }
+            finally {
+                LoadProgress.resume();
+            }
+        }
+
+        try {
+            return task.get();
+        }
+        catch (InterruptedException ie) {
+            throw new RuntimeException(ie);
+        }
+        catch (ExecutionException ee) {
+            Throwable t = ee.getCause();
+            if (t instanceof RuntimeException) {
+                throw (RuntimeException)t;
+            }
+            if (t instanceof Error) {
+                throw (Error)t;
+            }
+            throw new RuntimeException(t);
+        }
     }
 
 
@@ -1610,10 +1765,7 @@ public class VarSifter extends JFrame implements ListSelectionListener, ActionLi
         }
 
         System.out.println(fileName);
-        if (openType == VARIANT_FILE) {
-            VarSifter.this.setTitle("VarSifter - " + fileName);
-        }
-        else if (openType == GENE_FILTER_FILE) {
+        if (openType == GENE_FILTER_FILE) {
             filterFileLabel.setText(fileName);
             filterFile.setEnabled(true);
             notFilterFile.setEnabled(true);
@@ -1794,6 +1946,34 @@ public class VarSifter extends JFrame implements ListSelectionListener, ActionLi
             geneDelim = cTemp.get("Gene_Delim");
         }
 
+        if (cTemp.exists("Worker_Threads")) {
+            Integer i = cTemp.getInteger("Worker_Threads");
+            if (i != null) {
+                VSThreadPool.setThreadCount(i.intValue());
+            }
+        }
+
+        if (cTemp.exists("Binary_Cache")) {
+            VSBinaryCache.setEnabled(Boolean.parseBoolean(cTemp.get("Binary_Cache")));
+        }
+
+        if (cTemp.exists("Sample_Store")) {
+            String store = cTemp.get("Sample_Store");
+            if (store.equalsIgnoreCase("heap")) {
+                SampleMatrix.setStoreMode(SampleMatrix.STORE_HEAP);
+            }
+            else if (store.equalsIgnoreCase("disk")) {
+                SampleMatrix.setStoreMode(SampleMatrix.STORE_DISK);
+            }
+            else {
+                SampleMatrix.setStoreMode(SampleMatrix.STORE_AUTO);
+            }
+        }
+
+        if (cTemp.exists("Sample_Store_Dir")) {
+            SampleMatrix.setStoreDirectory(cTemp.get("Sample_Store_Dir"));
+        }
+
         return cTemp;
 
     }